@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import de.uds.lsv.platon.action.IOType;
+import de.uds.lsv.platon.session.User;
+
+/**
+ * Optional extension of DialogClient for clients that can
+ * start outputs without blocking the session until the
+ * output id is known. If the session's dialog client
+ * implements this interface, VerbalOutputAction uses it,
+ * and outputs started in the same turn are sent in a
+ * single outputStartBatch call.
+ */
+public interface AsyncDialogClient extends DialogClient {
+	/**
+	 * Called exactly once per output, on any thread.
+	 * started has to be called before the output is
+	 * reported in an {@code outputEnded} notification.
+	 */
+	public interface OutputStartCallback {
+		void started(int outputId);
+		
+		void failed(Throwable t);
+	}
+	
+	/**
+	 * The arguments of one outputStart call.
+	 */
+	public static class OutputRequest {
+		public final User user;
+		public final IOType ioType;
+		public final String text;
+		public final Map<String,Object> details;
+		public final OutputStartCallback callback;
+		
+		public OutputRequest(User user, IOType ioType, String text, Map<String,Object> details, OutputStartCallback callback) {
+			this.user = user;
+			this.ioType = ioType;
+			this.text = text;
+			this.details = details;
+			this.callback = callback;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("[OutputRequest: »%s« @%s]", text, user);
+		}
+	}
+	
+	/**
+	 * Asynchronous version of outputStart.
+	 *
+	 * @return
+	 *   the future output id
+	 * @see #outputStart(User,IOType,String,Map)
+	 */
+	Future<Integer> outputStartAsync(
+		User user,
+		IOType ioType,
+		String text,
+		Map<String,Object> details,
+		OutputStartCallback callback
+	);
+	
+	/**
+	 * Starts several outputs (e.g. to different users)
+	 * with a single call.
+	 *
+	 * @return
+	 *   the future output ids, in the order of the
+	 *   requests
+	 */
+	List<Future<Integer>> outputStartBatch(List<OutputRequest> requests);
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon;
+
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import de.uds.lsv.platon.exception.DialogWorldException;
+
+/**
+ * Optional extension of DialogWorld for game servers that can
+ * have several change requests in flight. If the session's
+ * dialog world implements this interface, ModifyObjectAction
+ * and DeleteObjectAction don't wait for a request to return
+ * before the session goes on with the next task.
+ *
+ * Requests have to be performed in the order in which they
+ * were made.
+ */
+public interface AsyncDialogWorld extends DialogWorld {
+	/**
+	 * Called exactly once per request, on any thread.
+	 */
+	public interface ChangeRequestCallback {
+		/**
+		 * The request was accepted. As for the synchronous
+		 * methods, the modifications are reported by a
+		 * change notification.
+		 */
+		void succeeded();
+		
+		/**
+		 * The request was rejected.
+		 */
+		void failed(DialogWorldException e);
+	}
+	
+	/**
+	 * Asynchronous version of changeRequestModify.
+	 *
+	 * @return
+	 *   a future that is done when the request has been
+	 *   accepted or rejected (after the callback has been
+	 *   called)
+	 * @see #changeRequestModify(int,Map)
+	 */
+	Future<?> changeRequestModifyAsync(
+		int transactionId,
+		Map<String,String> obj,
+		ChangeRequestCallback callback
+	);
+	
+	/**
+	 * Asynchronous version of changeRequestDelete.
+	 *
+	 * @return
+	 *   a future that is done when the request has been
+	 *   accepted or rejected (after the callback has been
+	 *   called)
+	 * @see #changeRequestDelete(int,String)
+	 */
+	Future<?> changeRequestDeleteAsync(
+		int transactionId,
+		String objectId,
+		ChangeRequestCallback callback
+	);
+}
@@ -18,6 +18,8 @@ package de.uds.lsv.platon.action
 
 import groovy.transform.TypeChecked
 
+import java.util.concurrent.ScheduledFuture
+
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
@@ -68,12 +70,15 @@ public abstract class Action {
 	 */
 	private List<PartialAction> partialActions = null;
 	
-	protected boolean completed = false;
+	protected volatile boolean completed = false;
 	protected boolean successful = false;
 	protected boolean executed = false;
 	boolean uninterruptible;
 	public long submissionTime = -1;
 	
+	/** warns if the action doesn't complete in time */
+	private volatile ScheduledFuture watchdog = null;
+	
 	/**
 	 * The user that is affected by this action,
 	 * or null if more than one user is affected.
@@ -125,14 +130,23 @@ public abstract class Action {
 			session.setActiveAction(null);
 		}
 		
-		session.schedule(
-			{
-				if (!completed) {
-					logger.warn("Action is taking too long to run: " + this);
-				}
-			},
-			timeoutMillis
-		);
+		// Most actions complete long before the timeout, so the
+		// watchdog is cancelled in complete().
+		if (!completed) {
+			watchdog = session.schedule(
+				{
+					if (!completed) {
+						logger.warn("Action is taking too long to run: " + this);
+					}
+				},
+				timeoutMillis
+			);
+			
+			if (completed) {
+				// completed concurrently
+				watchdog?.cancel(false);
+			}
+		}
 	}
 
 	/**
@@ -177,6 +191,7 @@ public abstract class Action {
 	public void complete(boolean successful=true) {
 		this.completed = true;
 		this.successful = successful;
+		watchdog?.cancel(false);
 		
 		logger.debug("Action completed: ${this} (successful: " + successful + ")");
 		
@@ -207,6 +222,15 @@ public abstract class Action {
 		}
 	}
 	
+	/**
+	 * true if the action queue can go on with the next action
+	 * when this one has been submitted, instead of waiting for
+	 * it to complete.
+	 */
+	public boolean isPipelined() {
+		return false;
+	}
+	
 	/**
 	 * Abort the action (if applicable;
 	 * currently only supported by VerbalOutputAction).
@@ -215,6 +239,15 @@ public abstract class Action {
 		// default: empty 
 	}
 	
+	/**
+	 * Abort the action on behalf of an input that
+	 * started at inputStartedNanos (System.nanoTime()),
+	 * which is used for latency statistics.
+	 */
+	public void abort(long inputStartedNanos) {
+		abort();
+	}
+	
 	/**
 	 * true iff the action was aborted.
 	 */
@@ -27,10 +27,52 @@ import de.uds.lsv.platon.session.DialogEngine;
 public class ActionQueue {
 	private static final Log logger = LogFactory.getLog(ActionQueue.class.getName());
 	
-	private final LinkedList<Action> queue = new LinkedList<>();
+	/**
+	 * Queued actions are kept in lanes by blocking class,
+	 * so nextAction only needs to look at the lane heads.
+	 * The sequence number keeps the overall queue order
+	 * (addFirst uses negative numbers).
+	 * Partial actions are in two lanes at once; removed
+	 * entries are dropped from the other lane lazily.
+	 */
+	private static class Entry {
+		final long sequenceNumber;
+		final Action action;
+		boolean removed = false;
+		
+		public Entry(long sequenceNumber, Action action) {
+			this.sequenceNumber = sequenceNumber;
+			this.action = action;
+		}
+	}
+	
+	/** VerbalInputActions, blocked by everything on the stack */
+	private final ArrayDeque<Entry> verbalInputLane = new ArrayDeque<>();
+	/** all other actions except partial actions, never blocked */
+	private final ArrayDeque<Entry> freeLane = new ArrayDeque<>();
+	/** all partial actions */
+	private final ArrayDeque<Entry> partialLane = new ArrayDeque<>();
+	/** partial actions by parent (identity) */
+	private final Map<Action,ArrayDeque<Entry>> partialLanesByParent = new IdentityHashMap<>();
+	/** entries that are dropped on barge-in */
+	private final Set<Entry> interruptibleEntries = new HashSet<>();
+	
+	private long nextSequenceNumber = 0;
+	private long nextFirstSequenceNumber = -1;
+	private int queueSize = 0;
+	/** shared by the queue view until the queue changes */
+	private List<Action> cachedSnapshot = null;
+	
+	private final List<Action> queueView = new QueueView(this);
 	private final DialogEngine dialogEngine;
 
 	Action lastAction = null;
+	/**
+	 * Interruptible actions that have been executed but
+	 * are not completed yet (e.g. outputs that are still
+	 * being played).
+	 */
+	private final Set<Action> runningInterruptible = Collections.newSetFromMap(new IdentityHashMap<Action,Boolean>());
 	
 	// Actions that are blocking certain other actions from
 	// being processed.
@@ -41,7 +83,11 @@ public class ActionQueue {
 	}
 	
 	private void prepareAction(Action action) {
-		action.onComplete.add(this.&nextAction);
+		if (action.isPipelined()) {
+			action.onSubmitted.add(this.&nextAction);
+		} else {
+			action.onComplete.add(this.&nextAction);
+		}
 		
 		Action active = dialogEngine.getSession().getActiveAction();
 		if (active != null) {
@@ -49,14 +95,141 @@ public class ActionQueue {
 		}
 	}
 	
+	private void enqueue(Action action, boolean first) {
+		addEntry(
+			new Entry(
+				first ? nextFirstSequenceNumber-- : nextSequenceNumber++,
+				action
+			),
+			first
+		);
+	}
+	
+	private void addEntry(Entry entry, boolean first) {
+		Action action = entry.action;
+		if (action instanceof VerbalInputAction) {
+			addToLane(verbalInputLane, entry, first);
+		} else if (action instanceof PartialAction) {
+			addToLane(partialLane, entry, first);
+			Action parent = ((PartialAction)action).parent;
+			if (parent != null) {
+				ArrayDeque<Entry> lane = partialLanesByParent.get(parent);
+				if (lane == null) {
+					lane = new ArrayDeque<>();
+					partialLanesByParent.put(parent, lane);
+				}
+				addToLane(lane, entry, first);
+			}
+		} else {
+			addToLane(freeLane, entry, first);
+		}
+		
+		if (!action.uninterruptible) {
+			interruptibleEntries.add(entry);
+		}
+		
+		queueSize++;
+		cachedSnapshot = null;
+	}
+	
+	private static void addToLane(ArrayDeque<Entry> lane, Entry entry, boolean first) {
+		if (first) {
+			lane.addFirst(entry);
+		} else {
+			lane.addLast(entry);
+		}
+	}
+	
+	/**
+	 * @return
+	 *   the first entry of the lane that has not been removed
+	 */
+	private static Entry peekLane(ArrayDeque<Entry> lane) {
+		if (lane == null) {
+			return null;
+		}
+		
+		Entry entry = lane.peekFirst();
+		while (entry != null && entry.removed) {
+			lane.pollFirst();
+			entry = lane.peekFirst();
+		}
+		
+		return entry;
+	}
+	
+	private static Entry earlier(Entry a, Entry b) {
+		if (a == null) {
+			return b;
+		}
+		if (b == null) {
+			return a;
+		}
+		return (a.sequenceNumber <= b.sequenceNumber) ? a : b;
+	}
+	
+	private void remove(Entry entry) {
+		entry.removed = true;
+		queueSize--;
+		cachedSnapshot = null;
+		interruptibleEntries.remove(entry);
+		
+		if (entry.action instanceof PartialAction) {
+			// drop empty parent lanes, so they don't keep
+			// their parents alive
+			Action parent = ((PartialAction)entry.action).parent;
+			if (parent != null) {
+				ArrayDeque<Entry> lane = partialLanesByParent.get(parent);
+				if (lane != null && peekLane(lane) == null) {
+					partialLanesByParent.remove(parent);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * All queued entries, in queue order.
+	 */
+	private List<Entry> getEntries() {
+		return mergeLanes(mergeLanes(verbalInputLane, freeLane), partialLane);
+	}
+	
+	private static List<Entry> mergeLanes(Collection<Entry> a, Collection<Entry> b) {
+		List<Entry> result = new ArrayList<>(a.size() + b.size());
+		Iterator<Entry> itA = a.iterator();
+		Iterator<Entry> itB = b.iterator();
+		Entry entryA = nextLive(itA);
+		Entry entryB = nextLive(itB);
+		while (entryA != null || entryB != null) {
+			if (entryB == null || (entryA != null && entryA.sequenceNumber <= entryB.sequenceNumber)) {
+				result.add(entryA);
+				entryA = nextLive(itA);
+			} else {
+				result.add(entryB);
+				entryB = nextLive(itB);
+			}
+		}
+		return result;
+	}
+	
+	private static Entry nextLive(Iterator<Entry> it) {
+		while (it.hasNext()) {
+			Entry entry = it.next();
+			if (!entry.removed) {
+				return entry;
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * This has to run on the session executor thread!
 	 */
 	private synchronized void doAdd(Action action) {
 		assert (dialogEngine.session.isOnSessionThread());
 		prepareAction(action);
-		queue.add(action);
-		if (queue.size() == 1) {
+		enqueue(action, false);
+		if (queueSize == 1) {
 			dialogEngine.getSession().submit(this.&nextAction);
 		}
 	}
@@ -67,25 +240,25 @@ public class ActionQueue {
 	private synchronized void doAddFirst(Action action) {
 		assert (dialogEngine.session.isOnSessionThread());
 		prepareAction(action);
-		queue.addFirst(action);
-		if (queue.size() == 1) {
+		enqueue(action, true);
+		if (queueSize == 1) {
 			dialogEngine.getSession().submit(this.&nextAction);
 		}
 	}
 	
 	private synchronized void doAddFirst(List<? extends Action> actions) {
 		assert (dialogEngine.session.isOnSessionThread());
-		boolean idle = queue.isEmpty();
+		boolean idle = (queueSize == 0);
 		for (Action action : actions.reverse()) {
 			prepareAction(action);
-			queue.addFirst(action);
+			enqueue(action, true);
 		}
 		
 		if (idle) {
 			dialogEngine.getSession().submit(this.&nextAction);
 		}
 	}
-	
+
 	public void add(Action action) {
 		dialogEngine.session.runOnSessionThread({
 			doAdd(action);
@@ -130,29 +303,27 @@ public class ActionQueue {
 	}
 	
 	/**
-	 * Blocking stack needs to be cleaned before
-	 * calling this method!
+	 * The first action in the queue that is not blocked.
+	 * Blocking stack needs to be cleaned before calling
+	 * this method!
+	 * 
+	 * VerbalInputActions are blocked by everything on the
+	 * stack, PartialActions are blocked if they were not
+	 * created by the top action on the stack, other actions
+	 * are never blocked.
 	 */
-	private boolean isActionBlocked(Action action) {
-		if (action instanceof VerbalInputAction) {
-			// VerbalInputActions are blocked by everything on the stack
-			return !blockingActionStack.isEmpty();
-		
-		} else if (action instanceof PartialAction) {
-			// PartialActions are blocked if they were not created by
-			// one of the actions on the stack.
-			PartialAction partialAction = (PartialAction)action;
-			return !(
-				blockingActionStack.isEmpty() ||
-				(
-					partialAction.parent != null &&
-					partialAction.parent.is(blockingActionStack.peekLast())
-				)
-			);
-		
+	private Entry selectEntry() {
+		Entry candidate = peekLane(freeLane);
+		if (blockingActionStack.isEmpty()) {
+			candidate = earlier(candidate, peekLane(verbalInputLane));
+			candidate = earlier(candidate, peekLane(partialLane));
 		} else {
-			return false;
+			candidate = earlier(
+				candidate,
+				peekLane(partialLanesByParent.get(blockingActionStack.peekLast()))
+			);
 		}
+		return candidate;
 	}
 	
 	/**
@@ -190,27 +361,26 @@ public class ActionQueue {
 		
 		cleanBlockingStack();
 		
+		if (!runningInterruptible.isEmpty()) {
+			runningInterruptible.removeAll { Action action -> action.completed };
+		}
+		
 		Action selectedAction = null;
-		Iterator<Action> it = queue.iterator();
-		while (it.hasNext()) {
-			Action a = it.next();
-			if (isActionBlocked(a)) {
-				logger.debug(
-					"Action still waiting for followup actions: " + a
-				);
-				continue;
-			}
-			
-			selectedAction = a;
-			it.remove();
-			break;
+		Entry entry = selectEntry();
+		if (entry != null) {
+			remove(entry);
+			selectedAction = entry.action;
+		} else if (queueSize > 0) {
+			logger.debug(
+				"Actions still waiting for followup actions: " + queueSize
+			);
 		}
 		
 		if (selectedAction != null) {
 			logger.debug(String.format(
 				"Next action: %s (remaining: %d)",
 				selectedAction,
-				queue.size()
+				queueSize
 			));
 		}
 		
@@ -218,26 +388,60 @@ public class ActionQueue {
 		
 		if (selectedAction != null) {
 			putOnBlockingStack(selectedAction);
+			if (!selectedAction.uninterruptible) {
+				runningInterruptible.add(selectedAction);
+			}
 			// TODO: shouldn't this go through session.submit(Action)?
 			selectedAction.execute();
 		}
 	}
 	
-	public synchronized void bargeIn() {
-		// remove all (verbal) actions from the queue that don't
-		// have uninterruptible set
+	/**
+	 * Drop all interruptible actions from the queue and
+	 * abort the running interruptible actions.
+	 * 
+	 * Called from other threads, this goes ahead of all
+	 * queued session tasks.
+	 * 
+	 * @param inputStartedNanos
+	 *   System.nanoTime() of the input that caused the barge-in
+	 */
+	public void bargeIn(long inputStartedNanos=System.nanoTime()) {
 		if (dialogEngine.session.config.disableBargeIn) {
 			return;
 		}
 		
+		if (dialogEngine.session.isOnSessionThread()) {
+			doBargeIn(inputStartedNanos);
+		} else {
+			dialogEngine.session.submitUrgent({
+				doBargeIn(inputStartedNanos);
+			});
+		}
+	}
+	
+	private synchronized void doBargeIn(long inputStartedNanos) {
+		// remove all (verbal) actions from the queue that don't
+		// have uninterruptible set
 		logger.trace("Barge-in? Checking queue...");
-		if (!queue.isEmpty()) {
-			def remaining = queue.findAll { it.uninterruptible };
-			queue.clear();
-			queue.addAll(remaining);
-			logger.debug("Barge-in, queue cleaned! Remaining uninterruptible actions: " + remaining.size());
-			if (!remaining.isEmpty()) {
-				logger.debug("Remaining uninterruptible actions: " + queue);
+		if (!interruptibleEntries.isEmpty()) {
+			int removed = interruptibleEntries.size();
+			for (Entry entry : new ArrayList<Entry>(interruptibleEntries)) {
+				remove(entry);
+			}
+			logger.debug("Barge-in, queue cleaned! Removed actions: " + removed + ", remaining uninterruptible actions: " + queueSize);
+		}
+		
+		// outputs are executed without waiting for the previous
+		// one to end, so there may be more than one playing.
+		// Aborting may complete an action and re-enter nextAction,
+		// so work on a copy.
+		List<Action> running = new ArrayList<Action>(runningInterruptible);
+		runningInterruptible.clear();
+		for (Action action : running) {
+			if (!action.completed) {
+				logger.debug("Barge-in, trying to abort running action: " + action);
+				action.abort(inputStartedNanos);
 			}
 		}
 		
@@ -245,8 +449,6 @@ public class ActionQueue {
 			if (lastAction.uninterruptible) {
 				logger.debug("Barge-in, last action is uninterruptible: " + lastAction);
 			} else {
-				logger.debug("Barge-in, trying to abort last action: " + lastAction);
-				lastAction.abort();
 				lastAction = null;
 			}
 
@@ -258,6 +460,61 @@ public class ActionQueue {
 	 * Get an unmodifiable view of the action queue.
 	 */
 	public List<Action> getQueue() {
-		return Collections.unmodifiableList(queue);
+		return queueView;
+	}
+	
+	public synchronized int size() {
+		return queueSize;
+	}
+	
+	/**
+	 * A copy of the queue, in queue order.
+	 */
+	public synchronized List<Action> getSnapshot() {
+		List<Entry> entries = getEntries();
+		List<Action> actions = new ArrayList<>(entries.size());
+		for (Entry entry : entries) {
+			actions.add(entry.action);
+		}
+		return actions;
+	}
+	
+	/**
+	 * An unmodifiable snapshot of the queue, built once
+	 * per change of the queue.
+	 */
+	private synchronized List<Action> getCachedSnapshot() {
+		if (cachedSnapshot == null) {
+			cachedSnapshot = Collections.unmodifiableList(getSnapshot());
+		}
+		return cachedSnapshot;
+	}
+	
+	/**
+	 * Live view of the queue; it has to merge the lanes
+	 * after each change, so it is slow compared to the
+	 * queue itself.
+	 */
+	private static class QueueView extends AbstractList<Action> {
+		private final ActionQueue actionQueue;
+		
+		public QueueView(ActionQueue actionQueue) {
+			this.actionQueue = actionQueue;
+		}
+		
+		@Override
+		public Action get(int index) {
+			return actionQueue.getCachedSnapshot().get(index);
+		}
+		
+		@Override
+		public int size() {
+			return actionQueue.size();
+		}
+		
+		@Override
+		public Iterator<Action> iterator() {
+			return actionQueue.getCachedSnapshot().iterator();
+		}
 	}
 }
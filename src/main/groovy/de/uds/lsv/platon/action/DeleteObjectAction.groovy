@@ -19,6 +19,9 @@ package de.uds.lsv.platon.action
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
+import de.uds.lsv.platon.AsyncDialogWorld
+import de.uds.lsv.platon.AsyncDialogWorld.ChangeRequestCallback
+import de.uds.lsv.platon.DialogWorld
 import de.uds.lsv.platon.exception.DialogWorldException
 import de.uds.lsv.platon.session.DialogSession
 
@@ -32,6 +35,9 @@ public class DeleteObjectAction extends Action {
 		super(session);
 		this.objectId = objectId;
 		this.transactionId = transactionId;
+		if (errorHandler != null) {
+			this.errorHandler = errorHandler;
+		}
 	}
 	
 	public DeleteObjectAction(DeleteObjectAction action) {
@@ -47,9 +53,15 @@ public class DeleteObjectAction extends Action {
 	protected void doExecute() {
 		session.submit({
 			logger.debug("Executing " + this);
+			DialogWorld dialogWorld = session.getDialogWorld();
+			if (dialogWorld instanceof AsyncDialogWorld) {
+				submitAsync((AsyncDialogWorld)dialogWorld);
+				return;
+			}
+			
 			String error = null;
 			try {
-				session.getDialogWorld().changeRequestDelete(
+				dialogWorld.changeRequestDelete(
 					transactionId,
 					objectId
 				);
@@ -61,24 +73,67 @@ public class DeleteObjectAction extends Action {
 			submitted();
 			
 			if (error != null) {
-				if (errorHandler != null) {
-					logger.debug(String.format(
-						"changeRequestDelete failed, result=%s. Calling error handler %s with argument »%s«.",
-						error, errorHandler, error
-					));
-					errorHandler(result);
-				} else {
-					logger.error(String.format(
-						"changeRequestDelete failed, result=%s. No error handler available!",
-						error
-					));
-				}
-				
-				complete(false);
+				requestFailed(error);
 			}
 		});
 	}
 	
+	/**
+	 * Doesn't wait for the request to return; a rejection
+	 * is handled in a later session task.
+	 */
+	protected void submitAsync(AsyncDialogWorld dialogWorld) {
+		try {
+			dialogWorld.changeRequestDeleteAsync(
+				transactionId,
+				objectId,
+				new ChangeRequestCallback() {
+					@Override
+					public void succeeded() {
+					}
+					
+					@Override
+					public void failed(DialogWorldException e) {
+						session.submit({ requestFailed(e.id) });
+					}
+				}
+			);
+		}
+		catch (DialogWorldException e) {
+			submitted();
+			requestFailed(e.id);
+			return;
+		}
+		
+		submitted();
+	}
+	
+	protected void requestFailed(String error) {
+		if (errorHandler != null) {
+			logger.debug(String.format(
+				"changeRequestDelete failed, result=%s. Calling error handler %s with argument »%s«.",
+				error, errorHandler, error
+			));
+			errorHandler(error);
+		} else {
+			logger.error(String.format(
+				"changeRequestDelete failed, result=%s. No error handler available!",
+				error
+			));
+		}
+		
+		complete(false);
+	}
+	
+	@Override
+	public boolean isPipelined() {
+		return (
+			transactionId < 0 &&
+			session?.config?.pipelineChangeRequests &&
+			session.getDialogWorld() instanceof AsyncDialogWorld
+		);
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("[DeleteObjectAction: %s (transaction: %d)]", objectId, transactionId); 
@@ -21,8 +21,12 @@ import java.util.Map.Entry
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
+import de.uds.lsv.platon.AsyncDialogWorld
+import de.uds.lsv.platon.AsyncDialogWorld.ChangeRequestCallback
+import de.uds.lsv.platon.DialogWorld
 import de.uds.lsv.platon.exception.DialogWorldException
 import de.uds.lsv.platon.session.DialogSession
+import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState
 import de.uds.lsv.platon.world.SubscriptionManager.Subscription
 
@@ -74,30 +78,45 @@ public class ModifyObjectAction extends Action {
 				return;
 			}
 			
-			worldStateSubscription = worldState.getSubscriptionManager().subscribe(
-				// filter
-				{
-					newProperties ->
-					modifications.every {
-						Entry<String,String> entry ->
-						newProperties.get(entry.key) as String == entry.value
-					}
-				},
-				// action
-				{
-					// we shouldn't need any synchronization here?
-					if (worldStateSubscription != null) {
-						worldStateSubscription.cancel();
-						worldStateSubscription = null;
-						complete();
-					}
+			Closure action = {
+				// we shouldn't need any synchronization here?
+				if (worldStateSubscription != null) {
+					worldStateSubscription.cancel();
+					worldStateSubscription = null;
+					complete();
 				}
-			);
+			};
+			
+			if (modifications.containsKey(WorldObject.FIELD_ID)) {
+				worldStateSubscription = worldState.getSubscriptionManager().awaitState(
+					modifications.get(WorldObject.FIELD_ID),
+					modifications,
+					action
+				);
+			} else {
+				worldStateSubscription = worldState.getSubscriptionManager().subscribe(
+					// filter
+					{
+						newProperties ->
+						modifications.every {
+							Entry<String,String> entry ->
+							newProperties.get(entry.key) as String == entry.value
+						}
+					},
+					action
+				);
+			}
 			
 			logger.debug("Executing " + this);
+			DialogWorld dialogWorld = session.getDialogWorld();
+			if (dialogWorld instanceof AsyncDialogWorld) {
+				submitAsync((AsyncDialogWorld)dialogWorld);
+				return;
+			}
+			
 			String error = null;
 			try {
-				session.getDialogWorld().changeRequestModify(
+				dialogWorld.changeRequestModify(
 					transactionId,
 					modifications
 				);
@@ -109,29 +128,74 @@ public class ModifyObjectAction extends Action {
 			submitted();
 			
 			if (error != null) {
-				if (worldStateSubscription != null) {
-					worldStateSubscription.cancel();
-					worldStateSubscription = null;
-				}
-				
-				if (errorHandler != null) {
-					logger.debug(String.format(
-						"changeRequestModify failed, result=%s. Calling error handler %s with argument »%s«.",
-						error, errorHandler, error
-					));
-					errorHandler(error);
-				} else {
-					logger.error(String.format(
-						"changeRequestModify failed, result=%s. No error handler available!",
-						error
-					));
-				}
-				
-				complete(false);
+				requestFailed(error);
 			}
 		});
 	}
 	
+	/**
+	 * Doesn't wait for the request to return, so the session
+	 * can go on (e.g. with the next request) in the meantime.
+	 * A rejection is handled in a later session task.
+	 */
+	protected void submitAsync(AsyncDialogWorld dialogWorld) {
+		try {
+			dialogWorld.changeRequestModifyAsync(
+				transactionId,
+				modifications,
+				new ChangeRequestCallback() {
+					@Override
+					public void succeeded() {
+						// completed by the world state subscription
+					}
+					
+					@Override
+					public void failed(DialogWorldException e) {
+						session.submit({ requestFailed(e.id) });
+					}
+				}
+			);
+		}
+		catch (DialogWorldException e) {
+			submitted();
+			requestFailed(e.id);
+			return;
+		}
+		
+		submitted();
+	}
+	
+	protected void requestFailed(String error) {
+		if (worldStateSubscription != null) {
+			worldStateSubscription.cancel();
+			worldStateSubscription = null;
+		}
+		
+		if (errorHandler != null) {
+			logger.debug(String.format(
+				"changeRequestModify failed, result=%s. Calling error handler %s with argument »%s«.",
+				error, errorHandler, error
+			));
+			errorHandler(error);
+		} else {
+			logger.error(String.format(
+				"changeRequestModify failed, result=%s. No error handler available!",
+				error
+			));
+		}
+		
+		complete(false);
+	}
+	
+	@Override
+	public boolean isPipelined() {
+		return (
+			transactionId < 0 &&
+			session?.config?.pipelineChangeRequests &&
+			session.getDialogWorld() instanceof AsyncDialogWorld
+		);
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("[ModifyObjectAction: %s (transaction: %d)]", modifications.toString(), transactionId);
@@ -17,8 +17,8 @@
 package de.uds.lsv.platon.action
 
 import groovy.transform.TypeChecked
-import de.martingropp.util.Pair;
 import de.uds.lsv.platon.session.DialogSession;
+import de.uds.lsv.platon.world.ObjectChange
 import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState
 
@@ -37,7 +37,7 @@ public class ObjectModifiedAction extends Action {
 	WorldObject modifiedObject = null;
 	
 	/** Not set before execution! */
-	Map<String,Object> oldState = null;
+	ObjectChange change = null;
 	
 	public ObjectModifiedAction(DialogSession session, Map<String,String> modifications) {
 		super(session);
@@ -46,11 +46,8 @@ public class ObjectModifiedAction extends Action {
 	
 	@Override
 	protected void doExecute() {
-		Pair<WorldObject,Map<String,Object>> result =
-			session.worldState.doChangeNotificationModify(modifications);
-		
-		this.modifiedObject = result.first;
-		this.oldState = result.second;
+		this.change = session.worldState.doChangeNotificationModify(modifications);
+		this.modifiedObject = change.getObject();
 		
 		submitted();
 		complete();
@@ -60,7 +57,7 @@ public class ObjectModifiedAction extends Action {
 		if (!this.executed) {
 			throw new IllegalStateException("Action has not been executed yet!");
 		}
-		listener.objectModified(modifiedObject, oldState);
+		listener.objectModified(change);
 	}
 	
 	@Override
@@ -68,8 +65,8 @@ public class ObjectModifiedAction extends Action {
 		return String.format(
 			"[ObjectModifiedAction: %s (old: %s, new: %s)]",
 			modifications,
-			oldState,
-			modifiedObject.getProperties()
+			change?.getOldProperties(),
+			change?.getNewProperties()
 		);
 	}
 }
@@ -21,7 +21,9 @@ import groovy.transform.TypeChecked
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
+import de.uds.lsv.platon.script.BroadcastMatchCache;
 import de.uds.lsv.platon.session.DialogSession;
+import de.uds.lsv.platon.session.InputHypothesis;
 import de.uds.lsv.platon.session.User;
 
 @TypeChecked
@@ -30,7 +32,13 @@ public class VerbalInputAction extends Action {
 	
 	final IOType type;
 	final String text;
+	/** N-best list, or null for a single text */
+	final List<InputHypothesis> hypotheses;
 	final Map<String, String> details;
+	/** end of the input (System.nanoTime()) */
+	final long inputCompleteNanos = System.nanoTime();
+	/** for input without a speaker, or null */
+	BroadcastMatchCache broadcastMatches = null;
 	
 	public VerbalInputAction(
 		DialogSession session,
@@ -47,6 +55,29 @@ public class VerbalInputAction extends Action {
 		
 		this.type = type;
 		this.text = text;
+		this.hypotheses = null;
+		this.details = details;
+	}
+	
+	public VerbalInputAction(
+		DialogSession session,
+		User user,
+		IOType type,
+		List<InputHypothesis> hypotheses,
+		Map<String, String> details
+	) {
+		super(session, true, user);
+		
+		if (user == null) {
+			throw new IllegalArgumentException("User cannot be null!");
+		}
+		if (hypotheses == null || hypotheses.isEmpty()) {
+			throw new IllegalArgumentException("No input hypotheses!");
+		}
+		
+		this.type = type;
+		this.text = hypotheses[0].text;
+		this.hypotheses = Collections.unmodifiableList(new ArrayList<InputHypothesis>(hypotheses));
 		this.details = details;
 	}
 	
@@ -62,7 +93,11 @@ public class VerbalInputAction extends Action {
 		if (!session.dialogEngines.containsKey(user.id)) {
 			throw new RuntimeException("User not in session: " + user);
 		}
-		session.dialogEngines[user.id].inputComplete(type, text, details);
+		if (hypotheses != null) {
+			session.dialogEngines[user.id].inputComplete(type, hypotheses, details, inputCompleteNanos, broadcastMatches);
+		} else {
+			session.dialogEngines[user.id].inputComplete(type, text, details, inputCompleteNanos, broadcastMatches);
+		}
 		
 		//}
 		
@@ -73,8 +108,9 @@ public class VerbalInputAction extends Action {
 	@Override
 	public String toString() {
 		return String.format(
-			"[VerbalInputAction: »%s« @ %s]",
+			"[VerbalInputAction: »%s«%s @ %s]",
 			text,
+			(hypotheses != null && hypotheses.size() > 1) ? " (+${hypotheses.size() - 1} hypotheses)" : "",
 			user
 		);
 	}
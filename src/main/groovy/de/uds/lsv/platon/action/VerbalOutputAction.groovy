@@ -18,10 +18,14 @@ package de.uds.lsv.platon.action;
 
 import groovy.transform.TypeChecked
 
+import java.util.concurrent.TimeUnit
+
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
+import de.uds.lsv.platon.AsyncDialogClient
 import de.uds.lsv.platon.session.DialogSession;
+import de.uds.lsv.platon.session.PendingOutput
 import de.uds.lsv.platon.session.User;
 
 @TypeChecked
@@ -33,6 +37,8 @@ public class VerbalOutputAction extends Action {
 	final IOType type = IOType.ANY;
 	final Map<String,Object> details;
 	int outputId = -1;
+	/** the output, if the dialog client is an AsyncDialogClient */
+	PendingOutput pendingOutput = null;
 	
 	public VerbalOutputAction(DialogSession session, User user, String text, boolean uninterruptible, Map<String,Object> details) {
 		super(session,  uninterruptible, user);
@@ -75,45 +81,80 @@ public class VerbalOutputAction extends Action {
 			synchronized(this) {
 				if (!aborted && session.isActive()) {
 					logger.debug("Executing " + this + " (" + System.identityHashCode(this) + ")");
-					outputId = session.getDialogClient().outputStart(
-						user,
-						type,
-						text,
-						details
-					);
-					logger.debug(String.format(
-						"outputStart(%s, %s, %s, %s) -> %d for %s",
-						user,
-						type,
-						text,
-						details,
-						outputId,
-						this
-					));
+					if (session.getDialogClient() instanceof AsyncDialogClient) {
+						// DialogSession.flushOutputStarts reports
+						// outputStarted to the dialog engine
+						pendingOutput = session.startOutputAsync(
+							user,
+							type,
+							text,
+							details
+						);
+					} else {
+						outputId = session.getDialogClient().outputStart(
+							user,
+							type,
+							text,
+							details
+						);
+						logger.debug(String.format(
+							"outputStart(%s, %s, %s, %s) -> %d for %s",
+							user,
+							type,
+							text,
+							details,
+							outputId,
+							this
+						));
+						
+						if (user != null) {
+							session.getDialogEngine(user)?.outputStarted();
+						}
+					}
 					submitted();
 					
-					session.addOutputReaction(
-						outputId,
-						{
-							double c ->
-							this.complete(c >= 1.0);
-						}
-					);
+					Closure reaction = {
+						double c ->
+						this.complete(c >= 1.0);
+					};
+					if (pendingOutput != null) {
+						session.addOutputReaction(pendingOutput, reaction);
+					} else {
+						session.addOutputReaction(outputId, reaction);
+					}
 				}
 			}
 		});
 	}
 	
 	@Override
-	public synchronized void abort() {
-		if (!aborted && outputId >= 0) {
+	public void abort() {
+		abort(System.nanoTime());
+	}
+	
+	/**
+	 * outputAbort is sent before all other queued session
+	 * tasks, so the output stops as soon as possible.
+	 */
+	@Override
+	public synchronized void abort(long inputStartedNanos) {
+		if (!aborted && (outputId >= 0 || pendingOutput != null)) {
 			// should we ignore exceptions here?
-			session.submit({
-				logger.debug("Aborting VerbalOutputAction with output id ${outputId}: " + this);
-				session.getDialogClient().outputAbort(
-					outputId,
-					null
-				);
+			session.submitUrgent({
+				if (pendingOutput != null) {
+					// the output id might not be known yet,
+					// the latency is recorded once the abort is sent
+					logger.debug("Aborting VerbalOutputAction with ${pendingOutput}: " + this);
+					pendingOutput.abort(null, inputStartedNanos);
+				} else {
+					logger.debug("Aborting VerbalOutputAction with output id ${outputId}: " + this);
+					session.getDialogClient().outputAbort(
+						outputId,
+						null
+					);
+					long latency = session.getBargeInLatency().addSince(inputStartedNanos);
+					logger.debug("outputAbort issued ${TimeUnit.NANOSECONDS.toMillis(latency)}ms after input started.");
+				}
 				complete(false);
 			});
 		}
@@ -21,9 +21,11 @@ import java.lang.reflect.Field
 
 import java.nio.charset.Charset
 import java.nio.charset.StandardCharsets
+import java.util.concurrent.ForkJoinPool
 
 import de.uds.lsv.platon.session.DialogEngine
 import de.uds.lsv.platon.session.DialogSession
+import de.uds.lsv.platon.session.SessionScheduler
 import de.uds.lsv.platon.session.User
 
 @CompileStatic
@@ -85,6 +87,73 @@ public class Config {
 	
 	public String scriptInit = null;
 	
+	/**
+	 * Compile each dialog script only once per process and
+	 * share the compiled class between all DialogEngines
+	 * (see DialogScriptCache).
+	 * Static state in classes defined by a dialog script is
+	 * then shared between all engines and sessions running
+	 * the script, so only set this if no script relies on
+	 * having its own copy.
+	 * Ignored if scriptInit is set.
+	 */
+	public boolean shareCompiledScripts = false;
+	
+	/**
+	 * If not null, compiled dialog scripts are stored in this
+	 * directory and loaded from there on later runs
+	 * (only used if shareCompiledScripts is set).
+	 */
+	public File scriptCacheDirectory = null;
+	
+	/**
+	 * Maximum number of cached results of pure prepareInput
+	 * stages (prepareInput(pure: true) { ... }) per dialog
+	 * script. Set to 0 to disable caching.
+	 */
+	public int preparedInputCacheSize = 1000;
+	
+	/**
+	 * Input without a speaker is handled by every DialogEngine.
+	 * Prepare it (if all prepareInput stages are pure) and
+	 * match its pure patterns once per dialog script and
+	 * language, instead of once per engine (see
+	 * BroadcastMatchCache). The prepared input is only
+	 * shared if shareCompiledScripts is set.
+	 */
+	public boolean shareBroadcastMatching = true;
+	
+	/**
+	 * World object properties to index, so declarative
+	 * queries (objects(roomId: ...)) on them don't have to
+	 * check every object. Ids and types are always indexed.
+	 */
+	public List<String> worldIndexedProperties = [];
+	
+	/**
+	 * Merge non-transactional modifications of an object that
+	 * haven't been applied yet into a single change (the last
+	 * value of each property wins), so objects the world updates
+	 * many times per second don't cause a round of reactions
+	 * for every update. See TransactionManager.
+	 */
+	public boolean coalesceModifications = false;
+	
+	/** Objects whose modifications are never merged. */
+	public Set<String> coalesceExemptIds = new HashSet<>();
+	
+	/** Modifications containing any of these properties are never merged. */
+	public Set<String> coalesceExemptFields = new HashSet<>();
+	
+	/**
+	 * If the dialog world is an AsyncDialogWorld, go on with
+	 * the next action as soon as an object modification or
+	 * deletion has been requested, instead of waiting for the
+	 * world to report it, so several requests can be in flight.
+	 * Completion reactions still wait for the world.
+	 */
+	public boolean pipelineChangeRequests = false;
+	
 	/**
 	 * Encoding for script files.
 	 */
@@ -118,6 +187,37 @@ public class Config {
 	 */
 	public boolean disableBargeIn = false;
 	
+	/**
+	 * Scheduler running the tasks of all sessions on a shared
+	 * pool of threads (see SessionScheduler).
+	 * If null, every session gets a thread of its own.
+	 */
+	public SessionScheduler sessionScheduler = null;
+	
+	/**
+	 * Run session tasks on virtual threads (requires Java 21),
+	 * so sessions waiting for a slow DialogWorld or DialogClient
+	 * don't occupy a platform thread.
+	 * Ignored if sessionScheduler is set.
+	 */
+	public boolean virtualThreadSessions = false;
+	
+	/**
+	 * If there are at least this many side-effect-free input
+	 * patterns (regular expressions, literals, classes,
+	 * InputMatchers) to check on the agent stack, match
+	 * them in parallel (see ParallelInputMatcher).
+	 * Closure patterns and actions always run on the
+	 * session thread. Set to 0 to disable.
+	 */
+	public int parallelInputMatchingThreshold = 0;
+	
+	/**
+	 * Fork-join pool for parallel input matching.
+	 * If null, a pool shared by all sessions is used.
+	 */
+	public ForkJoinPool inputMatchingPool = null;
+	
 	/**
 	 * Set to a closure to dump the dialog script file 
 	 * (passed to the closure as a String).
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.debug;
+
+import groovy.transform.TypeChecked
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+
+import de.uds.lsv.platon.AsyncDialogWorld
+import de.uds.lsv.platon.AsyncDialogWorld.ChangeRequestCallback
+import de.uds.lsv.platon.DialogWorld
+import de.uds.lsv.platon.exception.DialogWorldException
+import de.uds.lsv.platon.session.DialogSession
+
+/**
+ * A stand-in for a remote game server: passes all requests
+ * on to another dialog world, each after a fixed latency.
+ * Synchronous requests wait for it, asynchronous requests
+ * don't, so getMaxRequestsInFlight shows how many requests
+ * the session actually pipelined.
+ * Requests are passed on in the order in which they were
+ * made.
+ */
+@TypeChecked
+public class LatencyDialogWorld implements AsyncDialogWorld {
+	private static final Log logger = LogFactory.getLog(LatencyDialogWorld.class.getName());
+	
+	private final DialogWorld dialogWorld;
+	private final long latencyMillis;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+		{
+			Runnable r ->
+			Thread thread = new Thread(r, "LatencyDialogWorld");
+			thread.setDaemon(true);
+			return thread;
+		} as ThreadFactory
+	);
+	
+	private final AtomicInteger requestsInFlight = new AtomicInteger(0);
+	private final AtomicInteger maxRequestsInFlight = new AtomicInteger(0);
+	
+	public LatencyDialogWorld(DialogWorld dialogWorld, long latencyMillis) {
+		this.dialogWorld = dialogWorld;
+		this.latencyMillis = latencyMillis;
+	}
+	
+	@Override
+	public void init(DialogSession dialogSession) {
+		dialogWorld.init(dialogSession);
+	}
+	
+	@Override
+	public int beginTransaction() {
+		return (int)call({ dialogWorld.beginTransaction() });
+	}
+	
+	@Override
+	public void endTransaction(int transactionId) throws DialogWorldException {
+		call({ dialogWorld.endTransaction(transactionId) });
+	}
+	
+	@Override
+	public void changeRequestModify(int transactionId, Map<String,String> obj) throws DialogWorldException {
+		call({ dialogWorld.changeRequestModify(transactionId, obj) });
+	}
+	
+	@Override
+	public void changeRequestDelete(int transactionId, String objectId) throws DialogWorldException {
+		call({ dialogWorld.changeRequestDelete(transactionId, objectId) });
+	}
+	
+	@Override
+	public Future<?> changeRequestModifyAsync(int transactionId, Map<String,String> obj, ChangeRequestCallback callback) {
+		return schedule({ dialogWorld.changeRequestModify(transactionId, obj) }, callback);
+	}
+	
+	@Override
+	public Future<?> changeRequestDeleteAsync(int transactionId, String objectId, ChangeRequestCallback callback) {
+		return schedule({ dialogWorld.changeRequestDelete(transactionId, objectId) }, callback);
+	}
+	
+	/**
+	 * Runs the request after the latency and waits for it.
+	 */
+	private Object call(Closure request) {
+		Future future = executor.schedule(
+			request as Callable,
+			latencyMillis,
+			TimeUnit.MILLISECONDS
+		);
+		
+		try {
+			return future.get();
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private Future<?> schedule(Closure request, ChangeRequestCallback callback) {
+		int inFlight = requestsInFlight.incrementAndGet();
+		while (true) {
+			int max = maxRequestsInFlight.get();
+			if (inFlight <= max || maxRequestsInFlight.compareAndSet(max, inFlight)) {
+				break;
+			}
+		}
+		
+		return executor.schedule(
+			{
+				DialogWorldException error = null;
+				try {
+					request.call();
+				}
+				catch (DialogWorldException e) {
+					error = e;
+				}
+				finally {
+					requestsInFlight.decrementAndGet();
+				}
+				
+				if (error == null) {
+					callback.succeeded();
+				} else {
+					logger.debug("Request rejected: " + error.id);
+					callback.failed(error);
+				}
+			} as Runnable,
+			latencyMillis,
+			TimeUnit.MILLISECONDS
+		);
+	}
+	
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+	
+	/**
+	 * @return
+	 *   the largest number of asynchronous requests
+	 *   that were in flight at the same time
+	 */
+	public int getMaxRequestsInFlight() {
+		return maxRequestsInFlight.get();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		executor.shutdown();
+		dialogWorld.close();
+	}
+}
@@ -25,7 +25,6 @@ import java.util.Map.Entry
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
-import de.martingropp.util.Pair;
 import de.martingropp.util.Triple;
 
 @TypeChecked
@@ -56,6 +55,9 @@ public class Agent implements ReactionAgent {
 	 * Input reactions. 
 	 */
 	List<InternalPatternAction> inputActions = new ArrayList<>();
+	
+	/** inputActions compiled for dispatch, built on first use */
+	private InputDispatchTable inputDispatchTable = null;
 
 	/**
 	 * Do not use this field directly!
@@ -64,13 +66,13 @@ public class Agent implements ReactionAgent {
 	List<InternalPatternAction> intercomActions = new ArrayList<>();
 	
 	/** Do not use this field directly! */
-	List<Triple<Closure,Closure,Closure>> objModified = new ArrayList<>();
+	WorldReactionIndex objModified = new WorldReactionIndex();
 	
 	/** Do not use this field directly! */
-	List<Pair<Closure,Closure>> objAdded = new ArrayList<>();
+	WorldReactionIndex objAdded = new WorldReactionIndex();
 	
 	/** Do not use this field directly! */
-	List<Pair<Closure,Closure>> objDeleted = new ArrayList<>();
+	WorldReactionIndex objDeleted = new WorldReactionIndex();
 	
 	/**
 	 * Do not use this field directly!
@@ -99,17 +101,9 @@ public class Agent implements ReactionAgent {
 	 * copy all definitions from another agent to this agent 
 	 */
 	public void addAgent(Agent agent) {
-		for (Pair<Closure,Closure> p : agent.objAdded) {
-			objAdded.add(p);
-		} 
-		
-		for (Pair<Closure,Closure> p : agent.objDeleted) {
-			objDeleted.add(p);
-		}
-		
-		for (Triple<Closure,Closure,Closure> t : agent.objModified) {
-			objModified.add(t);
-		}
+		objAdded.addAll(agent.objAdded);
+		objDeleted.addAll(agent.objDeleted);
+		objModified.addAll(agent.objModified);
 		
 		for (Entry<String,List<Triple<String,Closure,Closure>>> entry : agent.envModified.entrySet()) {
 			List<Triple<String,Closure,Closure>> list = envModified.get(entry.getKey());
@@ -122,6 +116,7 @@ public class Agent implements ReactionAgent {
 		}
 		
 		this.inputActions.addAll(agent.inputActions);
+		this.inputDispatchTable = null;
 		this.initClosures.addAll(agent.initClosures);
 		this.enterClosures.addAll(agent.enterClosures);
 	}
@@ -130,6 +125,15 @@ public class Agent implements ReactionAgent {
 		inputActions.add(
 			new InternalPatternAction(pattern, action, priority)
 		);
+		inputDispatchTable = null;
+	}
+	
+	public InputDispatchTable getInputDispatchTable() {
+		if (inputDispatchTable == null) {
+			inputDispatchTable = new InputDispatchTable(inputActions);
+		}
+		
+		return inputDispatchTable;
 	}
 	
 	public void addIntercomAction(Object pattern, Closure action, double priority) {
@@ -138,28 +142,16 @@ public class Agent implements ReactionAgent {
 		);
 	}
 	
-	public void addObjectAddedReaction(Closure filter, Closure action) {
-		objAdded.add(new Pair<>(
-			filter,
-			action
-		));
+	public void addObjectAddedReaction(WorldReaction reaction) {
+		objAdded.add(reaction);
 	}
 	
-	public void addObjectDeletedReaction(Closure filter, Closure action) {
-		objDeleted.add(new Pair<>(
-			filter,
-			action
-		));
+	public void addObjectDeletedReaction(WorldReaction reaction) {
+		objDeleted.add(reaction);
 	}
 	
-	public void addObjectModifiedReaction(Closure fromState, Closure toState, Closure action) {
-		objModified.add(
-			new Triple<>(
-				fromState,
-				toState,
-				action
-			)
-		);
+	public void addObjectModifiedReaction(WorldReaction reaction) {
+		objModified.add(reaction);
 	}
 	
 	public void addEnvironmentModifiedReaction(String key, String value, Closure action) {
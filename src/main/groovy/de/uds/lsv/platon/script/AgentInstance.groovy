@@ -24,9 +24,10 @@ import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
 import de.martingropp.util.CachingIterable;
-import de.martingropp.util.Pair;
 import de.martingropp.util.Triple;
 import de.uds.lsv.platon.script.Agent.InternalPatternAction
+import de.uds.lsv.platon.world.ObjectChange
+import de.uds.lsv.platon.world.WorldObject
 
 @TypeChecked
 public class AgentInstance implements ReactionAgent {
@@ -34,12 +35,13 @@ public class AgentInstance implements ReactionAgent {
 	private final AgentStack stack;
 	private final Agent agent;
 	
-	private List<Triple<Closure,Closure,Closure>> objModifiedOnce = new ArrayList<>();
-	private List<Pair<Closure,Closure>> objAddedOnce = new ArrayList<>();
-	private List<Pair<Closure,Closure>> objDeletedOnce = new ArrayList<>();
+	private WorldReactionIndex objModifiedOnce = new WorldReactionIndex();
+	private WorldReactionIndex objAddedOnce = new WorldReactionIndex();
+	private WorldReactionIndex objDeletedOnce = new WorldReactionIndex();
 	private Map<String,List<Triple<String,Closure,Closure>>> envModifiedOnce = new HashMap<>();
 
-	private Iterable<PatternAction> instanceInputActions = null;
+	/** by index in the agent's InputDispatchTable, created on first use */
+	private PatternAction[] instanceInputActions = null;
 	private Iterable<PatternAction> instanceIntercomActions = null;
 	
 	private boolean active = false;
@@ -57,28 +59,16 @@ public class AgentInstance implements ReactionAgent {
 		return stack;
 	}
 	
-	public void addObjectAddedReaction(Closure filter, Closure action) {
-		objAddedOnce.add(new Pair<>(
-			filter,
-			action
-		));
+	public void addObjectAddedReaction(WorldReaction reaction) {
+		objAddedOnce.add(reaction);
 	}
 	
-	public void addObjectDeletedReaction(Closure filter, Closure action) {
-		objDeletedOnce.add(new Pair<>(
-			filter,
-			action
-		));
+	public void addObjectDeletedReaction(WorldReaction reaction) {
+		objDeletedOnce.add(reaction);
 	}
 	
-	public void addObjectModifiedReaction(Closure fromState, Closure toState, Closure action) {
-		objModifiedOnce.add(
-			new Triple<>(
-				fromState,
-				toState,
-				action
-			)
-		);
+	public void addObjectModifiedReaction(WorldReaction reaction) {
+		objModifiedOnce.add(reaction);
 	}
 	
 	public void addEnvironmentModifiedReaction(String key, String value, Closure action) {
@@ -169,11 +159,42 @@ public class AgentInstance implements ReactionAgent {
 	}
 	
 	public Iterable<PatternAction> getInputActions() {
+		int size = agent.getInputDispatchTable().size();
+		List<PatternAction> inputActions = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			inputActions.add(getInputAction(i));
+		}
+		
+		return inputActions;
+	}
+	
+	/**
+	 * @param index
+	 *   index in agent.getInputDispatchTable()
+	 */
+	public PatternAction getInputAction(int index) {
+		InputDispatchTable table = agent.getInputDispatchTable();
 		if (instanceInputActions == null) {
-			instanceInputActions = convertPatternActions(agent.inputActions.iterator());
+			instanceInputActions = new PatternAction[table.size()];
+		} else if (instanceInputActions.length < table.size()) {
+			// input actions were added to the agent; the table
+			// keeps their declaration order, so the existing
+			// entries stay valid
+			instanceInputActions = Arrays.copyOf(instanceInputActions, table.size());
+		}
+		
+		PatternAction patternAction = instanceInputActions[index];
+		if (patternAction == null) {
+			InternalPatternAction internal = table.getAction(index);
+			patternAction = new PatternAction(
+				table.getPattern(index),
+				new AgentCallable(this, internal.action),
+				internal.priority
+			);
+			instanceInputActions[index] = patternAction;
 		}
 		
-		return instanceInputActions;
+		return patternAction;
 	}
 	
 	public Iterable<PatternAction> getIntercomActions() {
@@ -184,90 +205,92 @@ public class AgentInstance implements ReactionAgent {
 		return instanceIntercomActions;
 	}
 	
-	public void triggerObjectAddedReactions(Object object) {
-		doTriggerObjectAddedReactions(objAddedOnce, object, true);
-		doTriggerObjectAddedReactions(agent.objAdded, object, false);
-	}
-		
-	private void doTriggerObjectAddedReactions(List<Pair<Closure,Closure>> objAdded, Object object, boolean once) {
-		def matching = objAdded.findAll {
-			item ->
-			Closure filter = item.first;
-			return filter(object);
-		};
-		
-		for (Pair<Closure,Closure> item : matching) {
-			if (once) {
-				objAdded.remove(item);
-			}
-			Closure action = item.second;
-			AgentCallable.callClosure(this, action, object);
-		}
+	/**
+	 * @param object
+	 *   what filters and actions get (the wrapper)
+	 */
+	public void triggerObjectAddedReactions(WorldObject worldObject, Object object) {
+		doTriggerObjectReactions(objAddedOnce, worldObject, object, true);
+		doTriggerObjectReactions(agent.objAdded, worldObject, object, false);
 	}
 	
-	public void triggerObjectDeletedReactions(Object object) {
-		doTriggerObjectDeletedReactions(objDeletedOnce, object, true);
-		doTriggerObjectDeletedReactions(agent.objDeleted, object, false);
+	/**
+	 * @param object
+	 *   what filters and actions get (the wrapper)
+	 */
+	public void triggerObjectDeletedReactions(WorldObject worldObject, Object object) {
+		doTriggerObjectReactions(objDeletedOnce, worldObject, object, true);
+		doTriggerObjectReactions(agent.objDeleted, worldObject, object, false);
 	}
 	
-	private void doTriggerObjectDeletedReactions(List<Pair<Closure,Closure>> objDeleted, Object object, boolean once) {
-		def matching = objDeleted.findAll {
-			item ->
-			Closure filter = item.first;
-			return filter(object);
-		};
+	private void doTriggerObjectReactions(WorldReactionIndex reactions, WorldObject worldObject, Object object, boolean once) {
+		if (reactions.isEmpty()) {
+			return;
+		}
 		
-		for (Pair<Closure,Closure> item : matching) {
+		List<WorldReaction> matching = new ArrayList<>();
+		for (WorldReaction reaction : reactions.getCandidates(worldObject.getId(), worldObject.getType(), null)) {
+			if (reaction.matches(object)) {
+				matching.add(reaction);
+			}
+		}
+		
+		for (WorldReaction reaction : matching) {
 			if (once) {
-				objDeleted.remove(item);
+				reactions.remove(reaction);
 			}
-			Closure action = item.second;
-			AgentCallable.callClosure(this, action, object);
+			AgentCallable.callClosure(this, reaction.getAction(), object);
 		}
 	}
 	
-	public void triggerObjectModifiedReactions(Map<String,Object> oldProperties, Map<String,Object> newProperties, Object object) {
+	public void triggerObjectModifiedReactions(ObjectChange change, Object object) {
 		doTriggerObjectModifiedReactions(
 			objModifiedOnce,
-			oldProperties,
-			newProperties,
+			change,
 			object,
 			true
 		);
 	
 		doTriggerObjectModifiedReactions(
 			agent.objModified,
-			oldProperties,
-			newProperties,
+			change,
 			object,
 			false
 		);
 	}
 	
+	/**
+	 * Filters get the old and/or new properties and,
+	 * if they accept one more argument, the ObjectChange.
+	 */
 	private void doTriggerObjectModifiedReactions(
-		List<Triple<Closure,Closure,Closure>> objModified,
-		Map<String,Object> oldProperties,
-		Map<String,Object> newProperties,
+		WorldReactionIndex objModified,
+		ObjectChange change,
 		Object object,
 		boolean once
 	) {
-		def matching = objModified.findAll {
-			item ->
-			Closure filterFrom = item.first;
-			Closure filterTo = item.second;
-			if (filterTo == null) {
-				return filterFrom(oldProperties, newProperties);
-			} else {
-				return filterFrom(oldProperties) && filterTo(newProperties);
+		if (objModified.isEmpty()) {
+			return;
+		}
+		
+		List<WorldReaction> candidates = objModified.getCandidates(
+			change.getId(),
+			change.getObject().getType(),
+			change.getChangedProperties()
+		);
+		
+		List<WorldReaction> matching = new ArrayList<>();
+		for (WorldReaction reaction : candidates) {
+			if (reaction.matches(change)) {
+				matching.add(reaction);
 			}
-		};
-	
-		for (Triple<Closure,Closure,Closure> item : matching) {
+		}
+		
+		for (WorldReaction reaction : matching) {
 			if (once) {
-				objModified.remove(item);
+				objModified.remove(reaction);
 			}
-			Closure action = item.third;
-			AgentCallable.callClosure(this, action, object);
+			AgentCallable.callClosure(this, reaction.getAction(), object);
 		}
 	}
 	
@@ -308,12 +331,40 @@ public class AgentInstance implements ReactionAgent {
 		for (Triple<String,Closure,Closure> item : matching) {
 			if (once) {
 				list.remove(item);
+				if (list.isEmpty()) {
+					envModified.remove(key);
+				}
 			}
 			
 			Closure action = item.third;
 			AgentCallable.callClosure(this, action);
 		}
 	}
+	
+	/**
+	 * @return
+	 *   false if none of the objectAdded reactions
+	 *   can match the object (without running filters)
+	 */
+	public boolean mayReactToAdded(WorldObject object) {
+		return objAddedOnce.mayMatch(object.getId(), object.getType(), null) ||
+			agent.objAdded.mayMatch(object.getId(), object.getType(), null);
+	}
+	
+	public boolean mayReactToModified(ObjectChange change) {
+		String type = change.getObject().getType();
+		return objModifiedOnce.mayMatch(change.getId(), type, change.getChangedProperties()) ||
+			agent.objModified.mayMatch(change.getId(), type, change.getChangedProperties());
+	}
+	
+	public boolean mayReactToDeleted(WorldObject object) {
+		return objDeletedOnce.mayMatch(object.getId(), object.getType(), null) ||
+			agent.objDeleted.mayMatch(object.getId(), object.getType(), null);
+	}
+	
+	public boolean mayReactToEnvironment(String key) {
+		return envModifiedOnce.containsKey(key) || agent.envModified.containsKey(key);
+	}
 
 	public boolean hasNamedReaction(String id) {
 		return agent.reactionMap.containsKey(id);
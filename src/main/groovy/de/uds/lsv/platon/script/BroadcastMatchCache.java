@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Work shared by the DialogEngines handling the same
+ * broadcast input (DialogSession.inputComplete without
+ * a speaker):
+ * <ul>
+ *   <li>the prepared input, per dialog script and language,
+ *     if all prepareInput stages are pure</li>
+ *   <li>which pure input patterns did not match a prepared
+ *     input; engines running the same script have equal
+ *     patterns (see InputPattern.getMatchKey), so most
+ *     patterns are evaluated only once</li>
+ * </ul>
+ * Successful matches are not shared, since a match result
+ * (e.g. a regex Matcher) has state of its own. Actions are
+ * still run by each engine.
+ *
+ * Only used on the session thread.
+ *
+ * @author mgropp
+ */
+public class BroadcastMatchCache {
+	private final Map<Object,List<Object>> preparedInputs = new HashMap<>();
+	private final Set<Key> notMatching = new HashSet<>();
+	
+	private long evaluated = 0;
+	private long shared = 0;
+	
+	/**
+	 * @param scriptKey
+	 *   the compiled dialog script, language, input text
+	 *   and input details
+	 * @return
+	 *   the prepared input, or null
+	 */
+	public List<Object> getPreparedInputs(Object scriptKey) {
+		return preparedInputs.get(scriptKey);
+	}
+	
+	/**
+	 * Only prepared inputs with value semantics are shared;
+	 * anything else might be changed by an action.
+	 */
+	public void putPreparedInputs(Object scriptKey, List<Object> prepared) {
+		for (Object input : prepared) {
+			if (!PreparedInputCache.isCacheable(input)) {
+				return;
+			}
+		}
+		
+		preparedInputs.put(scriptKey, Collections.unmodifiableList(new ArrayList<>(prepared)));
+	}
+	
+	/**
+	 * pattern.matches(input, details), unless an equal
+	 * pattern did not match input with equal details before.
+	 */
+	public Object matches(InputPattern pattern, Object input, Object details) {
+		Object patternKey = pattern.getMatchKey();
+		if (patternKey == null || !PreparedInputCache.isCacheable(input)) {
+			return pattern.matches(input, details);
+		}
+		
+		Key key = new Key(patternKey, input, details);
+		if (notMatching.contains(key)) {
+			shared++;
+			return null;
+		}
+		
+		evaluated++;
+		Object result = pattern.matches(input, details);
+		if (result == null) {
+			notMatching.add(
+				(details instanceof Map)
+				? new Key(patternKey, input, new HashMap<>((Map<?,?>)details))
+				: key
+			);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * @return
+	 *   the number of cacheable patterns that had to
+	 *   be evaluated
+	 */
+	public long getEvaluated() {
+		return evaluated;
+	}
+	
+	/**
+	 * @return
+	 *   the number of pattern evaluations saved
+	 */
+	public long getShared() {
+		return shared;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+			"[BroadcastMatchCache: prepared=%d evaluated=%d shared=%d]",
+			preparedInputs.size(),
+			evaluated,
+			shared
+		);
+	}
+	
+	private static class Key {
+		private final Object pattern;
+		private final Object input;
+		private final Object details;
+		private final int hashCode;
+		
+		public Key(Object pattern, Object input, Object details) {
+			this.pattern = pattern;
+			this.input = input;
+			this.details = details;
+			this.hashCode = 31 * (31 * pattern.hashCode() + input.hashCode()) + ((details == null) ? 0 : details.hashCode());
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			
+			Key other = (Key)obj;
+			return (
+				pattern.equals(other.pattern) &&
+				input.equals(other.input) &&
+				((details == null) ? other.details == null : details.equals(other.details))
+			);
+		}
+	}
+}
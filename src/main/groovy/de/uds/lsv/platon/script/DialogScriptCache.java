@@ -0,0 +1,748 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import groovy.lang.GroovySystem;
+import groovy.lang.Script;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.tools.GroovyClass;
+
+import de.uds.lsv.platon.world.WorldClassCustomizer;
+
+/**
+ * Process-wide cache of compiled dialog scripts.
+ *
+ * All DialogEngines using the same (expanded) dialog script
+ * share one compiled script class; each ScriptAdapter only
+ * instantiates it with its own bindings.
+ * Note that this also means that static state in classes
+ * defined by a dialog script is shared between engines, and
+ * between sessions.
+ * Only used if Config.shareCompiledScripts is set and there
+ * is no Config.scriptInit; classes defined by an init script
+ * would not be visible to a script compiled here.
+ * 
+ * Scripts are always compiled against the class loader of
+ * this class, never against the context class loader of the
+ * first caller, so e.g. webapps sharing the platon jar don't
+ * get each other's classes (and an undeployed webapp is not
+ * kept alive by the cache). If the context class loader sees
+ * classes this one doesn't (see canShare), scripts are not
+ * shared.
+ * 
+ * At most getMaxSize() scripts are kept; the least recently
+ * used one is dropped when another one is added. A dropped
+ * script stays alive as long as engines use it, and is
+ * compiled again for new engines.
+ * 
+ * Optionally, compiled classes are also stored in a directory
+ * (Config.scriptCacheDirectory), so scripts don't have to be
+ * compiled again after a restart. Stored classes are only
+ * loaded by a deployment with the same build fingerprint
+ * (see getBuildFingerprint).
+ *
+ * @author mgropp
+ */
+public class DialogScriptCache {
+	private static final Log logger = LogFactory.getLog(DialogScriptCache.class.getName());
+	
+	private static final DialogScriptCache instance = new DialogScriptCache();
+	
+	private static final AtomicInteger scriptCounter = new AtomicInteger(0);
+	
+	private static final String INDEX_FILE = "index";
+	
+	public static final int DEFAULT_MAX_SIZE = 64;
+	
+	/**
+	 * A compiled dialog script and the class loader it lives in.
+	 */
+	public static class CompiledDialogScript {
+		private final String key;
+		private final Class<? extends Script> scriptClass;
+		private final GroovyClassLoader classLoader;
+		private final Map<Integer,PreparedInputCache> preparedInputCaches = new HashMap<>();
+		
+		public CompiledDialogScript(String key, Class<? extends Script> scriptClass, GroovyClassLoader classLoader) {
+			this.key = key;
+			this.scriptClass = scriptClass;
+			this.classLoader = classLoader;
+		}
+		
+		public String getKey() {
+			return key;
+		}
+		
+		public Class<? extends Script> getScriptClass() {
+			return scriptClass;
+		}
+		
+		public GroovyClassLoader getClassLoader() {
+			return classLoader;
+		}
+		
+		/**
+		 * The prepareInput cache shared by all engines
+		 * running this script with the same cache size
+		 * (created on first use).
+		 */
+		public synchronized PreparedInputCache getPreparedInputCache(int maxSize) {
+			PreparedInputCache preparedInputCache = preparedInputCaches.get(maxSize);
+			if (preparedInputCache == null) {
+				preparedInputCache = new PreparedInputCache(maxSize);
+				preparedInputCaches.put(maxSize, preparedInputCache);
+			}
+			return preparedInputCache;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("[CompiledDialogScript: %s (%s)]", scriptClass.getName(), key);
+		}
+	}
+	
+	private int maxSize = DEFAULT_MAX_SIZE;
+	
+	/** computed on first use */
+	private volatile String buildFingerprint = null;
+	
+	/** access order, least recently used first */
+	private final LinkedHashMap<String,FutureTask<CompiledDialogScript>> scripts = new LinkedHashMap<String,FutureTask<CompiledDialogScript>>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,FutureTask<CompiledDialogScript>> eldest) {
+			if (size() > maxSize) {
+				logger.debug("Dropping compiled dialog script " + eldest.getKey());
+				return true;
+			}
+			return false;
+		}
+	};
+	
+	public static DialogScriptCache getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * Get the compiled class for a dialog script, compiling
+	 * it if no other engine has done so yet.
+	 * Concurrent requests for the same script wait for
+	 * a single compilation.
+	 * 
+	 * @param script
+	 *   the expanded script source (see IncludeReader)
+	 * @param originFingerprint
+	 *   the include tree of the script (see IncludeReader.getOriginFingerprint)
+	 * @param definitionNames
+	 *   the names of Config.scriptDefinitions, or null
+	 * @param cacheDirectory
+	 *   directory for compiled classes, or null to keep
+	 *   them in memory only
+	 * @return
+	 */
+	public CompiledDialogScript get(final String script, String originFingerprint, Collection<String> definitionNames, final File cacheDirectory) {
+		final String key = createKey(script, originFingerprint, definitionNames);
+		
+		FutureTask<CompiledDialogScript> task;
+		boolean compile = false;
+		synchronized (scripts) {
+			task = scripts.get(key);
+			if (task == null) {
+				task = new FutureTask<>(
+					new Callable<CompiledDialogScript>() {
+						@Override
+						public CompiledDialogScript call() throws Exception {
+							if (cacheDirectory == null) {
+								return compile(key, script);
+							} else {
+								return loadOrCompile(key, script, cacheDirectory);
+							}
+						}
+					}
+				);
+				scripts.put(key, task);
+				compile = true;
+			}
+		}
+		
+		if (compile) {
+			// outside the lock, other scripts don't have to wait
+			task.run();
+		}
+		
+		try {
+			return task.get();
+		}
+		catch (ExecutionException e) {
+			// don't cache failures, the script might be fixed
+			// (e.g. an #include file)
+			synchronized (scripts) {
+				if (scripts.get(key) == task) {
+					scripts.remove(key);
+				}
+			}
+			
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			} else {
+				throw new RuntimeException(cause);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Remove all compiled scripts from the cache.
+	 * Engines that are already running are not affected.
+	 */
+	public void clear() {
+		synchronized (scripts) {
+			scripts.clear();
+		}
+	}
+	
+	/**
+	 * Remove a compiled script from the cache, e.g. when
+	 * no engine uses it anymore, so its classes can be
+	 * unloaded. Engines that are already running are not
+	 * affected.
+	 * 
+	 * @return
+	 *   true if the script was in the cache
+	 */
+	public boolean remove(CompiledDialogScript compiledScript) {
+		synchronized (scripts) {
+			FutureTask<CompiledDialogScript> task = scripts.get(compiledScript.getKey());
+			if (task == null || !task.isDone()) {
+				return false;
+			}
+			
+			try {
+				if (task.get() != compiledScript) {
+					return false;
+				}
+			}
+			catch (ExecutionException|InterruptedException e) {
+				return false;
+			}
+			
+			scripts.remove(compiledScript.getKey());
+			return true;
+		}
+	}
+	
+	public int size() {
+		synchronized (scripts) {
+			return scripts.size();
+		}
+	}
+	
+	public int getMaxSize() {
+		synchronized (scripts) {
+			return maxSize;
+		}
+	}
+	
+	/**
+	 * Set the maximum number of compiled scripts kept,
+	 * dropping the least recently used ones if there are
+	 * more.
+	 */
+	public void setMaxSize(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+		}
+		
+		synchronized (scripts) {
+			this.maxSize = maxSize;
+			Iterator<String> it = scripts.keySet().iterator();
+			while (scripts.size() > maxSize && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Identifies the classes dialog scripts are compiled
+	 * against: the WorldClassCustomizer version and the
+	 * platon and application classpath entries (size and
+	 * modification time of each jar or class file). Part of
+	 * the name of every stored script, so after a
+	 * redeployment, scripts stored on disk are compiled again
+	 * instead of being linked against changed classes.
+	 */
+	public String getBuildFingerprint() {
+		String fingerprint = buildFingerprint;
+		if (fingerprint == null) {
+			long startTime = System.nanoTime();
+			fingerprint = computeBuildFingerprint();
+			buildFingerprint = fingerprint;
+			logger.debug(String.format(
+				"Build fingerprint %s computed in %d ms.",
+				fingerprint,
+				(System.nanoTime() - startTime) / 1000000
+			));
+		}
+		return fingerprint;
+	}
+	
+	/**
+	 * Use another build fingerprint, e.g. a release version
+	 * that is cheaper to get than scanning the classpath.
+	 * 
+	 * @param fingerprint
+	 *   the new fingerprint, or null to compute it again
+	 */
+	public void setBuildFingerprint(String fingerprint) {
+		buildFingerprint = fingerprint;
+	}
+	
+	private static String computeBuildFingerprint() {
+		Set<File> entries = new LinkedHashSet<>();
+		
+		CodeSource codeSource = DialogScriptCache.class.getProtectionDomain().getCodeSource();
+		if (codeSource != null) {
+			addClasspathEntry(entries, codeSource.getLocation());
+		}
+		
+		for (ClassLoader loader = getSharedParentLoader(); loader != null; loader = loader.getParent()) {
+			if (loader instanceof URLClassLoader) {
+				for (URL url : ((URLClassLoader)loader).getURLs()) {
+					addClasspathEntry(entries, url);
+				}
+			}
+		}
+		
+		String classPath = System.getProperty("java.class.path");
+		if (classPath != null) {
+			for (String entry : classPath.split(File.pathSeparator)) {
+				if (!entry.isEmpty()) {
+					entries.add(new File(entry).getAbsoluteFile());
+				}
+			}
+		}
+		
+		MessageDigest digest = createDigest();
+		update(digest, "WorldClassCustomizer " + WorldClassCustomizer.VERSION);
+		for (File entry : entries) {
+			update(digest, entry.getPath());
+			if (entry.isFile()) {
+				update(digest, entry.length() + " " + entry.lastModified());
+			} else if (entry.isDirectory()) {
+				try {
+					for (String classFile : listClassFiles(entry.toPath())) {
+						update(digest, classFile);
+					}
+				}
+				catch (IOException e) {
+					logger.warn("Could not read classpath directory " + entry, e);
+				}
+			}
+		}
+		
+		return toHex(digest.digest());
+	}
+	
+	private static void addClasspathEntry(Set<File> entries, URL url) {
+		if (url == null || !"file".equals(url.getProtocol())) {
+			return;
+		}
+		
+		try {
+			entries.add(new File(url.toURI()).getAbsoluteFile());
+		}
+		catch (URISyntaxException|IllegalArgumentException e) {
+			logger.debug("Ignoring classpath entry " + url);
+		}
+	}
+	
+	/**
+	 * @return
+	 *   name, size and modification time of the class
+	 *   files below directory, sorted
+	 */
+	private static List<String> listClassFiles(final Path directory) throws IOException {
+		final List<String> classFiles = new ArrayList<>();
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				if (file.getFileName().toString().endsWith(".class")) {
+					classFiles.add(
+						directory.relativize(file) + " " +
+						attributes.size() + " " +
+						attributes.lastModifiedTime().toMillis()
+					);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		
+		Collections.sort(classFiles);
+		return classFiles;
+	}
+	
+	private static CompilerConfiguration createCompilerConfiguration() {
+		CompilerConfiguration configuration = new CompilerConfiguration(CompilerConfiguration.DEFAULT);
+		// direct accessors for world classes defined in scripts
+		configuration.addCompilationCustomizers(new WorldClassCustomizer());
+		return configuration;
+	}
+	
+	/**
+	 * A class loader that compiles dialog scripts the same way
+	 * as the cache does (ScriptAdapter uses it if scripts are
+	 * not shared).
+	 */
+	static GroovyClassLoader createClassLoader() {
+		return new GroovyClassLoader(
+			getParentLoader(),
+			createCompilerConfiguration()
+		);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private CompiledDialogScript compile(String key, String script) {
+		long startTime = System.nanoTime();
+		
+		GroovyClassLoader classLoader = new GroovyClassLoader(
+			getSharedParentLoader(),
+			createCompilerConfiguration()
+		);
+		
+		GroovyCodeSource codeSource = new GroovyCodeSource(
+			script,
+			"DialogScript" + scriptCounter.incrementAndGet() + ".groovy",
+			"/groovy/script"
+		);
+		codeSource.setCachable(false);
+		
+		Class<? extends Script> scriptClass = (Class<? extends Script>)classLoader.parseClass(codeSource, false);
+		
+		logger.info(String.format(
+			"Compiled dialog script %s in %d ms.",
+			scriptClass.getName(),
+			(System.nanoTime() - startTime) / 1000000
+		));
+		
+		return new CompiledDialogScript(key, scriptClass, classLoader);
+	}
+	
+	/**
+	 * Stored classes are only valid for the build they were
+	 * compiled against, so the directory name includes the
+	 * build fingerprint.
+	 */
+	private String getStorageName(String key) {
+		MessageDigest digest = createDigest();
+		update(digest, key);
+		update(digest, getBuildFingerprint());
+		return toHex(digest.digest());
+	}
+	
+	private CompiledDialogScript loadOrCompile(String key, String script, File cacheDirectory) throws IOException {
+		Path directory = cacheDirectory.toPath().resolve(getStorageName(key));
+		
+		if (Files.isRegularFile(directory.resolve(INDEX_FILE))) {
+			try {
+				return load(key, directory);
+			}
+			catch (IOException|ClassNotFoundException|LinkageError e) {
+				logger.warn("Could not load cached dialog script from " + directory + ", compiling it again.", e);
+			}
+		}
+		
+		long startTime = System.nanoTime();
+		
+		String scriptName = "DialogScript" + scriptCounter.incrementAndGet();
+		CompilationUnit unit = new CompilationUnit(
+			createCompilerConfiguration(),
+			null,
+			new GroovyClassLoader(getSharedParentLoader())
+		);
+		unit.addSource(scriptName + ".groovy", script);
+		unit.compile(Phases.CLASS_GENERATION);
+		
+		Map<String,byte[]> bytecode = new LinkedHashMap<>();
+		for (Object o : unit.getClasses()) {
+			GroovyClass groovyClass = (GroovyClass)o;
+			bytecode.put(groovyClass.getName(), groovyClass.getBytes());
+		}
+		
+		logger.info(String.format(
+			"Compiled dialog script %s in %d ms.",
+			scriptName,
+			(System.nanoTime() - startTime) / 1000000
+		));
+		
+		try {
+			store(directory, scriptName, bytecode);
+		}
+		catch (IOException e) {
+			logger.warn("Could not store compiled dialog script in " + directory, e);
+		}
+		
+		try {
+			return define(key, scriptName, bytecode);
+		}
+		catch (ClassNotFoundException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	private CompiledDialogScript load(String key, Path directory) throws IOException, ClassNotFoundException {
+		List<String> index = Files.readAllLines(directory.resolve(INDEX_FILE), StandardCharsets.UTF_8);
+		if (index.isEmpty()) {
+			throw new IOException("Empty index file.");
+		}
+		
+		Map<String,byte[]> bytecode = new LinkedHashMap<>();
+		for (String className : index.subList(1, index.size())) {
+			bytecode.put(className, Files.readAllBytes(directory.resolve(className + ".class")));
+		}
+		
+		CompiledDialogScript compiledScript = define(key, index.get(0), bytecode);
+		logger.info("Loaded compiled dialog script from " + directory);
+		return compiledScript;
+	}
+	
+	/**
+	 * Write the classes to a temporary directory first and
+	 * rename it, so other processes never see a half-written
+	 * cache entry.
+	 */
+	private static void store(Path directory, String scriptName, Map<String,byte[]> bytecode) throws IOException {
+		Files.createDirectories(directory.getParent());
+		Path tmpDirectory = Files.createDirectory(
+			directory.resolveSibling(directory.getFileName() + ".tmp-" + UUID.randomUUID())
+		);
+		
+		try {
+			for (Map.Entry<String,byte[]> entry : bytecode.entrySet()) {
+				Files.write(tmpDirectory.resolve(entry.getKey() + ".class"), entry.getValue());
+			}
+			
+			// index file: script class name, then all class names
+			try (BufferedWriter writer = Files.newBufferedWriter(tmpDirectory.resolve(INDEX_FILE), StandardCharsets.UTF_8)) {
+				writer.write(scriptName);
+				writer.newLine();
+				for (String className : bytecode.keySet()) {
+					writer.write(className);
+					writer.newLine();
+				}
+			}
+			
+			try {
+				Files.move(tmpDirectory, directory, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpDirectory, directory);
+			}
+		}
+		catch (FileAlreadyExistsException e) {
+			// another process was faster
+			logger.debug("Compiled dialog script already stored: " + directory);
+		}
+		finally {
+			if (Files.exists(tmpDirectory)) {
+				for (File file : tmpDirectory.toFile().listFiles()) {
+					Files.delete(file.toPath());
+				}
+				Files.delete(tmpDirectory);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static CompiledDialogScript define(String key, String scriptName, Map<String,byte[]> bytecode) throws ClassNotFoundException {
+		BytecodeClassLoader classLoader = new BytecodeClassLoader(getSharedParentLoader(), bytecode);
+		
+		// define all classes right away, so WorldMaker.registerTypes
+		// finds the world classes in the loader's class cache
+		for (String className : bytecode.keySet()) {
+			classLoader.loadClass(className);
+		}
+		
+		Class<? extends Script> scriptClass = (Class<? extends Script>)classLoader.loadClass(scriptName);
+		return new CompiledDialogScript(key, scriptClass, classLoader);
+	}
+	
+	/**
+	 * A GroovyClassLoader for precompiled classes.
+	 */
+	private static class BytecodeClassLoader extends GroovyClassLoader {
+		private final Map<String,byte[]> bytecode;
+		
+		public BytecodeClassLoader(ClassLoader parent, Map<String,byte[]> bytecode) {
+			super(parent, new CompilerConfiguration(CompilerConfiguration.DEFAULT));
+			this.bytecode = new HashMap<>(bytecode);
+		}
+		
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			byte[] classBytes;
+			synchronized (bytecode) {
+				classBytes = bytecode.remove(name);
+			}
+			
+			if (classBytes == null) {
+				return super.findClass(name);
+			}
+			
+			Class<?> cls = defineClass(name, classBytes, 0, classBytes.length);
+			setClassCacheEntry(cls);
+			return cls;
+		}
+	}
+	
+	/**
+	 * Parent loader of all cached scripts.
+	 */
+	private static ClassLoader getSharedParentLoader() {
+		return DialogScriptCache.class.getClassLoader();
+	}
+	
+	/**
+	 * Whether scripts compiled for the current thread can be
+	 * shared: the context class loader must not see classes
+	 * that getSharedParentLoader does not, i.e. it has to be
+	 * that loader or one of its parents.
+	 */
+	public static boolean canShare() {
+		ClassLoader parentLoader = getParentLoader();
+		for (ClassLoader loader = getSharedParentLoader(); loader != null; loader = loader.getParent()) {
+			if (loader == parentLoader) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Same parent loader the JSR 223 script engine would use.
+	 */
+	private static ClassLoader getParentLoader() {
+		ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+		if (contextLoader != null) {
+			try {
+				if (contextLoader.loadClass(Script.class.getName()) == Script.class) {
+					return contextLoader;
+				}
+			}
+			catch (ClassNotFoundException e) {
+			}
+		}
+		
+		return DialogScriptCache.class.getClassLoader();
+	}
+	
+	static String createKey(String script, String originFingerprint, Collection<String> definitionNames) {
+		MessageDigest digest = createDigest();
+		
+		// compiled classes depend on the Groovy version, too
+		update(digest, GroovySystem.getVersion());
+		update(digest, script);
+		if (originFingerprint != null) {
+			digest.update(originFingerprint.getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte)0);
+		if (definitionNames != null) {
+			List<String> names = new ArrayList<>(definitionNames);
+			Collections.sort(names);
+			for (String name : names) {
+				digest.update(name.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte)0);
+			}
+		}
+		
+		return toHex(digest.digest());
+	}
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/**
+	 * Add s and a separator.
+	 */
+	private static void update(MessageDigest digest, String s) {
+		digest.update(s.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte)0);
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+}
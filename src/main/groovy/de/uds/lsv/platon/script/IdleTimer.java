@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs idle tasks when there has been no input for a while.
+ *
+ * ping() is called on every input, so it must be cheap:
+ * it only records the time. Armed timers are not moved;
+ * when one goes off early (because there was input in the
+ * meantime) it is re-armed for the new deadline.
+ * Only tasks that have already run in the current idle
+ * period are re-armed by ping().
+ *
+ * @author mgropp
+ */
+public class IdleTimer {
+	private static final Log logger = LogFactory.getLog(IdleTimer.class.getName());
+	
+	private final ScheduledExecutorService executor;
+	
+	private volatile long lastActivity = System.nanoTime();
+	private final AtomicLong activityCount = new AtomicLong(0);
+	private volatile boolean running = false;
+	
+	private final List<IdleTask> permanentTasks = new CopyOnWriteArrayList<>();
+	/** number of permanent tasks waiting for the next ping */
+	private final AtomicInteger dormantTasks = new AtomicInteger(0);
+	
+	/**
+	 * @param executor
+	 *   the session executor; idle tasks are scheduled and
+	 *   run on it.
+	 */
+	public IdleTimer(ScheduledExecutorService executor) {
+		this.executor = executor;
+	}
+	
+	/**
+	 * Add a task that runs once in every idle period
+	 * that lasts at least durationMillis.
+	 */
+	public void add(long durationMillis, Runnable job) {
+		IdleTask task = new IdleTask(durationMillis, job);
+		permanentTasks.add(task);
+		task.dormant.set(true);
+		dormantTasks.incrementAndGet();
+		if (running) {
+			wake(task);
+		}
+	}
+	
+	/**
+	 * Run job after durationMillis, unless there is input
+	 * in the meantime.
+	 *
+	 * @return
+	 *   an object to cancel the timer
+	 */
+	public Cancellable addOnce(long durationMillis, final Runnable job) {
+		final long activity = activityCount.get();
+		final ScheduledFuture<?> future = schedule(
+			new Runnable() {
+				@Override
+				public void run() {
+					if (running && activityCount.get() == activity) {
+						job.run();
+					}
+				}
+			},
+			TimeUnit.MILLISECONDS.toNanos(durationMillis)
+		);
+		
+		return new Cancellable() {
+			@Override
+			public void cancel() {
+				if (future != null) {
+					future.cancel(false);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * There was input.
+	 */
+	public void ping() {
+		lastActivity = System.nanoTime();
+		activityCount.incrementAndGet();
+		
+		if (running && dormantTasks.get() > 0) {
+			for (IdleTask task : permanentTasks) {
+				wake(task);
+			}
+		}
+	}
+	
+	public void start() {
+		running = true;
+		ping();
+	}
+	
+	public void pause() {
+		running = false;
+		for (IdleTask task : permanentTasks) {
+			ScheduledFuture<?> future = task.future;
+			if (future != null && future.cancel(false)) {
+				task.future = null;
+				if (task.dormant.compareAndSet(false, true)) {
+					dormantTasks.incrementAndGet();
+				}
+			}
+		}
+	}
+	
+	private void wake(IdleTask task) {
+		if (task.dormant.compareAndSet(true, false)) {
+			dormantTasks.decrementAndGet();
+			task.arm(lastActivity + task.durationNanos - System.nanoTime());
+		}
+	}
+	
+	private ScheduledFuture<?> schedule(Runnable runnable, long delayNanos) {
+		if (executor == null) {
+			return null;
+		}
+		
+		try {
+			return executor.schedule(runnable, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+		}
+		catch (RejectedExecutionException e) {
+			logger.debug("Not scheduling idle task: session executor has been shut down.");
+			return null;
+		}
+	}
+	
+	private class IdleTask implements Runnable {
+		final long durationNanos;
+		final Runnable job;
+		
+		/** true if the task is not armed */
+		final AtomicBoolean dormant = new AtomicBoolean(false);
+		volatile ScheduledFuture<?> future = null;
+		
+		public IdleTask(long durationMillis, Runnable job) {
+			this.durationNanos = TimeUnit.MILLISECONDS.toNanos(durationMillis);
+			this.job = job;
+		}
+		
+		void arm(long delayNanos) {
+			future = schedule(this, delayNanos);
+		}
+		
+		@Override
+		public void run() {
+			future = null;
+			if (!running) {
+				sleep();
+				return;
+			}
+			
+			long activity = activityCount.get();
+			long remaining = lastActivity + durationNanos - System.nanoTime();
+			if (remaining > 0) {
+				// there was input since the timer was armed
+				arm(remaining);
+				return;
+			}
+			
+			try {
+				job.run();
+			}
+			catch (Exception e) {
+				logger.error("Exception in idle task", e);
+			}
+			
+			sleep();
+			
+			if (activityCount.get() != activity) {
+				// ping() may have missed us
+				wake(this);
+			}
+		}
+		
+		private void sleep() {
+			if (dormant.compareAndSet(false, true)) {
+				dormantTasks.incrementAndGet();
+			}
+		}
+	}
+}
@@ -160,7 +160,23 @@ public class IncludeReader extends PreprocessingReader {
 			}
 			
 			return new CodeLocation(this.url, line - this.startLine - delta);
-		}		
+		}
+		
+		public void appendFingerprint(StringBuilder sb) {
+			sb.append(url);
+			sb.append(':');
+			sb.append(startLine);
+			sb.append(':');
+			sb.append(endLine);
+			if (children != null) {
+				sb.append('(');
+				for (Origin child : children) {
+					child.appendFingerprint(sb);
+					sb.append(',');
+				}
+				sb.append(')');
+			}
+		}
 	}
 	
 	private final URI rootUri;
@@ -348,6 +364,20 @@ public class IncludeReader extends PreprocessingReader {
 		return true;
 	}
 	
+	/**
+	 * A string describing where all lines read so far came from
+	 * (i.e. the include tree), for use in cache keys.
+	 */
+	public String getOriginFingerprint() {
+		if (rootOrigin == null) {
+			return "";
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		rootOrigin.appendFingerprint(sb);
+		return sb.toString();
+	}
+	
 	/**
 	 * @param line
 	 *   line number, 0-based!
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import de.uds.lsv.platon.script.Agent.InternalPatternAction;
+
+/**
+ * The input actions of an agent, compiled for dispatch.
+ *
+ * getCandidates(input) returns the indices (in definition
+ * order) of all input actions that may match the input;
+ * the caller still has to check each candidate with
+ * getPattern(index).matches(...). So the result is the
+ * same as checking all input actions one by one, only
+ * most of the actions that can't match are skipped:
+ * <ul>
+ *   <li>literal patterns (strings, numbers, enums, ...) are
+ *     looked up in a hash table,</li>
+ *   <li>regular expressions starting with a literal prefix
+ *     are looked up by that prefix (case-folded the way
+ *     the expression's flags say),</li>
+ *   <li>everything else (closures, classes, wildcards,
+ *     other regular expressions, ...) is always a
+ *     candidate.</li>
+ * </ul>
+ *
+ * @author mgropp
+ */
+public class InputDispatchTable {
+	private static final int[] EMPTY = new int[0];
+	
+	private final InternalPatternAction[] actions;
+	private final InputPattern[] patterns;
+	
+	/** literal pattern => indices */
+	private final Map<Object,int[]> literals = new HashMap<>();
+	/** regular expressions by literal prefix, one index per case mode */
+	private final PrefixIndex[] prefixIndexes = new PrefixIndex[CaseMode.values().length];
+	/** indices of actions that can not be looked up */
+	private final int[] unindexed;
+	
+	public InputDispatchTable(List<InternalPatternAction> inputActions) {
+		this.actions = inputActions.toArray(new InternalPatternAction[inputActions.size()]);
+		this.patterns = new InputPattern[actions.length];
+		
+		Map<Object,List<Integer>> literalLists = new HashMap<>();
+		List<Map<String,List<Integer>>> prefixLists = new ArrayList<>();
+		for (int i = 0; i < prefixIndexes.length; i++) {
+			prefixLists.add(new HashMap<String,List<Integer>>());
+		}
+		List<Integer> unindexedList = new ArrayList<>();
+		
+		for (int i = 0; i < actions.length; i++) {
+			patterns[i] = InputPattern.compile(actions[i].pattern);
+			
+			Set<Object> literalKeys = new LinkedHashSet<>();
+			List<Set<String>> prefixKeys = new ArrayList<>();
+			for (int j = 0; j < prefixIndexes.length; j++) {
+				prefixKeys.add(new LinkedHashSet<String>());
+			}
+			if (!collectKeys(patterns[i], literalKeys, prefixKeys)) {
+				unindexedList.add(i);
+				continue;
+			}
+			
+			for (Object key : literalKeys) {
+				addIndex(literalLists, key, i);
+			}
+			for (int j = 0; j < prefixIndexes.length; j++) {
+				for (String key : prefixKeys.get(j)) {
+					addIndex(prefixLists.get(j), key, i);
+				}
+			}
+		}
+		
+		for (Entry<Object,List<Integer>> entry : literalLists.entrySet()) {
+			literals.put(entry.getKey(), toArray(entry.getValue()));
+		}
+		
+		for (CaseMode mode : CaseMode.values()) {
+			Map<String,List<Integer>> lists = prefixLists.get(mode.ordinal());
+			if (!lists.isEmpty()) {
+				prefixIndexes[mode.ordinal()] = new PrefixIndex(mode, lists);
+			}
+		}
+		
+		this.unindexed = toArray(unindexedList);
+	}
+	
+	public int size() {
+		return actions.length;
+	}
+	
+	public InputPattern getPattern(int index) {
+		return patterns[index];
+	}
+	
+	public InternalPatternAction getAction(int index) {
+		return actions[index];
+	}
+	
+	/**
+	 * @return
+	 *   the indices of all input actions that may match
+	 *   input, ascending. Do not modify!
+	 */
+	public int[] getCandidates(Object input) {
+		if (input == null || (literals.isEmpty() && !hasPrefixIndex())) {
+			return unindexed;
+		}
+		
+		int maxHits = 2;
+		for (PrefixIndex prefixIndex : prefixIndexes) {
+			if (prefixIndex != null) {
+				maxHits += prefixIndex.lengths.length;
+			}
+		}
+		int[][] hits = new int[maxHits][];
+		int numHits = 0;
+		int total = 0;
+		
+		if (unindexed.length > 0) {
+			hits[numHits++] = unindexed;
+			total += unindexed.length;
+		}
+		
+		int[] literalHits = literals.get(input);
+		if (literalHits != null) {
+			hits[numHits++] = literalHits;
+			total += literalHits.length;
+		}
+		
+		if (input instanceof CharSequence) {
+			String s = input.toString();
+			for (PrefixIndex prefixIndex : prefixIndexes) {
+				if (prefixIndex == null) {
+					continue;
+				}
+				
+				String folded = prefixIndex.mode.fold(s);
+				for (int length : prefixIndex.lengths) {
+					if (length > folded.length()) {
+						break;
+					}
+					
+					int[] prefixHits = prefixIndex.prefixes.get(folded.substring(0, length));
+					if (prefixHits != null) {
+						hits[numHits++] = prefixHits;
+						total += prefixHits.length;
+					}
+				}
+			}
+		}
+		
+		if (numHits == 0) {
+			return EMPTY;
+		}
+		if (numHits == 1) {
+			return hits[0];
+		}
+		
+		int[] candidates = new int[total];
+		int n = 0;
+		for (int i = 0; i < numHits; i++) {
+			System.arraycopy(hits[i], 0, candidates, n, hits[i].length);
+			n += hits[i].length;
+		}
+		Arrays.sort(candidates);
+		
+		// OneOf patterns may be found under more than one key
+		int unique = 0;
+		for (int i = 0; i < candidates.length; i++) {
+			if (i == 0 || candidates[i] != candidates[i-1]) {
+				candidates[unique++] = candidates[i];
+			}
+		}
+		
+		return (unique == candidates.length) ? candidates : Arrays.copyOf(candidates, unique);
+	}
+	
+	/**
+	 * @return
+	 *   true if at least one case mode has prefix-indexed patterns
+	 */
+	private boolean hasPrefixIndex() {
+		for (PrefixIndex prefixIndex : prefixIndexes) {
+			if (prefixIndex != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static boolean collectKeys(InputPattern pattern, Set<Object> literalKeys, List<Set<String>> prefixKeys) {
+		if (pattern instanceof InputPattern.OneOfPattern) {
+			for (InputPattern alternative : ((InputPattern.OneOfPattern)pattern).alternatives) {
+				if (!collectKeys(alternative, literalKeys, prefixKeys)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		if (pattern instanceof InputPattern.EqualsPattern) {
+			if (!isLiteral(pattern.pattern)) {
+				return false;
+			}
+			literalKeys.add(pattern.pattern);
+			return true;
+		}
+		
+		if (pattern instanceof InputPattern.RegexPattern) {
+			Pattern regex = (Pattern)pattern.pattern;
+			CaseMode mode = CaseMode.forFlags(regex.flags());
+			String prefix = getLiteralPrefix(regex);
+			if (mode == null || prefix == null) {
+				return false;
+			}
+			prefixKeys.get(mode.ordinal()).add(mode.fold(prefix));
+			return true;
+		}
+		
+		if (pattern instanceof InputPattern.ClosurePattern) {
+			// closures without parameters never match
+			return ((InputPattern.ClosurePattern)pattern).inputType == null;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * true if pattern.equals(input) implies that
+	 * input.equals(pattern) and both have the same
+	 * hash code (i.e. equals only accepts the same class).
+	 */
+	private static boolean isLiteral(Object pattern) {
+		return (
+			pattern instanceof String ||
+			pattern instanceof Character ||
+			pattern instanceof Boolean ||
+			pattern instanceof Integer ||
+			pattern instanceof Long ||
+			pattern instanceof Short ||
+			pattern instanceof Byte ||
+			pattern instanceof Enum
+		);
+	}
+	
+	/**
+	 * A prefix every input matched by the pattern
+	 * starts with, or null if there is none (or we're
+	 * not sure).
+	 */
+	static String getLiteralPrefix(Pattern pattern) {
+		String s = pattern.pattern();
+		if (s.indexOf('|') >= 0) {
+			// might be a top-level alternative
+			return null;
+		}
+		
+		int end = 0;
+		while (end < s.length() && isLiteralChar(s.charAt(end))) {
+			end++;
+		}
+		
+		if (end < s.length()) {
+			char next = s.charAt(end);
+			if (next == '?' || next == '*' || next == '{') {
+				// the last character is optional
+				end--;
+			}
+		}
+		
+		return (end > 0) ? s.substring(0, end) : null;
+	}
+	
+	/**
+	 * ASCII only, so case folding is simple.
+	 */
+	private static boolean isLiteralChar(char c) {
+		return (
+			(c >= 'a' && c <= 'z') ||
+			(c >= 'A' && c <= 'Z') ||
+			(c >= '0' && c <= '9') ||
+			c == ' ' || c == ',' || c == '\''
+		);
+	}
+	
+	/**
+	 * How java.util.regex compares literal characters.
+	 */
+	private enum CaseMode {
+		EXACT {
+			@Override
+			char fold(char c) {
+				return c;
+			}
+		},
+		/** CASE_INSENSITIVE: US-ASCII letters only */
+		ASCII {
+			@Override
+			char fold(char c) {
+				return (c >= 'A' && c <= 'Z') ? (char)(c + ('a' - 'A')) : c;
+			}
+		},
+		/** CASE_INSENSITIVE | UNICODE_CASE */
+		UNICODE {
+			@Override
+			char fold(char c) {
+				return Character.toLowerCase(Character.toUpperCase(c));
+			}
+		};
+		
+		abstract char fold(char c);
+		
+		String fold(String s) {
+			char[] chars = s.toCharArray();
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = fold(chars[i]);
+			}
+			return new String(chars);
+		}
+		
+		/**
+		 * @return
+		 *   null if there are flags that change how the
+		 *   literal prefix is matched
+		 */
+		static CaseMode forFlags(int flags) {
+			if ((flags & ~(Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)) != 0) {
+				return null;
+			}
+			
+			if ((flags & Pattern.CASE_INSENSITIVE) == 0) {
+				return EXACT;
+			} else if ((flags & Pattern.UNICODE_CASE) == 0) {
+				return ASCII;
+			} else {
+				return UNICODE;
+			}
+		}
+	}
+	
+	private static class PrefixIndex {
+		final CaseMode mode;
+		/** folded literal prefix => indices */
+		final Map<String,int[]> prefixes = new HashMap<>();
+		/** lengths of the keys in prefixes, ascending */
+		final int[] lengths;
+		
+		public PrefixIndex(CaseMode mode, Map<String,List<Integer>> lists) {
+			this.mode = mode;
+			TreeSet<Integer> lengthSet = new TreeSet<>();
+			for (Entry<String,List<Integer>> entry : lists.entrySet()) {
+				prefixes.put(entry.getKey(), toArray(entry.getValue()));
+				lengthSet.add(entry.getKey().length());
+			}
+			this.lengths = toArray(lengthSet);
+		}
+	}
+	
+	private static <K> void addIndex(Map<K,List<Integer>> map, K key, int index) {
+		List<Integer> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<>(2);
+			map.put(key, list);
+		}
+		list.add(index);
+	}
+	
+	private static int[] toArray(Iterable<Integer> list) {
+		List<Integer> copy = new ArrayList<>();
+		for (Integer i : list) {
+			copy.add(i);
+		}
+		
+		int[] array = new int[copy.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = copy.get(i);
+		}
+		return array;
+	}
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script
+
+import groovy.transform.TypeChecked
+
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+
+/**
+ * An input pattern (as used in input(pattern) { ... }) with
+ * the pattern type resolved once, so matching an input does
+ * not have to go through the instanceof chain (or look up
+ * closure parameter types) again.
+ *
+ * Patterns:
+ * <ul>
+ *   <li>OneOf: the result of the first matching pattern</li>
+ *   <li>Wildcard: matches everything</li>
+ *   <li>Pattern: regex, must match the whole input</li>
+ *   <li>Closure: filter taking the input (and details)</li>
+ *   <li>Class: input type</li>
+ *   <li>InputMatcher</li>
+ *   <li>anything else: pattern.equals(input)</li>
+ * </ul>
+ *
+ * @author mgropp
+ */
+@TypeChecked
+public abstract class InputPattern {
+	private static final Log logger = LogFactory.getLog(InputPattern.class.getName());
+	
+	public final Object pattern;
+	
+	protected InputPattern(Object pattern) {
+		this.pattern = pattern;
+	}
+	
+	/**
+	 * @return
+	 *   != null if input is accepted.
+	 */
+	public abstract Object matches(Object input, Object details);
+	
+	/**
+	 * true if matching has no side effects, so it may
+	 * be done on another thread (see ParallelInputMatcher).
+	 * Closures are never pure.
+	 */
+	public boolean isPure() {
+		return true;
+	}
+	
+	/**
+	 * Equal for patterns that accept the same inputs, no
+	 * matter what the input details are, so the result of
+	 * one can be reused for the other (see
+	 * BroadcastMatchCache); null if there is no such key.
+	 */
+	public Object getMatchKey() {
+		return null;
+	}
+	
+	public static InputPattern compile(Object pattern) {
+		if (pattern instanceof OneOf) {
+			List<InputPattern> alternatives = new ArrayList<>();
+			for (Object alternative : (OneOf)pattern) {
+				alternatives.add(compile(alternative));
+			}
+			return new OneOfPattern((OneOf)pattern, alternatives);
+		}
+		
+		if (Wildcard.INSTANCE.is(pattern)) {
+			return new WildcardPattern(pattern);
+		}
+		
+		if (pattern instanceof Pattern) {
+			return new RegexPattern((Pattern)pattern);
+		}
+		
+		if (pattern instanceof Closure) {
+			return new ClosurePattern((Closure)pattern);
+		}
+		
+		if (pattern instanceof Class) {
+			return new ClassPattern((Class)pattern);
+		}
+		
+		if (pattern instanceof InputMatcher) {
+			return new InputMatcherPattern((InputMatcher)pattern);
+		}
+		
+		return new EqualsPattern(pattern);
+	}
+	
+	@Override
+	public String toString() {
+		return String.valueOf(pattern);
+	}
+	
+	public static class OneOfPattern extends InputPattern {
+		public final List<InputPattern> alternatives;
+		private final Object matchKey;
+		
+		public OneOfPattern(OneOf pattern, List<InputPattern> alternatives) {
+			super(pattern);
+			this.alternatives = Collections.unmodifiableList(alternatives);
+			
+			List<Object> keys = new ArrayList<>();
+			keys.add(OneOfPattern.class);
+			for (InputPattern alternative : alternatives) {
+				keys.add(alternative.getMatchKey());
+			}
+			this.matchKey = keys.contains(null) ? null : keys;
+		}
+		
+		@Override
+		public Object getMatchKey() {
+			return matchKey;
+		}
+		
+		@Override
+		public boolean isPure() {
+			for (InputPattern alternative : alternatives) {
+				if (!alternative.isPure()) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			for (InputPattern alternative : alternatives) {
+				Object result = alternative.matches(input, details);
+				if (result != null) {
+					return result;
+				}
+			}
+			
+			return null;
+		}
+	}
+	
+	public static class WildcardPattern extends InputPattern {
+		public WildcardPattern(Object pattern) {
+			super(pattern);
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			logger.debug(String.format("Accepted »%s«: wildcard", input));
+			return Wildcard.INSTANCE;
+		}
+	}
+	
+	public static class RegexPattern extends InputPattern {
+		private final Object matchKey;
+		
+		public RegexPattern(Pattern pattern) {
+			super(pattern);
+			this.matchKey = Arrays.asList(RegexPattern.class, pattern.pattern(), pattern.flags());
+		}
+		
+		@Override
+		public Object getMatchKey() {
+			return matchKey;
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			if (!(input instanceof CharSequence)) {
+				return null;
+			}
+			
+			Matcher matcher = ((Pattern)pattern).matcher((CharSequence)input);
+			if (matcher.matches()) {
+				logger.debug(String.format("Accepted »%s«: regex %s", input, pattern));
+				return matcher;
+			}
+			
+			return null;
+		}
+	}
+	
+	public static class ClosurePattern extends InputPattern {
+		/** null if the closure takes no parameters (never matches) */
+		public final Class inputType;
+		public final boolean takesDetails;
+		
+		public ClosurePattern(Closure pattern) {
+			super(pattern);
+			Class[] parameterTypes = pattern.getParameterTypes();
+			this.inputType = (parameterTypes.length == 0) ? null : parameterTypes[0];
+			this.takesDetails = (pattern.maximumNumberOfParameters != 1);
+		}
+		
+		@Override
+		public boolean isPure() {
+			return false;
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			if (inputType == null || !inputType.isAssignableFrom(input.getClass())) {
+				return null;
+			}
+			
+			Closure filter = (Closure)pattern;
+			def result;
+			if (takesDetails) {
+				result = filter(input, details);
+			} else {
+				result = filter(input);
+			}
+			
+			if (result != null && result) {
+				logger.debug(String.format("Accepted »%s«: closure %s", input, filter));
+				return result;
+			}
+			
+			return null;
+		}
+	}
+	
+	public static class ClassPattern extends InputPattern {
+		public ClassPattern(Class pattern) {
+			super(pattern);
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			Class cls = (Class)pattern;
+			if (cls.isAssignableFrom(input.getClass())) {
+				logger.debug(String.format("Accepted »%s«: class %s", input, cls));
+				return cls;
+			}
+			
+			return null;
+		}
+	}
+	
+	public static class InputMatcherPattern extends InputPattern {
+		public InputMatcherPattern(InputMatcher pattern) {
+			super(pattern);
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			InputMatcher matcher = (InputMatcher)pattern;
+			if (matcher.matchesInput(input)) {
+				logger.debug(String.format("Accepted »%s«: InputMatcher %s", input, matcher));
+				return matcher;
+			}
+			
+			return null;
+		}
+	}
+	
+	public static class EqualsPattern extends InputPattern {
+		private final Object matchKey;
+		
+		public EqualsPattern(Object pattern) {
+			super(pattern);
+			this.matchKey = isPure() ? Arrays.asList(EqualsPattern.class, pattern) : null;
+		}
+		
+		@Override
+		public Object getMatchKey() {
+			return matchKey;
+		}
+		
+		/**
+		 * Only for value types; other objects might do
+		 * anything in equals().
+		 */
+		@Override
+		public boolean isPure() {
+			return (
+				pattern instanceof String ||
+				pattern instanceof Number ||
+				pattern instanceof Boolean ||
+				pattern instanceof Character ||
+				pattern instanceof Enum
+			);
+		}
+		
+		@Override
+		public Object matches(Object input, Object details) {
+			if (pattern.equals(input)) {
+				logger.debug(String.format("Accepted »%s«: equals %s", input, pattern));
+				return pattern;
+			}
+			
+			return null;
+		}
+	}
+}
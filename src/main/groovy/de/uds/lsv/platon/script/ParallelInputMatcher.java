@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Evaluates the side-effect-free input patterns
+ * (see InputPattern.isPure()) of all agents on the stack
+ * in parallel, on a fork-join pool.
+ *
+ * Only the matching is done in advance: ScriptAdapter
+ * still goes through the candidates in order on the session
+ * thread, evaluating the other patterns (closures) and
+ * running the actions there. So the selected action is the
+ * same as with sequential matching.
+ *
+ * @author mgropp
+ */
+public class ParallelInputMatcher {
+	private static final Log logger = LogFactory.getLog(ParallelInputMatcher.class.getName());
+
+	/** result for patterns that have to be matched on the session thread */
+	public static final Object NOT_EVALUATED = new Object();
+
+	/** number of patterns matched by a single fork-join task */
+	private static final int BATCH_SIZE = 64;
+
+	private static volatile ForkJoinPool sharedPool = null;
+
+	/**
+	 * The candidates of an agent (see InputDispatchTable)
+	 * and the match results for them.
+	 */
+	public static class Matches {
+		/** the table the candidates belong to */
+		public final InputDispatchTable table;
+		public final int[] candidates;
+		/** null: no match; NOT_EVALUATED: not a pure pattern */
+		public final Object[] results;
+
+		Matches(InputDispatchTable table, int[] candidates) {
+			this.table = table;
+			this.candidates = candidates;
+			this.results = new Object[candidates.length];
+			Arrays.fill(results, NOT_EVALUATED);
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final int threshold;
+
+	/**
+	 * @param pool
+	 *   the pool to use, or null for a pool shared by
+	 *   all sessions
+	 * @param threshold
+	 *   minimum number of pure candidates on the stack for
+	 *   parallel matching
+	 */
+	public ParallelInputMatcher(ForkJoinPool pool, int threshold) {
+		this.pool = (pool != null) ? pool : getSharedPool();
+		this.threshold = threshold;
+	}
+
+	private static ForkJoinPool getSharedPool() {
+		if (sharedPool == null) {
+			synchronized (ParallelInputMatcher.class) {
+				if (sharedPool == null) {
+					sharedPool = new ForkJoinPool();
+				}
+			}
+		}
+		return sharedPool;
+	}
+
+	/**
+	 * @return
+	 *   the candidates and pure match results for each
+	 *   agent, or null if there are too few pure candidates
+	 *   to bother.
+	 */
+	public Map<AgentInstance,Matches> match(Iterable<AgentInstance> agents, Object input, Object details) {
+		List<InputPattern> patterns = new ArrayList<>();
+		List<Object[]> resultArrays = new ArrayList<>();
+		List<Integer> resultIndices = new ArrayList<>();
+		Map<AgentInstance,Matches> matches = collect(agents, input, patterns, resultArrays, resultIndices);
+
+		if (patterns.size() < threshold) {
+			return null;
+		}
+
+		logger.debug("Matching " + patterns.size() + " input patterns in parallel.");
+		pool.invoke(new MatchTask(patterns, resultArrays, resultIndices, input, details, 0, patterns.size()));
+		return matches;
+	}
+
+	/**
+	 * Match the pure patterns on the calling thread
+	 * (see ScriptAdapter.handlePartialInput).
+	 *
+	 * @return
+	 *   the candidates and pure match results for each agent
+	 */
+	public static Map<AgentInstance,Matches> matchSequentially(Iterable<AgentInstance> agents, Object input, Object details) {
+		List<InputPattern> patterns = new ArrayList<>();
+		List<Object[]> resultArrays = new ArrayList<>();
+		List<Integer> resultIndices = new ArrayList<>();
+		Map<AgentInstance,Matches> matches = collect(agents, input, patterns, resultArrays, resultIndices);
+
+		for (int i = 0; i < patterns.size(); i++) {
+			resultArrays.get(i)[resultIndices.get(i)] = patterns.get(i).matches(input, details);
+		}
+		return matches;
+	}
+
+	/**
+	 * Look up the candidates for each agent, and collect
+	 * the pure patterns among them (with the places their
+	 * results go to).
+	 */
+	private static Map<AgentInstance,Matches> collect(
+		Iterable<AgentInstance> agents,
+		Object input,
+		List<InputPattern> patterns,
+		List<Object[]> resultArrays,
+		List<Integer> resultIndices
+	) {
+		Map<AgentInstance,Matches> matches = new IdentityHashMap<>();
+		for (AgentInstance agent : agents) {
+			InputDispatchTable table = agent.getAgent().getInputDispatchTable();
+			Matches agentMatches = new Matches(table, table.getCandidates(input));
+			matches.put(agent, agentMatches);
+
+			for (int i = 0; i < agentMatches.candidates.length; i++) {
+				InputPattern pattern = table.getPattern(agentMatches.candidates[i]);
+				if (pattern.isPure()) {
+					patterns.add(pattern);
+					resultArrays.add(agentMatches.results);
+					resultIndices.add(i);
+				}
+			}
+		}
+		return matches;
+	}
+
+	private static class MatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<InputPattern> patterns;
+		private final List<Object[]> resultArrays;
+		private final List<Integer> resultIndices;
+		private final Object input;
+		private final Object details;
+		private final int from;
+		private final int to;
+
+		public MatchTask(
+			List<InputPattern> patterns,
+			List<Object[]> resultArrays,
+			List<Integer> resultIndices,
+			Object input,
+			Object details,
+			int from,
+			int to
+		) {
+			this.patterns = patterns;
+			this.resultArrays = resultArrays;
+			this.resultIndices = resultIndices;
+			this.input = input;
+			this.details = details;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_SIZE) {
+				for (int i = from; i < to; i++) {
+					resultArrays.get(i)[resultIndices.get(i)] = patterns.get(i).matches(input, details);
+				}
+				return;
+			}
+
+			int middle = (from + to) >>> 1;
+			invokeAll(
+				new MatchTask(patterns, resultArrays, resultIndices, input, details, from, middle),
+				new MatchTask(patterns, resultArrays, resultIndices, input, details, middle, to)
+			);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache for the results of pure prepareInput
+ * stages (prepareInput(pure: true) { ... }).
+ *
+ * There is one cache per dialog script and cache size,
+ * shared by all DialogEngines running it (see
+ * DialogScriptCache.CompiledDialogScript), so a pure stage
+ * must not depend on anything but its input, the input
+ * details and the user's language; the key is the same as
+ * the one used for sharing broadcast inputs. Results are
+ * only cached if they have value semantics, as they are
+ * handed to every engine.
+ *
+ * @author mgropp
+ */
+public class PreparedInputCache {
+	private final int maxSize;
+	private final LinkedHashMap<Key,Object> cache;
+	
+	private final AtomicLong hits = new AtomicLong(0);
+	private final AtomicLong misses = new AtomicLong(0);
+	
+	public PreparedInputCache(final int maxSize) {
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<Key,Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,Object> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Only inputs with value semantics (equals/hashCode)
+	 * are cached.
+	 */
+	public static boolean isCacheable(Object input) {
+		return (
+			input instanceof String ||
+			input instanceof Number ||
+			input instanceof Boolean ||
+			input instanceof Character ||
+			input instanceof Enum
+		);
+	}
+	
+	/**
+	 * @return
+	 *   the cached result, or null
+	 */
+	public Object get(int stage, String language, Object input, Map<String,String> details) {
+		Object result;
+		synchronized (cache) {
+			result = cache.get(new Key(stage, language, input, details));
+		}
+		
+		if (result != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Results without value semantics (see isCacheable) are
+	 * not cached; they might have state of their own.
+	 */
+	public void put(int stage, String language, Object input, Map<String,String> details, Object result) {
+		if (result instanceof InputSequence) {
+			for (Object part : (InputSequence)result) {
+				if (!isCacheable(part)) {
+					return;
+				}
+			}
+			// the stage might reuse its list
+			result = new InputSequence((InputSequence)result);
+		} else if (!isCacheable(result)) {
+			return;
+		}
+		
+		if (details != null) {
+			details = new HashMap<>(details);
+		}
+		
+		synchronized (cache) {
+			cache.put(new Key(stage, language, input, details), result);
+		}
+	}
+	
+	public int getMaxSize() {
+		return maxSize;
+	}
+	
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+			"[PreparedInputCache: size=%d/%d hits=%d misses=%d]",
+			size(),
+			maxSize,
+			getHits(),
+			getMisses()
+		);
+	}
+	
+	private static class Key {
+		private final int stage;
+		private final String language;
+		private final Object input;
+		private final Map<String,String> details;
+		private final int hashCode;
+		
+		public Key(int stage, String language, Object input, Map<String,String> details) {
+			this.stage = stage;
+			this.language = language;
+			this.input = input;
+			this.details = details;
+			int hash = 31 * stage + ((language == null) ? 0 : language.hashCode());
+			hash = 31 * hash + input.hashCode();
+			this.hashCode = 31 * hash + ((details == null) ? 0 : details.hashCode());
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			
+			Key other = (Key)obj;
+			return (
+				stage == other.stage &&
+				((language == null) ? other.language == null : language.equals(other.language)) &&
+				input.equals(other.input) &&
+				((details == null) ? other.details == null : details.equals(other.details))
+			);
+		}
+	}
+}
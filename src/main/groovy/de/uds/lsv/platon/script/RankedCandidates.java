@@ -0,0 +1,129 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Matching input actions with finite priority, in the
+ * order they were found.
+ *
+ * Stored in parallel arrays that are reused for the next
+ * input (see clear()), so collecting and ranking matches
+ * doesn't allocate anything once the arrays are large
+ * enough.
+ *
+ * @author mgropp
+ */
+public class RankedCandidates {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private AgentCallable[] actions = new AgentCallable[INITIAL_CAPACITY];
+	private Object[] inputs = new Object[INITIAL_CAPACITY];
+	private Object[] results = new Object[INITIAL_CAPACITY];
+	private double[] priorities = new double[INITIAL_CAPACITY];
+	private Map<String,String>[] details = newDetailsArray(INITIAL_CAPACITY);
+	private int size = 0;
+
+	public void add(AgentCallable action, Object input, Object result, double priority) {
+		add(action, input, result, priority, null);
+	}
+
+	public void add(AgentCallable action, Object input, Object result, double priority, Map<String,String> inputDetails) {
+		if (size == actions.length) {
+			int capacity = 2 * actions.length;
+			actions = Arrays.copyOf(actions, capacity);
+			inputs = Arrays.copyOf(inputs, capacity);
+			results = Arrays.copyOf(results, capacity);
+			priorities = Arrays.copyOf(priorities, capacity);
+			details = Arrays.copyOf(details, capacity);
+		}
+
+		actions[size] = action;
+		inputs[size] = input;
+		results[size] = result;
+		priorities[size] = priority;
+		details[size] = inputDetails;
+		size++;
+	}
+
+	/**
+	 * Remove all candidates (and drop the references
+	 * to them).
+	 */
+	public void clear() {
+		Arrays.fill(actions, 0, size, null);
+		Arrays.fill(inputs, 0, size, null);
+		Arrays.fill(results, 0, size, null);
+		Arrays.fill(details, 0, size, null);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return
+	 *   the index of the candidate with the highest priority
+	 *   at or after from (the first one if there are several),
+	 *   or -1 if there are no such candidates.
+	 */
+	public int best(int from) {
+		int best = -1;
+		for (int i = from; i < size; i++) {
+			if (best < 0 || priorities[i] > priorities[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	public AgentCallable getAction(int index) {
+		return actions[index];
+	}
+
+	public Object getInput(int index) {
+		return inputs[index];
+	}
+
+	public Object getResult(int index) {
+		return results[index];
+	}
+
+	public double getPriority(int index) {
+		return priorities[index];
+	}
+
+	/**
+	 * @return
+	 *   the input details for the action, or null
+	 */
+	public Map<String,String> getDetails(int index) {
+		return details[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String,String>[] newDetailsArray(int capacity) {
+		return new Map[capacity];
+	}
+}
@@ -23,17 +23,19 @@ import java.util.Map.Entry
 
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
+import org.codehaus.groovy.jsr223.GroovyCompiledScript
 import org.codehaus.groovy.jsr223.GroovyScriptEngineFactory
 import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl
 
-import de.martingropp.util.IdleManager
 import de.martingropp.util.ReactionTrigger
-import de.martingropp.util.ScoredObject
 import de.uds.lsv.platon.config.Config;
+import de.uds.lsv.platon.script.DialogScriptCache.CompiledDialogScript
 import de.uds.lsv.platon.script.ListenableBindings.FallbackListener
 import de.uds.lsv.platon.session.DialogEngine
+import de.uds.lsv.platon.session.InputHypothesis
 import de.uds.lsv.platon.session.User
 import de.uds.lsv.platon.session.DialogSession.SessionActiveListener
+import de.uds.lsv.platon.world.ObjectChange
 import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState.AddListener
 import de.uds.lsv.platon.world.WorldState.DeleteListener
@@ -60,7 +62,41 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 	ListenableBindings bindings;
 	ScriptBindings scriptBindings;
 	
-	List<Closure> prepareInput = new ArrayList<>();
+	/**
+	 * A prepareInput closure.
+	 */
+	public static class PrepareInputStage {
+		public final Closure closure;
+		/** results only depend on input and details, so they may be cached */
+		public final boolean pure;
+		
+		public PrepareInputStage(Closure closure, boolean pure) {
+			this.closure = closure;
+			this.pure = pure;
+		}
+		
+		public Object call(Object input, Map<String,String> details) {
+			if (closure.maximumNumberOfParameters == 1) {
+				return closure.call(input);
+			} else {
+				return closure.call(input, details);
+			}
+		}
+	}
+	
+	List<PrepareInputStage> prepareInput = new ArrayList<>();
+	
+	/** results of pure prepareInput stages; null if disabled */
+	private PreparedInputCache preparedInputCache = null;
+	
+	/**
+	 * the compiled dialog script, if it is shared with other
+	 * engines (see BroadcastMatchCache); otherwise null
+	 */
+	private Object sharedScript = null;
+	
+	/** while handling a broadcast input, or null */
+	private BroadcastMatchCache broadcastMatches = null;
 	
 	Map<String,Agent> agents = [:];
 	AgentStack agentStack;
@@ -76,10 +112,40 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 	// Top priority input action that's executed before
 	// all agent actions
 	private PriorityInputAction priorityInputAction = null;
+	
+	/** reusable buffers for matching finite-priority actions */
+	private final ArrayDeque<RankedCandidates> rankedCandidatesPool = new ArrayDeque<>();
 		
 	private ExceptionMapper exceptionMapper;
 	
-	IdleManager idleManager;
+	IdleTimer idleTimer;
+	
+	/** null if parallel input matching is disabled */
+	private ParallelInputMatcher parallelInputMatcher = null;
+	
+	/**
+	 * Prepared input and pure match results for the last
+	 * partial input (see handlePartialInput), or null.
+	 */
+	private static class Speculation {
+		final String text;
+		final Map<String,String> details;
+		final List<Object> preparedInputs;
+		/** null if prepareInput split the input */
+		final Map<AgentInstance,ParallelInputMatcher.Matches> matches;
+		
+		Speculation(String text, Map<String,String> details, List<Object> preparedInputs, Map<AgentInstance,ParallelInputMatcher.Matches> matches) {
+			this.text = text;
+			this.details = details;
+			this.preparedInputs = preparedInputs;
+			this.matches = matches;
+		}
+		
+		boolean isFor(String text, Map<String,String> details) {
+			return this.text.equals(text) && ((this.details == null) ? details == null : this.details.equals(details));
+		}
+	}
+	private Speculation speculation = null;
 	
 	private Map<WorldObject,WorldObjectWrapper> worldObjectWrappers = new WeakHashMap<>();
 	
@@ -186,7 +252,15 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 			dialogEngine.user.language
 		));
 		
-		idleManager = new IdleManager(dialogEngine.session.executor);
+		idleTimer = new IdleTimer(dialogEngine.session.executor);
+		
+		Config config = dialogEngine.session.config;
+		if (config != null && config.parallelInputMatchingThreshold > 0) {
+			parallelInputMatcher = new ParallelInputMatcher(
+				config.inputMatchingPool,
+				config.parallelInputMatchingThreshold
+			);
+		}
 		
 		GroovyScriptEngineFactory factory = new GroovyScriptEngineFactory();
 		logger.info(String.format(
@@ -196,7 +270,8 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 			factory.getLanguageName(),
 			factory.getLanguageVersion()
 		));
-		scriptEngine = (GroovyScriptEngineImpl)factory.getScriptEngine();
+		// compiles world classes in scripts like DialogScriptCache
+		scriptEngine = new GroovyScriptEngineImpl(DialogScriptCache.createClassLoader());
 		
 		scriptBindings = new ScriptBindings(this);
 		
@@ -257,18 +332,7 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 			}
 		}
 		
-		// for after 3.seconds { ... } etc.
-		URL timeUrl = ScriptAdapter.class.getResource("/platon-dsl/time.groovy");
-		if (timeUrl == null) {
-			throw new RuntimeException("Resource not found: /platon-dsl/time.groovy");
-		}
-		Reader reader = new InputStreamReader(timeUrl.openStream());
-		try {
-			scriptEngine.eval(reader);
-		}
-		finally {
-			reader.close();
-		}
+		// after 3.seconds { ... } etc. are provided by TimeExtension
 		
 		this.exceptionMapper = new ExceptionMapper(scriptReader, scriptEngine.getClassLoader());
 		
@@ -283,10 +347,44 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		String script = readDialogScript(scriptReader);
 		
 		try {
-			scriptEngine.eval(script, bindings);
+			GroovyClassLoader scriptClassLoader;
+			// the init script runs in this engine's class loader,
+			// a shared script class could not see its classes;
+			// neither could it see classes only the context
+			// class loader knows
+			if (dialogEngine.session.config?.shareCompiledScripts && initScript == null && DialogScriptCache.canShare()) {
+				CompiledDialogScript compiledScript = DialogScriptCache.getInstance().get(
+					script,
+					scriptReader.getOriginFingerprint(),
+					definitions?.keySet(),
+					dialogEngine.session.config.scriptCacheDirectory
+				);
+				
+				scriptClassLoader = compiledScript.getClassLoader();
+				sharedScript = compiledScript;
+				this.exceptionMapper = new ExceptionMapper(scriptReader, scriptClassLoader);
+				
+				if (dialogEngine.session.config.preparedInputCacheSize > 0) {
+					preparedInputCache = compiledScript.getPreparedInputCache(
+						dialogEngine.session.config.preparedInputCacheSize
+					);
+				}
+				
+				new GroovyCompiledScript(scriptEngine, compiledScript.getScriptClass()).eval(bindings);
+			} else {
+				scriptClassLoader = scriptEngine.getClassLoader();
+				
+				if (dialogEngine.session.config?.preparedInputCacheSize > 0) {
+					preparedInputCache = new PreparedInputCache(
+						dialogEngine.session.config.preparedInputCacheSize
+					);
+				}
+				
+				scriptEngine.eval(script, bindings);
+			}
 			
 			dialogEngine.session.worldState.getWorldMaker().registerTypes(
-				scriptEngine.getClassLoader()
+				scriptClassLoader
 			);
 		
 			checkUnconsumedUnknownIdentifiers();
@@ -321,24 +419,92 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		}
 	}
 	
+	public PreparedInputCache getPreparedInputCache() {
+		return preparedInputCache;
+	}
+	
 	public void handleInputStarted() {
-		idleManager.ping();
+		idleTimer.ping();
+	}
+	
+	public void handleInputAbandoned() {
+		speculation = null;
+	}
+	
+	/**
+	 * Speculatively prepare and match an interim recognizer
+	 * hypothesis, while the user is still speaking. If the
+	 * final input is the same (text and details), handleInput
+	 * only has to evaluate the patterns that are not pure
+	 * and run the action.
+	 * 
+	 * Nothing is done if there are prepareInput stages that
+	 * are not pure, since they must not run for inputs that
+	 * never happened.
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	public void handlePartialInput(String input, Map<String,String> details=null) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
+			logger.warn("handlePartialInput invoked outside session executor thread! Current thread: " + Thread.currentThread());
+		}
+		
+		idleTimer.ping();
+		speculation = null;
+		
+		if (input == null || input.trim().length() == 0) {
+			return;
+		}
+		
+		if (!isPreparationPure()) {
+			logger.debug("Not speculating on partial input: prepareInput is not pure.");
+			return;
+		}
+		
+		if (details != null) {
+			details = Collections.unmodifiableMap(details);
+		}
+		
+		try {
+			List<Object> preparedInputs = prepare(input, details);
+			Map<AgentInstance,ParallelInputMatcher.Matches> matches = null;
+			if (preparedInputs.size() == 1) {
+				matches = ParallelInputMatcher.matchSequentially(agentStack, preparedInputs[0], details);
+			}
+			speculation = new Speculation(input, details, preparedInputs, matches);
+		}
+		catch (Exception e) {
+			// the final input will run into it again
+			logger.debug("Speculative matching failed for »" + input + "«: " + e);
+		}
 	}
 	
 	/**
+	 * true if input (with details) was the last partial
+	 * input, so handleInput will use its speculative results.
+	 */
+	public boolean isSpeculated(String input, Map<String,String> details) {
+		return speculation != null && speculation.isFor(input, details);
+	}
+	
+	/**
+	 * Actions may take up to three parameters:
+	 * input, match result and input details.
+	 * 
 	 * @return
 	 *   null to stop input processing, or
 	 *   a new input object to continue
 	 */
-	private Object runInputAction(AgentCallable action, Object input, Object other) {
+	private Object runInputAction(AgentCallable action, Object input, Object other, Map<String,String> details=null) {
 		for (;;) {
 			try {
 				if (action.getMaximumNumberOfParameters() == 0) {
 					action();
 				} else if (action.getMaximumNumberOfParameters() == 1) {
 					action(input);
-				} else {
+				} else if (action.getMaximumNumberOfParameters() == 2) {
 					action(input, other);
+				} else {
+					action(input, other, details);
 				}
 			}
 			catch (NextThrowable t) {
@@ -353,28 +519,65 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		}
 	}
 	
+	/**
+	 * Run the matching finite-priority actions, best first,
+	 * until one of them doesn't call next().
+	 * 
+	 * @return
+	 *   true iff one of the actions handled the input
+	 */
 	@TypeChecked(TypeCheckingMode.SKIP)
-	private static def scored(object, score) {
-		object.metaClass.mixin(ScoredObject);
-		object.score = score;
-		return object;
+	private boolean runRankedCandidates(RankedCandidates matching) {
+		int from = 0;
+		while (from < matching.size()) {
+			// select the item with the highest score
+			int index = matching.best(from);
+			Object input = matching.getInput(index);
+			
+			def nextInput = runInputAction(matching.getAction(index), input, matching.getResult(index), matching.getDetails(index));
+			if (nextInput == null) {
+				return true;
+			}
+			if (nextInput != input) {
+				throw new RuntimeException("next with argument is not yet implemented for rules with finite priority.");
+			}
+			
+			// next() => only consider following items
+			from = index + 1;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Input handling may be reentrant (an action can cause
+	 * further input), so each level gets its own buffer.
+	 */
+	private RankedCandidates acquireRankedCandidates() {
+		RankedCandidates candidates = rankedCandidatesPool.poll();
+		return (candidates != null) ? candidates : new RankedCandidates();
+	}
+	
+	private void releaseRankedCandidates(RankedCandidates candidates) {
+		candidates.clear();
+		rankedCandidatesPool.push(candidates);
 	}
 	
 	/**
 	 * @param input
+	 * @param broadcast
+	 *   shared with the other engines handling the same
+	 *   broadcast input, or null
 	 * @return
 	 *   true, iff at least a part of the prepared input could be handled.
 	 */
 	@TypeChecked(TypeCheckingMode.SKIP)
-	public void handleInput(String input, Map<String,String> details=null) {
-		if (
-			dialogEngine.getSession().executorThread != null &&
-			dialogEngine.getSession().executorThread != Thread.currentThread()
-		) {
+	public void handleInput(String input, Map<String,String> details=null, BroadcastMatchCache broadcast=null) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
 			logger.warn("handleInput invoked outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
-		idleManager.ping();
+		idleTimer.ping();
 		
 		if (input == null || input.trim().length() == 0) {
 			logger.info("Ignoring empty input.");
@@ -385,46 +588,99 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 			details = Collections.unmodifiableMap(details);
 		}
 		
+		Speculation speculated = speculation;
+		speculation = null;
+		
+		broadcastMatches = broadcast;
 		try {
-			// prepareInput
-			List<Object> preparedInputs = [ input ];
-			for (prepare in prepareInput) {
-				List<Object> newInputs = new ArrayList<>();
+			if (speculated != null && speculated.isFor(input, details)) {
+				logger.debug("Using speculative results for »" + input + "«.");
+				handlePreparedInputs(input, speculated.preparedInputs, details, speculated.matches);
+			} else {
+				handlePreparedInputs(input, prepare(input, details, broadcast), details);
+			}
+		}
+		catch (Exception e) {
+			logger.error(e);
+			logger.error("Trace: " + Arrays.asList(e.getStackTrace()).toString());
+			e.printStackTrace();
+			throw exceptionMapper.translateException(e);
+		}
+		finally {
+			broadcastMatches = null;
+		}
+	}
+	
+	/**
+	 * N-best input: all hypotheses are prepared and then
+	 * matched in a single pass over the agent stack (see
+	 * handlePreparedHypotheses). If prepareInput splits a
+	 * hypothesis into several parts, only the most
+	 * confident hypothesis is handled, like a single input.
+	 * 
+	 * The hypothesis an action gets is in its input details
+	 * (see InputHypothesis), along with the score.
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	public void handleInput(List<InputHypothesis> hypotheses, Map<String,String> details=null, BroadcastMatchCache broadcast=null) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
+			logger.warn("handleInput invoked outside session executor thread! Current thread: " + Thread.currentThread());
+		}
+		
+		idleTimer.ping();
+		speculation = null;
+		
+		List<Integer> ranks = [];
+		for (int rank = 0; rank < hypotheses.size(); rank++) {
+			if (hypotheses[rank].text.trim().length() > 0) {
+				ranks.add(rank);
+			}
+		}
+		if (ranks.isEmpty()) {
+			logger.info("Ignoring empty input.");
+			return;
+		}
+		
+		if (details != null) {
+			details = Collections.unmodifiableMap(details);
+		}
+		
+		broadcastMatches = broadcast;
+		try {
+			int n = ranks.size();
+			Object[] inputs = new Object[n];
+			double[] confidences = new double[n];
+			Map<String,String>[] hypothesisDetails = new Map[n];
+			List<Object>[] preparedInputs = new List[n];
+			boolean split = false;
+			for (int i = 0; i < n; i++) {
+				InputHypothesis hypothesis = hypotheses[ranks[i]];
+				confidences[i] = hypothesis.confidence;
+				hypothesisDetails[i] = getHypothesisDetails(details, hypothesis, ranks[i]);
 				
-				for (Object oldInput : preparedInputs) {
-					Object result;
-					if (prepare.maximumNumberOfParameters == 1) {
-						result = prepare(oldInput);
-					} else {
-						result = prepare(oldInput, details);
-					}
-					
-					if (result instanceof InputSequence) {
-						newInputs.addAll((InputSequence)result);
-					} else {
-						newInputs.add(result);
-					}
+				// prepareInput only gets the original details, so
+				// the confidence doesn't get in the way of caching
+				preparedInputs[i] = prepare(hypothesis.text, details, broadcast);
+				if (preparedInputs[i].size() == 1) {
+					inputs[i] = preparedInputs[i][0];
+				} else {
+					split = true;
 				}
-				
-				logger.debug("prepareInput: »" + preparedInputs + "« => »" + newInputs + "«");
-				preparedInputs = newInputs;
 			}
 			
-			// handle prepared parts
-			if (preparedInputs.size() == 1) {
-				if (!handlePreparedInput(preparedInputs[0], details)) {
-					logger.debug("Script can not (fully) handle input »" + input + "« (prepared: " + preparedInputs[0]+ "). Agent stack: »" + agentStack + "«.");
-				}
-			} else {
-				for (Object currentInput : preparedInputs) {
-					logger.debug("Decoupling reactions for " + currentInput);
-					Object decoupledInput = currentInput;
-					dialogEngine.getSession().addPartialAction({
-						if (!handlePreparedInput(decoupledInput, details)) {
-							logger.debug("Script can not (fully) handle input »" + input + "« (prepared: " + decoupledInput + "). Agent stack: »" + agentStack + "«.");
-						}
-					});
-				}
+			if (split) {
+				logger.debug("prepareInput split a hypothesis -- handling only the most confident one.");
+				int mostConfident = mostConfident(confidences);
+				handlePreparedInputs(
+					hypotheses[ranks[mostConfident]].text,
+					preparedInputs[mostConfident],
+					hypothesisDetails[mostConfident]
+				);
+				return;
+			}
+			
+			if (!handlePreparedHypotheses(inputs, confidences, hypothesisDetails)) {
+				logger.debug("Script can not (fully) handle input »" + hypotheses + "« (prepared: " + Arrays.asList(inputs) + "). Agent stack: »" + agentStack + "«.");
 			}
 		}
 		catch (Exception e) {
@@ -433,11 +689,148 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 			e.printStackTrace();
 			throw exceptionMapper.translateException(e);
 		}
+		finally {
+			broadcastMatches = null;
+		}
+	}
+	
+	private static Map<String,String> getHypothesisDetails(Map<String,String> details, InputHypothesis hypothesis, int rank) {
+		Map<String,String> hypothesisDetails = new HashMap<>();
+		if (details != null) {
+			hypothesisDetails.putAll(details);
+		}
+		hypothesisDetails.put(InputHypothesis.DETAILS_HYPOTHESIS, hypothesis.text);
+		hypothesisDetails.put(InputHypothesis.DETAILS_RANK, Integer.toString(rank));
+		hypothesisDetails.put(InputHypothesis.DETAILS_CONFIDENCE, Double.toString(hypothesis.confidence));
+		return Collections.unmodifiableMap(hypothesisDetails);
+	}
+	
+	private static Map<String,String> getScoredDetails(Map<String,String> hypothesisDetails, double score) {
+		Map<String,String> scoredDetails = new HashMap<>(hypothesisDetails);
+		scoredDetails.put(InputHypothesis.DETAILS_SCORE, Double.toString(score));
+		return Collections.unmodifiableMap(scoredDetails);
+	}
+	
+	private boolean isPreparationPure() {
+		for (PrepareInputStage stage : prepareInput) {
+			if (!stage.pure) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Like prepare(input, details), but if all prepareInput
+	 * stages are pure, engines running the same compiled
+	 * script in the same language share the result for
+	 * equal inputs and details.
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	private List<Object> prepare(Object input, Map<String,String> details, BroadcastMatchCache broadcast) {
+		if (broadcast == null || sharedScript == null || !isPreparationPure()) {
+			return prepare(input, details);
+		}
+		
+		// prepareInput stages get the details, too
+		List<Object> key = [ sharedScript, language, input, (details == null) ? null : new HashMap<String,String>(details) ];
+		List<Object> preparedInputs = broadcast.getPreparedInputs(key);
+		if (preparedInputs == null) {
+			preparedInputs = prepare(input, details);
+			broadcast.putPreparedInputs(key, preparedInputs);
+		} else {
+			logger.debug("Using shared prepared input for »" + input + "«: »" + preparedInputs + "«");
+		}
+		
+		return preparedInputs;
+	}
+	
+	/**
+	 * pattern.matches, or the shared result of an equal
+	 * pattern while handling a broadcast input.
+	 */
+	private Object matchPattern(InputPattern pattern, Object input, Map<String,String> details) {
+		if (broadcastMatches != null) {
+			return broadcastMatches.matches(pattern, input, details);
+		}
+		return pattern.matches(input, details);
+	}
+	
+	/**
+	 * Run the prepareInput stages.
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	private List<Object> prepare(Object input, Map<String,String> details) {
+		List<Object> preparedInputs = [ input ];
+		for (int stage = 0; stage < prepareInput.size(); stage++) {
+			PrepareInputStage prepare = prepareInput[stage];
+			List<Object> newInputs = new ArrayList<>();
+			
+			for (Object oldInput : preparedInputs) {
+				boolean cached = (
+					prepare.pure &&
+					preparedInputCache != null &&
+					PreparedInputCache.isCacheable(oldInput)
+				);
+				
+				Object result = null;
+				if (cached) {
+					result = preparedInputCache.get(stage, language, oldInput, details);
+				}
+				if (result == null) {
+					result = prepare.call(oldInput, details);
+					if (cached) {
+						preparedInputCache.put(stage, language, oldInput, details, result);
+					}
+				}
+				
+				if (result instanceof InputSequence) {
+					newInputs.addAll((InputSequence)result);
+				} else {
+					newInputs.add(result);
+				}
+			}
+			
+			logger.debug("prepareInput: »" + preparedInputs + "« => »" + newInputs + "«");
+			preparedInputs = newInputs;
+		}
+		
+		return preparedInputs;
+	}
+	
+	/**
+	 * @param precomputed
+	 *   pure match results for a single prepared input, or null
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	private void handlePreparedInputs(Object input, List<Object> preparedInputs, Map<String,String> details, Map<AgentInstance,ParallelInputMatcher.Matches> precomputed=null) {
+		// handle prepared parts
+		if (preparedInputs.size() == 1) {
+			if (!handlePreparedInput(preparedInputs[0], details, precomputed)) {
+				logger.debug("Script can not (fully) handle input »" + input + "« (prepared: " + preparedInputs[0]+ "). Agent stack: »" + agentStack + "«.");
+			}
+		} else {
+			for (Object currentInput : preparedInputs) {
+				logger.debug("Decoupling reactions for " + currentInput);
+				Object decoupledInput = currentInput;
+				dialogEngine.getSession().addPartialAction({
+					if (!handlePreparedInput(decoupledInput, details)) {
+						logger.debug("Script can not (fully) handle input »" + input + "« (prepared: " + decoupledInput + "). Agent stack: »" + agentStack + "«.");
+					}
+				});
+			}
+		}
 	}
 	
+	/**
+	 * @param precomputed
+	 *   pure match results for currentInput (see
+	 *   ParallelInputMatcher), or null
+	 */
 	@TypeChecked(TypeCheckingMode.SKIP)
-	private boolean handlePreparedInput(Object currentInput, Map<String,String> details) {
+	private boolean handlePreparedInput(Object currentInput, Map<String,String> details, Map<AgentInstance,ParallelInputMatcher.Matches> precomputed=null) {
 		assert (focusAgentInstance == null);
+		Object precomputedInput = currentInput;
 		
 		// Handle priority input action first
 		if (priorityInputAction != null) {
@@ -449,14 +842,14 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 				Object result = patternAction.matches(currentInput, details);
 				if (result != null) {
 					// match
-					currentInput = runInputAction(patternAction.action, currentInput, result);
+					currentInput = runInputAction(patternAction.action, currentInput, result, details);
 					if (currentInput == null) {
 						// no next()
 						return true;
 					}
 				} else if (patternAction.elseAction != null) {
 					// no match, elseAction available
-					currentInput = runInputAction(patternAction.elseAction, currentInput, result);
+					currentInput = runInputAction(patternAction.elseAction, currentInput, result, details);
 					if (currentInput == null) {
 						return true;
 					}
@@ -475,109 +868,301 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		}
 		
 		// Now go through the agent stack
-		List matching = new ArrayList();
-		Iterator<AgentInstance> agentIterator = agentStack.iterator();
+		RankedCandidates matching = acquireRankedCandidates();
 		try {
-			while (agentIterator.hasNext()) {
-				focusAgentInstance = agentIterator.next();
-				for (PatternAction patternAction : focusAgentInstance.getInputActions()) {
-					Object result = patternAction.matches(currentInput, details);
-					if (result != null) {
-						if (patternAction.priority == Double.POSITIVE_INFINITY) {
-							currentInput = runInputAction(patternAction.action, currentInput, result);
-							if (currentInput == null) {
-								// done
-								return true;
+			// pure patterns matched in advance (for currentInput), or null
+			if (!currentInput.is(precomputedInput)) {
+				// changed by the priority input action's next(input)
+				precomputed = null;
+			}
+			// with a broadcast input, most patterns have been
+			// evaluated by another engine already
+			if (precomputed == null && parallelInputMatcher != null && broadcastMatches == null) {
+				precomputed = parallelInputMatcher.match(agentStack, currentInput, details);
+			}
+			
+			Iterator<AgentInstance> agentIterator = agentStack.iterator();
+			try {
+				while (agentIterator.hasNext()) {
+					focusAgentInstance = agentIterator.next();
+					InputDispatchTable table = focusAgentInstance.getAgent().getInputDispatchTable();
+					ParallelInputMatcher.Matches agentMatches = precomputed?.get(focusAgentInstance);
+					if (agentMatches != null && !agentMatches.table.is(table)) {
+						// input actions were added since
+						agentMatches = null;
+					}
+					// only the input actions that may match, in definition order
+					int[] candidates = (agentMatches != null) ? agentMatches.candidates : table.getCandidates(currentInput);
+					for (int i = 0; i < candidates.length; i++) {
+						int index = candidates[i];
+						Object result;
+						if (agentMatches != null && !ParallelInputMatcher.NOT_EVALUATED.is(agentMatches.results[i])) {
+							result = agentMatches.results[i];
+						} else {
+							result = matchPattern(table.getPattern(index), currentInput, details);
+						}
+						if (result != null) {
+							PatternAction patternAction = focusAgentInstance.getInputAction(index);
+							if (patternAction.priority == Double.POSITIVE_INFINITY) {
+								Object previousInput = currentInput;
+								currentInput = runInputAction(patternAction.action, currentInput, result, details);
+								if (currentInput == null) {
+									// done
+									return true;
+								} else {
+									// next called!
+									matching.clear();
+									if (!currentInput.is(previousInput)) {
+										// next(input): look up the remaining actions again
+										precomputed = null;
+										agentMatches = null;
+										candidates = table.getCandidates(currentInput);
+										i = nextCandidate(candidates, index) - 1;
+									}
+								}
 							} else {
-								// next called!
-								matching.clear();
+								matching.add(patternAction.action, currentInput, result, patternAction.priority, details);
 							}
-						} else {
-							matching.add(scored([ patternAction.action, currentInput, result ], patternAction.priority));
 						}
 					}
 				}
 			}
+			finally {
+				focusAgentInstance = null;
+			}
+			
+			// we didn't find a score=inf rule that didn't call next() yet
+			return runRankedCandidates(matching);
 		}
 		finally {
-			focusAgentInstance = null;
+			releaseRankedCandidates(matching);
+		}
+	}
+	
+	/**
+	 * Like handlePreparedInput, but for the prepared
+	 * hypotheses of an N-best list. The input actions are
+	 * gone through once, each candidate action checking all
+	 * hypotheses that may match it; of the hypotheses it
+	 * accepts, it gets the one with the best score
+	 * (priority × confidence). Rules with infinite priority
+	 * still run first, in order, with the most confident
+	 * hypothesis they accept.
+	 * 
+	 * @return
+	 *   true iff one of the actions handled the input
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	private boolean handlePreparedHypotheses(Object[] inputs, double[] confidences, Map<String,String>[] hypothesisDetails) {
+		assert (focusAgentInstance == null);
+		int n = inputs.length;
+		
+		// Handle priority input action first
+		if (priorityInputAction != null) {
+			TwoCasePatternAction patternAction = priorityInputAction;
+			priorityInputAction = null;
+			focusAgentInstance = patternAction.action.agentInstance.get();
+			assert (focusAgentInstance != null);
+			try {
+				int best = -1;
+				Object bestResult = null;
+				for (int h = 0; h < n; h++) {
+					Object result = patternAction.matches(inputs[h], hypothesisDetails[h]);
+					if (result != null && (best < 0 || confidences[h] > confidences[best])) {
+						best = h;
+						bestResult = result;
+					}
+				}
+				
+				AgentCallable action;
+				if (best >= 0) {
+					action = patternAction.action;
+				} else if (patternAction.elseAction != null) {
+					action = patternAction.elseAction;
+					best = mostConfident(confidences);
+				} else {
+					// no match and no elseAction
+					return true;
+				}
+				
+				Object nextInput = runInputAction(
+					action,
+					inputs[best],
+					bestResult,
+					getScoredDetails(hypothesisDetails[best], patternAction.priority)
+				);
+				if (nextInput == null) {
+					return true;
+				}
+				inputs[best] = nextInput;
+				
+				// if we make it here, next() was called
+			}
+			finally {
+				focusAgentInstance = null;
+			}
 		}
 		
-		// we didn't find a score=inf rule that didn't call next() yet
-		while (!matching.isEmpty()) {
-			// ...but we still have something that matched!
-			// => select the item with the highest score
-			def scores = matching.collect({ it.score });
-			def index = scores.indexOf(scores.max())
-			def best = matching[index]
+		// Now go through the agent stack
+		RankedCandidates matching = acquireRankedCandidates();
+		try {
+			// candidates for each hypothesis, and how far we got
+			int[][] candidates = new int[n][];
+			int[] positions = new int[n];
 			
-			def nextInput = runInputAction(*best);
-			if (nextInput != best[1]) {
-				throw new RuntimeException("next with argument is not yet implemented for rules with finite priority.");
+			Iterator<AgentInstance> agentIterator = agentStack.iterator();
+			try {
+				while (agentIterator.hasNext()) {
+					focusAgentInstance = agentIterator.next();
+					InputDispatchTable table = focusAgentInstance.getAgent().getInputDispatchTable();
+					for (int h = 0; h < n; h++) {
+						candidates[h] = table.getCandidates(inputs[h]);
+						positions[h] = 0;
+					}
+					
+					for (;;) {
+						// next input action that may match any hypothesis
+						int index = Integer.MAX_VALUE;
+						for (int h = 0; h < n; h++) {
+							if (positions[h] < candidates[h].length && candidates[h][positions[h]] < index) {
+								index = candidates[h][positions[h]];
+							}
+						}
+						if (index == Integer.MAX_VALUE) {
+							break;
+						}
+						
+						InputPattern pattern = table.getPattern(index);
+						PatternAction patternAction = null;
+						int best = -1;
+						Object bestResult = null;
+						double bestScore = 0;
+						for (int h = 0; h < n; h++) {
+							if (positions[h] >= candidates[h].length || candidates[h][positions[h]] != index) {
+								continue;
+							}
+							positions[h]++;
+							
+							Object result = matchPattern(pattern, inputs[h], hypothesisDetails[h]);
+							if (result == null) {
+								continue;
+							}
+							
+							if (patternAction == null) {
+								patternAction = focusAgentInstance.getInputAction(index);
+							}
+							double score = (patternAction.priority == Double.POSITIVE_INFINITY) ?
+								confidences[h] :
+								patternAction.priority * confidences[h];
+							if (best < 0 || score > bestScore) {
+								best = h;
+								bestResult = result;
+								bestScore = score;
+							}
+						}
+						
+						if (best < 0) {
+							continue;
+						}
+						
+						if (patternAction.priority == Double.POSITIVE_INFINITY) {
+							Object previousInput = inputs[best];
+							Object nextInput = runInputAction(
+								patternAction.action,
+								previousInput,
+								bestResult,
+								getScoredDetails(hypothesisDetails[best], patternAction.priority)
+							);
+							if (nextInput == null) {
+								// done
+								return true;
+							}
+							
+							// next called!
+							matching.clear();
+							if (!nextInput.is(previousInput)) {
+								// next(input): look up the remaining actions again
+								inputs[best] = nextInput;
+								candidates[best] = table.getCandidates(nextInput);
+								positions[best] = nextCandidate(candidates[best], index);
+							}
+						} else {
+							matching.add(
+								patternAction.action,
+								inputs[best],
+								bestResult,
+								bestScore,
+								getScoredDetails(hypothesisDetails[best], bestScore)
+							);
+						}
+					}
+				}
 			}
-			if (nextInput == null) {
-				return true;
+			finally {
+				focusAgentInstance = null;
 			}
 			
-			// next() => only consider following items
-			matching = matching.subList(index+1, matching.size());
+			// we didn't find a score=inf rule that didn't call next() yet
+			return runRankedCandidates(matching);
 		}
-		
-		return false;
+		finally {
+			releaseRankedCandidates(matching);
+		}
+	}
+	
+	private static int mostConfident(double[] confidences) {
+		int best = 0;
+		for (int i = 1; i < confidences.length; i++) {
+			if (confidences[i] > confidences[best]) {
+				best = i;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @return
+	 *   the position of the first candidate after index
+	 */
+	private static int nextCandidate(int[] candidates, int index) {
+		int position = Arrays.binarySearch(candidates, index + 1);
+		return (position >= 0) ? position : -position - 1;
 	}
 	
 	@TypeChecked(TypeCheckingMode.SKIP)
 	private boolean handleInternalMessage(DialogEngine sender, Object message) {
-		List matching = new ArrayList();
-		
-		for (AgentInstance agent : agentStack) {
-			for (PatternAction patternAction : agent.getIntercomActions()) {
-				Object result = patternAction.matches(message, sender.user);
-				if (result != null) {
-					if (patternAction.priority == Double.POSITIVE_INFINITY) {
-						message = runInputAction(patternAction.action, message, result);
-						if (message == null) {
-							return true;
+		RankedCandidates matching = acquireRankedCandidates();
+		try {
+			for (AgentInstance agent : agentStack) {
+				for (PatternAction patternAction : agent.getIntercomActions()) {
+					Object result = patternAction.matches(message, sender.user);
+					if (result != null) {
+						if (patternAction.priority == Double.POSITIVE_INFINITY) {
+							message = runInputAction(patternAction.action, message, result);
+							if (message == null) {
+								return true;
+							} else {
+								matching.clear();
+							}
 						} else {
-							matching.clear();
+							matching.add(patternAction.action, message, result, patternAction.priority);
 						}
-					} else {
-						matching.add(scored([ patternAction.action, message, result ], patternAction.priority));
 					}
 				}
 			}
-		}
-		
-		// we didn't find a score=inf rule that didn't call next() yet
-		while (!matching.isEmpty()) {
-			// ...but we still have something that matched!
-			// => select the item with the highest score
-			def scores = matching.collect({ it.score });
-			def index = scores.indexOf(scores.max())
-			def best = matching[index]
 			
-			def nextInput = runInputAction(*best);
-			if (nextInput != best[1]) {
-				throw new RuntimeException("next with argument is not yet implemented for rules with finite priority.");
-			}
-			if (nextInput == null) {
-				return true;
-			}
-			
-			// next() => only consider following items
-			matching = matching.subList(index+1, matching.size());
+			// we didn't find a score=inf rule that didn't call next() yet
+			return runRankedCandidates(matching);
+		}
+		finally {
+			releaseRankedCandidates(matching);
 		}
-		
-		return false;
 	}
 	
 	@TypeChecked(TypeCheckingMode.SKIP)
 	@Override
 	public boolean triggerNamedReaction(String id, Object... arguments) {
-		if (
-			dialogEngine.getSession().executorThread != null &&
-			dialogEngine.getSession().executorThread != Thread.currentThread()
-		) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
 			logger.warn("triggerNamedReaction invoked outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
@@ -615,7 +1200,11 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 	/*-----------------------------------------------------------------------------*/
 	/* world state listeners                                                       */
 	/*-----------------------------------------------------------------------------*/
-	private WorldObjectWrapper getWorldObjectWrapper(WorldObject worldObject) {
+	/**
+	 * Wrappers are cached, so scripts get the same wrapper
+	 * for an object every time.
+	 */
+	WorldObjectWrapper getWorldObjectWrapper(WorldObject worldObject) {
 		WorldObjectWrapper wrapper = worldObjectWrappers.get(worldObject);
 		if (wrapper == null) {
 			wrapper = new WorldObjectWrapper(worldObject, dialogEngine);
@@ -623,22 +1212,41 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		}
 		
 		return wrapper;
-	} 
+	}
+	
+	/**
+	 * Like getWorldObjectWrapper, but the wrapper is only
+	 * cached if keep returns true for it. Used for scans
+	 * (objects { ... }), so the filter does not leave a
+	 * cached wrapper behind for every object in the world
+	 * (a cached wrapper also makes mayReactToDeleted true).
+	 */
+	WorldObjectWrapper getWorldObjectWrapperIf(WorldObject worldObject, Closure keep) {
+		WorldObjectWrapper wrapper = worldObjectWrappers.get(worldObject);
+		if (wrapper != null) {
+			return keep.call(wrapper) ? wrapper : null;
+		}
+		
+		wrapper = new WorldObjectWrapper(worldObject, dialogEngine);
+		if (!keep.call(wrapper)) {
+			return null;
+		}
+		
+		worldObjectWrappers.put(worldObject, wrapper);
+		return wrapper;
+	}
 	
 	@Override
 	@TypeChecked(TypeCheckingMode.SKIP)
 	public void objectAdded(WorldObject object) {
-		if (
-			dialogEngine.getSession().executorThread != null &&
-			dialogEngine.getSession().executorThread != Thread.currentThread()
-		) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
 			logger.warn("objectAdded invoked outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
 		try {
 			def wrapper = getWorldObjectWrapper(object);
 			for (AgentInstance agent : agentStack) {
-				agent.triggerObjectAddedReactions(wrapper);
+				agent.triggerObjectAddedReactions(object, wrapper);
 			}
 		}
 		catch (Exception e) {
@@ -651,21 +1259,15 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 	
 	@Override
 	@TypeChecked(TypeCheckingMode.SKIP)
-	public void objectModified(WorldObject object, Map<String,Object> oldProperties) {
-		if (
-			dialogEngine.getSession().executorThread != null &&
-			dialogEngine.getSession().executorThread != Thread.currentThread()
-		) {
+	public void objectModified(ObjectChange change) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
 			logger.warn("objectModified invoked outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
 		try {
-			def wrapper = getWorldObjectWrapper(object);
-			Map<String,Object> newProperties = object.getPropertiesWithInternalNames();
+			def wrapper = getWorldObjectWrapper(change.getObject());
 			for (AgentInstance agent : agentStack) {
-				agent.triggerObjectModifiedReactions(
-					oldProperties, newProperties, wrapper
-				);
+				agent.triggerObjectModifiedReactions(change, wrapper);
 			}
 		}
 		catch (Exception e) {
@@ -676,21 +1278,30 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		}
 	}
 	
+	/**
+	 * Runs the objectModified reactions for a change
+	 * that has not been announced by the WorldState.
+	 */
+	public void objectModified(WorldObject object, Map<String,Object> oldProperties) {
+		objectModified(new ObjectChange(object, oldProperties));
+	}
+	
 	@Override
 	@TypeChecked(TypeCheckingMode.SKIP)
 	public void objectDeleted(WorldObject object) {
-		if (
-			dialogEngine.getSession().executorThread != null &&
-			dialogEngine.getSession().executorThread != Thread.currentThread()
-		) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
 			logger.warn("objectDeleted invoked outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
 		try {
 			def wrapper = getWorldObjectWrapper(object);
 			for (AgentInstance agent : agentStack) {
-				agent.triggerObjectDeletedReactions(wrapper);
+				agent.triggerObjectDeletedReactions(object, wrapper);
 			}
+			
+			// the wrapper references the object, so the weak
+			// map would never drop it
+			worldObjectWrappers.remove(object);
 		}
 		catch (Exception e) {
 			logger.error(e);
@@ -703,10 +1314,7 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 	@Override
 	@TypeChecked(TypeCheckingMode.SKIP)
 	public void environmentModified(String key, String value) {
-		if (
-			dialogEngine.getSession().executorThread != null &&
-			dialogEngine.getSession().executorThread != Thread.currentThread()
-		) {
+		if (!dialogEngine.getSession().isOnSessionThread()) {
 			logger.warn("environmentModified invoked outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
@@ -723,6 +1331,53 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		}
 	}
 	
+	/**
+	 * Used by the DialogEngine to tell the WorldState whether
+	 * to send it an event at all: false if no reaction of any
+	 * agent on the stack can match (judging by object id, type
+	 * and changed properties only, no filters are run).
+	 */
+	public boolean mayReactToAdded(WorldObject object) {
+		for (AgentInstance agent : agentStack) {
+			if (agent.mayReactToAdded(object)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean mayReactToModified(ObjectChange change) {
+		for (AgentInstance agent : agentStack) {
+			if (agent.mayReactToModified(change)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean mayReactToDeleted(WorldObject object) {
+		// the wrapper has to be dropped in objectDeleted
+		if (worldObjectWrappers.containsKey(object)) {
+			return true;
+		}
+		
+		for (AgentInstance agent : agentStack) {
+			if (agent.mayReactToDeleted(object)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public boolean mayReactToEnvironment(String key) {
+		for (AgentInstance agent : agentStack) {
+			if (agent.mayReactToEnvironment(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
 	@Override
 	@TypeChecked(TypeCheckingMode.SKIP)
 	public void sessionActiveChanged(boolean active) {
@@ -735,7 +1390,7 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 		
 		if (active) {
 			logger.debug("Session activated.");
-			idleManager.start();
+			idleTimer.start();
 			
 			//triggerNamedReaction(NAMED_REACTION_STARTED);
 			
@@ -772,7 +1427,7 @@ public class ScriptAdapter implements AddListener, ModifyListener, DeleteListene
 			
 		} else {
 			logger.debug("Session paused.");
-			idleManager.pause();
+			idleTimer.pause();
 			//triggerNamedReaction(NAMED_REACTION_STOPPED);
 		}
 	}
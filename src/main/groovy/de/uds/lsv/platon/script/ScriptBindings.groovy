@@ -35,6 +35,7 @@ import de.uds.lsv.platon.action.VerbalOutputAction
 import de.uds.lsv.platon.script.ScriptAdapter.UnknownIdentifier
 import de.uds.lsv.platon.session.DialogEngine
 import de.uds.lsv.platon.session.User
+import de.uds.lsv.platon.world.WorldClass
 import de.uds.lsv.platon.world.WorldObject
 
 @TypeChecked
@@ -177,26 +178,29 @@ class ScriptBindings {
 		
 		logger.debug("Adding idle task, ${duration}, once=${!scriptAdapter.initializing}.")
 		if (scriptAdapter.initializing) {
-			scriptAdapter.idleManager.add(duration.toMilliseconds(), closure);
+			scriptAdapter.idleTimer.add(duration.toMilliseconds(), closure);
 			return null;
 		} else {
 			AgentInstance agentInstance = scriptAdapter.agentStack.getActiveAgentInstance();
-			CancellableJob job = new CancellableJob(new AgentCallable(
-				agentInstance,
-				{
-					try {
-						closure();
+			Cancellable[] timer = [ null ];
+			CancellableJob job = new CancellableJob(
+				new AgentCallable(
+					agentInstance,
+					{
+						try {
+							closure();
+						}
+						catch (Exception e) {
+							logger.error(e);
+							throw scriptAdapter.exceptionMapper.translateException(e);
+						}
 					}
-					catch (Exception e) {
-						logger.error(e);
-						throw scriptAdapter.exceptionMapper.translateException(e);
-					}
-				}
-			));
-			scriptAdapter.idleManager.addOnce(
+				),
+				{ timer[0]?.cancel() }
+			);
+			timer[0] = scriptAdapter.idleTimer.addOnce(
 				duration.toMilliseconds(),
-				job,
-				true
+				job
 			);
 			return job;
 		}
@@ -332,11 +336,10 @@ class ScriptBindings {
 	}
 	
 	public void objectModified(Closure stateFilter, Closure action) {
-		if (stateFilter.getMaximumNumberOfParameters() != 2) {
-			throw new IllegalArgumentException("objectModified expects a closure accepting two arguments.");
-		}
-		
-		objectModified(stateFilter, null, action);
+		checkStateFilter(stateFilter);
+		addObjectModifiedReaction(
+			new WorldReaction(null, null, null, null, null, stateFilter, action)
+		);
 	}
 	
 	public void objectModified(Object fromObjectState, Closure toObjectState, Closure action) {
@@ -344,61 +347,174 @@ class ScriptBindings {
 			throw new IllegalArgumentException("Invalid fromObjectState filter: " + fromObjectState);
 		}
 		
+		WorldReaction reaction;
 		if (fromObjectState instanceof String) {
-			final String id = (String)fromObjectState;
-			fromObjectState = { id.equals(it[WorldObject.FIELD_ID]) };
+			reaction = new WorldReaction((String)fromObjectState, null, null, null, toObjectState, null, action);
+		} else if (toObjectState == null) {
+			checkStateFilter((Closure)fromObjectState);
+			reaction = new WorldReaction(null, null, null, null, null, (Closure)fromObjectState, action);
+		} else {
+			reaction = new WorldReaction(null, null, null, (Closure)fromObjectState, toObjectState, null, action);
+		}
+		
+		addObjectModifiedReaction(reaction);
+	}
+	
+	/**
+	 * objectModified(type: 'Door', id: 'door1', changed: [ 'isOpen' ]) { ... }
+	 * All criteria are optional.
+	 */
+	public void objectModified(Map criteria, Closure action) {
+		objectModified(criteria, null, action);
+	}
+	
+	/**
+	 * @param stateFilter
+	 *   like in objectModified(stateFilter, action),
+	 *   only called for objects matching the criteria
+	 */
+	public void objectModified(Map criteria, Closure stateFilter, Closure action) {
+		if (stateFilter != null) {
+			checkStateFilter(stateFilter);
 		}
 		
+		addObjectModifiedReaction(
+			createWorldReaction("objectModified", criteria, true, null, stateFilter, action)
+		);
+	}
+	
+	private void checkStateFilter(Closure stateFilter) {
+		int parameters = stateFilter.getMaximumNumberOfParameters();
+		if (parameters < 2 || parameters > 3) {
+			throw new IllegalArgumentException("objectModified expects a closure accepting two (old and new properties) or three (plus the ObjectChange) arguments.");
+		}
+	}
+	
+	private void addObjectModifiedReaction(WorldReaction reaction) {
 		logger.debug(String.format(
-			"Adding %sobjectModified reaction for %s%s%s",
+			"Adding %sobjectModified reaction %s%s",
 			scriptAdapter.initializing ? "" : "one-time ",
-			fromObjectState,
-			toObjectState == null ? "" : " -> " + toObjectState,
+			reaction,
 			scriptAdapter.initializing ? " to agent ${agentUnderConstruction}" : ""
 		));
 		
 		ReactionAgent agent = scriptAdapter.initializing ? agentUnderConstruction : scriptAdapter.agentStack.getActiveAgentInstance();
-		agent.addObjectModifiedReaction((Closure)fromObjectState, toObjectState, action);
+		agent.addObjectModifiedReaction(reaction);
 	}
 
 	public void objectAdded(Object filter, Closure action) {
-		if (!(filter instanceof Closure || filter instanceof String)) {
-			throw new IllegalArgumentException("Invalid filter: " + filter);
-		}
-		
+		addObjectAddedReaction(createWorldReaction(filter, action));
+	}
+	
+	/**
+	 * objectAdded(type: 'Door') { ... }
+	 */
+	public void objectAdded(Map criteria, Closure action) {
+		objectAdded(criteria, null, action);
+	}
+	
+	public void objectAdded(Map criteria, Closure filter, Closure action) {
+		addObjectAddedReaction(
+			createWorldReaction("objectAdded", criteria, false, filter, null, action)
+		);
+	}
+	
+	private void addObjectAddedReaction(WorldReaction reaction) {
 		logger.debug(String.format(
-			"Adding %sobjectAdded reaction for %s%s",
+			"Adding %sobjectAdded reaction %s%s",
 			scriptAdapter.initializing ? "" : "one-time ",
-			filter,
+			reaction,
 			scriptAdapter.initializing ? " to agent ${agentUnderConstruction}" : ""
 		));
-		
-		if (filter instanceof String) {
-			final String id = (String)filter;
-			filter = { id.equals(it[WorldObject.FIELD_ID]) };
-		}
 	
 		ReactionAgent agent = scriptAdapter.initializing ? agentUnderConstruction : scriptAdapter.agentStack.getActiveAgentInstance();
-		agent.addObjectAddedReaction((Closure)filter, action);
+		agent.addObjectAddedReaction(reaction);
 	}
 	
 	public void objectDeleted(Object filter, Closure action) {
-		if (!(filter instanceof Closure || filter instanceof String)) {
-			throw new IllegalArgumentException("Invalid filter: " + filter);
-		}
-		
+		addObjectDeletedReaction(createWorldReaction(filter, action));
+	}
+	
+	/**
+	 * objectDeleted(type: 'Door') { ... }
+	 */
+	public void objectDeleted(Map criteria, Closure action) {
+		objectDeleted(criteria, null, action);
+	}
+	
+	public void objectDeleted(Map criteria, Closure filter, Closure action) {
+		addObjectDeletedReaction(
+			createWorldReaction("objectDeleted", criteria, false, filter, null, action)
+		);
+	}
+	
+	private void addObjectDeletedReaction(WorldReaction reaction) {
 		logger.debug(String.format(
-			"Adding objectDeleted reaction for %s to agent %s",
-			filter, agentUnderConstruction
+			"Adding objectDeleted reaction %s to agent %s",
+			reaction, agentUnderConstruction
 		));
+		
+		ReactionAgent agent = scriptAdapter.initializing ? agentUnderConstruction : scriptAdapter.agentStack.getActiveAgentInstance();
+		agent.addObjectDeletedReaction(reaction);
+	}
 	
+	/**
+	 * objectAdded/objectDeleted reaction for an object id
+	 * or a filter closure.
+	 */
+	private static WorldReaction createWorldReaction(Object filter, Closure action) {
 		if (filter instanceof String) {
-			final String id = (String)filter;
-			filter = { id.equals(it[WorldObject.FIELD_ID]) };
+			return new WorldReaction((String)filter, null, null, action);
+		} else if (filter instanceof Closure) {
+			return new WorldReaction(null, null, (Closure)filter, action);
+		} else {
+			throw new IllegalArgumentException("Invalid filter: " + filter);
+		}
+	}
+	
+	/**
+	 * @param criteria
+	 *   id (String), type (String or @WorldClass class) and,
+	 *   if allowChanged, changed (a property name or a
+	 *   collection of property names)
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	private static WorldReaction createWorldReaction(
+		String name,
+		Map criteria,
+		boolean allowChanged,
+		Closure filter,
+		Closure stateFilter,
+		Closure action
+	) {
+		for (key in criteria.keySet()) {
+			if (!(key in [ "id", "type" ] || (allowChanged && key == "changed"))) {
+				throw new IllegalArgumentException("Unknown ${name} criterion: ${key}");
+			}
 		}
 		
-		ReactionAgent agent = scriptAdapter.initializing ? agentUnderConstruction : scriptAdapter.agentStack.getActiveAgentInstance();
-		agent.addObjectDeletedReaction((Closure)filter, action);
+		String id = criteria["id"]?.toString();
+		
+		def type = criteria["type"];
+		if (type instanceof Class) {
+			WorldClass worldClass = ((Class)type).getAnnotation(WorldClass.class);
+			if (worldClass == null) {
+				throw new IllegalArgumentException("Not a world class: ${type}");
+			}
+			type = worldClass.value();
+		}
+		
+		Set<String> changed = null;
+		def changedCriterion = criteria["changed"];
+		if (changedCriterion != null) {
+			changed = new HashSet<>();
+			for (property in (changedCriterion instanceof Collection ? changedCriterion : [ changedCriterion ])) {
+				// ObjectChange uses internal names
+				changed.add(property == WorldObject.FIELD_TYPE ? "type" : property.toString());
+			}
+		}
+		
+		return new WorldReaction(id, type?.toString(), changed, filter, null, stateFilter, action);
 	}
 	
 	public void environmentModified(String key, Object value, Closure action) {
@@ -493,9 +609,60 @@ class ScriptBindings {
 			throw new IllegalArgumentException("filter cannot be null!");
 		}
 		
-		return scriptAdapter.dialogEngine.session.getWorldState().getObjects().values().collect({
-			object -> new WorldObjectWrapper(object, scriptAdapter.dialogEngine)
-		}).findAll(filter);
+		return filterObjects(scriptAdapter.dialogEngine.session.getWorldState().getObjects().values(), filter);
+	}
+	
+	private List<WorldObjectWrapper> filterObjects(Collection<WorldObject> objects, Closure filter) {
+		List<WorldObjectWrapper> result = [];
+		for (WorldObject object : objects) {
+			WorldObjectWrapper wrapper = scriptAdapter.getWorldObjectWrapperIf(object, filter);
+			if (wrapper != null) {
+				result.add(wrapper);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * objects(type: Door.TYPE, roomId: room)
+	 * objects(type: Door.TYPE) { it.open }
+	 * 
+	 * Declarative query: properties are compared by their
+	 * string values (see WorldState.findObjects), and the
+	 * world state looks up the candidates by id, type or an
+	 * indexed property (Config.worldIndexedProperties).
+	 * The closure, if any, is only run for those.
+	 */
+	public Collection<WorldObjectWrapper> objects(Map<String,Object> query, Closure filter=null) {
+		if (scriptAdapter.initializing) {
+			throw new IllegalStateException("You cannot use 'objects' as a top-level statement.");
+		}
+		
+		Map<String,String> properties = new HashMap<>();
+		for (Map.Entry<String,Object> entry : query.entrySet()) {
+			if (entry.getValue() == null) {
+				throw new IllegalArgumentException("Query value for »${entry.getKey()}« cannot be null!");
+			}
+			
+			String key = entry.getKey();
+			if ("type".equals(key)) {
+				key = WorldObject.FIELD_TYPE;
+			}
+			properties.put(key, entry.getValue().toString());
+		}
+		
+		Collection<WorldObject> candidates = scriptAdapter.dialogEngine.session.getWorldState().findObjects(properties);
+		if (filter != null) {
+			return filterObjects(candidates, filter);
+		}
+		
+		List<WorldObjectWrapper> result = [];
+		for (WorldObject object : candidates) {
+			result.add(scriptAdapter.getWorldObjectWrapper(object));
+		}
+		
+		return result;
 	}
 	
 	/**
@@ -514,15 +681,15 @@ class ScriptBindings {
 		}
 		
 		def originalFilter = filter;
-		if (filter instanceof String) {
-			String objectId = filter;
-			filter = { it.id == objectId };
-		} else if (filter instanceof GString) {
-			String objectId = filter.toString();
-			filter = { it.id == objectId };
+		def allObjects;
+		if (filter instanceof String || filter instanceof GString) {
+			// direct lookup
+			WorldObject object = scriptAdapter.dialogEngine.session.getWorldState().getObject(filter.toString());
+			allObjects = (object == null) ? [] : [ scriptAdapter.getWorldObjectWrapper(object) ];
+		} else {
+			allObjects = objects(filter);
 		}
 		
-		def allObjects = objects(filter);
 		if (allObjects.isEmpty()) {
 			System.err.println("Object filter yielded no results: " + originalFilter);
 			System.err.println("Existing objects:");
@@ -591,12 +758,22 @@ class ScriptBindings {
 		throw new NextThrowable(nextInput);
 	}
 	
-	public void prepareInput(Closure closure) {
+	/**
+	 * prepareInput { input -> ... }
+	 * prepareInput(pure: true) { input, details -> ... }
+	 * 
+	 * A pure stage only depends on its arguments, so its
+	 * results can be cached (see PreparedInputCache).
+	 */
+	public void prepareInput(Map<String,Object> options=[:], Closure closure) {
 		if (!scriptAdapter.initializing) {
 			throw new IllegalStateException("You can use 'prepareInput' only as a top-level statement.");
 		}
 		
-		scriptAdapter.prepareInput.add(closure);
+		scriptAdapter.prepareInput.add(new ScriptAdapter.PrepareInputStage(
+			closure,
+			Boolean.TRUE.equals(options.get("pure"))
+		));
 	}
 	
 	public void init(Closure closure) {
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import groovy.lang.Closure;
+import groovy.time.TimeDuration;
+
+/**
+ * Time DSL for dialog scripts, e.g.
+ *   after 3.seconds { ... }
+ *   idle(2.minutes) { ... }
+ *   
+ * This is a Groovy extension module (see
+ * META-INF/services/org.codehaus.groovy.runtime.ExtensionModule),
+ * so the methods are installed once per JVM and Integer keeps
+ * its default meta class.
+ * 
+ * @author mgropp
+ */
+public class TimeExtension {
+	private TimeExtension() {
+	}
+	
+	public static TimeDurationWithClosure millisecond(Integer self, Closure<?> closure) {
+		return new TimeDurationWithClosure(0, 0, 0, self, closure);
+	}
+	
+	public static TimeDuration getMillisecond(Integer self) {
+		return new TimeDuration(0, 0, 0, self);
+	}
+	
+	public static TimeDurationWithClosure second(Integer self, Closure<?> closure) {
+		return new TimeDurationWithClosure(0, 0, self, 0, closure);
+	}
+	
+	public static TimeDuration getSecond(Integer self) {
+		return new TimeDuration(0, 0, self, 0);
+	}
+	
+	public static TimeDurationWithClosure minute(Integer self, Closure<?> closure) {
+		return new TimeDurationWithClosure(0, self, 0, 0, closure);
+	}
+	
+	public static TimeDuration getMinute(Integer self) {
+		return new TimeDuration(0, self, 0, 0);
+	}
+	
+	public static TimeDurationWithClosure hour(Integer self, Closure<?> closure) {
+		return new TimeDurationWithClosure(self, 0, 0, 0, closure);
+	}
+	
+	public static TimeDuration getHour(Integer self) {
+		return new TimeDuration(self, 0, 0, 0);
+	}
+	
+	public static TimeDurationWithClosure milliseconds(Integer self, Closure<?> closure) {
+		return millisecond(self, closure);
+	}
+	
+	public static TimeDuration getMilliseconds(Integer self) {
+		return getMillisecond(self);
+	}
+	
+	public static TimeDurationWithClosure seconds(Integer self, Closure<?> closure) {
+		return second(self, closure);
+	}
+	
+	public static TimeDuration getSeconds(Integer self) {
+		return getSecond(self);
+	}
+	
+	public static TimeDurationWithClosure minutes(Integer self, Closure<?> closure) {
+		return minute(self, closure);
+	}
+	
+	public static TimeDuration getMinutes(Integer self) {
+		return getMinute(self);
+	}
+	
+	public static TimeDurationWithClosure hours(Integer self, Closure<?> closure) {
+		return hour(self, closure);
+	}
+	
+	public static TimeDuration getHours(Integer self) {
+		return getHour(self);
+	}
+}
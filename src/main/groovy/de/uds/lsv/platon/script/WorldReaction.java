@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import groovy.lang.Closure;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
+
+import de.uds.lsv.platon.world.ObjectChange;
+
+/**
+ * An objectAdded, objectModified or objectDeleted reaction.
+ *
+ * The declarative part (object id, type and, for modifications,
+ * the changed properties) is checked by mayMatch without calling
+ * any script code, and is what WorldReactionIndex indexes by.
+ * The filter closures are only called for reactions that pass
+ * mayMatch.
+ *
+ * @author mgropp
+ */
+public class WorldReaction {
+	private static final AtomicLong nextSequence = new AtomicLong(0);
+	
+	/** definition order, across all indexes */
+	final long sequence = nextSequence.getAndIncrement();
+	
+	private final String id;
+	private final String type;
+	/** internal property names (see ObjectChange) */
+	private final Set<String> changed;
+	
+	/** added/deleted: the object, modified: the old properties */
+	private final Closure<?> filter;
+	/** modified: the new properties [, the change] */
+	private final Closure<?> toFilter;
+	/** modified: the old and new properties [, the change] */
+	private final Closure<?> changeFilter;
+	
+	private final Closure<?> action;
+	
+	/**
+	 * @param id
+	 *   object id, or null for any object
+	 * @param type
+	 *   object type, or null for any type
+	 * @param changed
+	 *   internal names of properties of which at least
+	 *   one has to change, or null for any modification;
+	 *   only used for objectModified reactions
+	 */
+	public WorldReaction(
+		String id,
+		String type,
+		Set<String> changed,
+		Closure<?> filter,
+		Closure<?> toFilter,
+		Closure<?> changeFilter,
+		Closure<?> action
+	) {
+		this.id = id;
+		this.type = type;
+		this.changed = (changed == null) ? null : Collections.unmodifiableSet(changed);
+		this.filter = filter;
+		this.toFilter = toFilter;
+		this.changeFilter = changeFilter;
+		this.action = action;
+	}
+	
+	/**
+	 * A reaction to added or deleted objects.
+	 */
+	public WorldReaction(String id, String type, Closure<?> filter, Closure<?> action) {
+		this(id, type, null, filter, null, null, action);
+	}
+	
+	public String getId() {
+		return id;
+	}
+	
+	public String getType() {
+		return type;
+	}
+	
+	public Set<String> getChanged() {
+		return changed;
+	}
+	
+	public Closure<?> getAction() {
+		return action;
+	}
+	
+	/**
+	 * @param changedProperties
+	 *   the changed properties for modifications,
+	 *   null otherwise
+	 * @return
+	 *   false if the reaction can't match an event
+	 *   for this object
+	 */
+	public boolean mayMatch(String objectId, String objectType, Set<String> changedProperties) {
+		if (id != null && !id.equals(objectId)) {
+			return false;
+		}
+		
+		if (type != null && !type.equals(objectType)) {
+			return false;
+		}
+		
+		if (changed != null && changedProperties != null) {
+			for (String property : changed) {
+				if (changedProperties.contains(property)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Runs the filter of an objectAdded or
+	 * objectDeleted reaction.
+	 */
+	public boolean matches(Object object) {
+		return filter == null || isTrue(filter.call(object));
+	}
+	
+	/**
+	 * Runs the filters of an objectModified reaction.
+	 * Filters get the old and/or new properties and,
+	 * if they accept one more argument, the ObjectChange.
+	 */
+	public boolean matches(ObjectChange change) {
+		if (changeFilter != null) {
+			boolean result = (changeFilter.getMaximumNumberOfParameters() > 2) ?
+				isTrue(changeFilter.call(change.getOldProperties(), change.getNewProperties(), change)) :
+				isTrue(changeFilter.call(change.getOldProperties(), change.getNewProperties()));
+			if (!result) {
+				return false;
+			}
+		}
+		
+		if (filter != null && !isTrue(filter.call(change.getOldProperties()))) {
+			return false;
+		}
+		
+		if (toFilter != null) {
+			return (toFilter.getMaximumNumberOfParameters() > 1) ?
+				isTrue(toFilter.call(change.getNewProperties(), change)) :
+				isTrue(toFilter.call(change.getNewProperties()));
+		}
+		
+		return true;
+	}
+	
+	private static boolean isTrue(Object value) {
+		return DefaultTypeTransformation.castToBoolean(value);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[WorldReaction");
+		if (id != null) {
+			sb.append(" id=").append(id);
+		}
+		if (type != null) {
+			sb.append(" type=").append(type);
+		}
+		if (changed != null) {
+			sb.append(" changed=").append(changed);
+		}
+		for (Closure<?> closure : new Closure<?>[] { filter, toFilter, changeFilter }) {
+			if (closure != null) {
+				sb.append(' ').append(closure);
+			}
+		}
+		sb.append(" => ").append(action).append(']');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The world reactions of one kind (added, modified or deleted)
+ * of an agent or agent instance, indexed by object id and type.
+ *
+ * getCandidates returns (in definition order) the reactions
+ * whose declarative part matches the event; the caller still
+ * has to run WorldReaction.matches on them. Reactions that
+ * don't name an id or a type are always looked at.
+ *
+ * @author mgropp
+ */
+public class WorldReactionIndex {
+	private static final Comparator<WorldReaction> DEFINITION_ORDER = new Comparator<WorldReaction>() {
+		@Override
+		public int compare(WorldReaction a, WorldReaction b) {
+			return Long.compare(a.sequence, b.sequence);
+		}
+	};
+	
+	private final Map<String,List<WorldReaction>> byId = new HashMap<>();
+	private final Map<String,List<WorldReaction>> byType = new HashMap<>();
+	private final List<WorldReaction> unindexed = new ArrayList<>();
+	private int size = 0;
+	
+	public void add(WorldReaction reaction) {
+		if (reaction.getId() != null) {
+			add(byId, reaction.getId(), reaction);
+		} else if (reaction.getType() != null) {
+			add(byType, reaction.getType(), reaction);
+		} else {
+			unindexed.add(reaction);
+		}
+		size++;
+	}
+	
+	public void addAll(WorldReactionIndex index) {
+		List<WorldReaction> reactions = new ArrayList<>(index.size);
+		for (List<WorldReaction> list : index.byId.values()) {
+			reactions.addAll(list);
+		}
+		for (List<WorldReaction> list : index.byType.values()) {
+			reactions.addAll(list);
+		}
+		reactions.addAll(index.unindexed);
+		Collections.sort(reactions, DEFINITION_ORDER);
+		
+		for (WorldReaction reaction : reactions) {
+			add(reaction);
+		}
+	}
+	
+	public boolean remove(WorldReaction reaction) {
+		boolean removed;
+		if (reaction.getId() != null) {
+			removed = remove(byId, reaction.getId(), reaction);
+		} else if (reaction.getType() != null) {
+			removed = remove(byType, reaction.getType(), reaction);
+		} else {
+			removed = unindexed.remove(reaction);
+		}
+		
+		if (removed) {
+			size--;
+		}
+		return removed;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param changedProperties
+	 *   the changed properties for modifications,
+	 *   null otherwise
+	 * @return
+	 *   a new list of the reactions that may match,
+	 *   in definition order
+	 */
+	public List<WorldReaction> getCandidates(String id, String type, Set<String> changedProperties) {
+		if (size == 0) {
+			return Collections.emptyList();
+		}
+		
+		List<WorldReaction> candidates = new ArrayList<>();
+		int sources = 0;
+		sources += addCandidates(candidates, byId.get(id), id, type, changedProperties);
+		sources += addCandidates(candidates, byType.get(type), id, type, changedProperties);
+		sources += addCandidates(candidates, unindexed, id, type, changedProperties);
+		
+		if (sources > 1) {
+			Collections.sort(candidates, DEFINITION_ORDER);
+		}
+		
+		return candidates;
+	}
+	
+	/**
+	 * @return
+	 *   true if any reaction may match the event
+	 *   (see getCandidates)
+	 */
+	public boolean mayMatch(String id, String type, Set<String> changedProperties) {
+		if (size == 0) {
+			return false;
+		}
+		
+		return
+			anyMayMatch(byId.get(id), id, type, changedProperties) ||
+			anyMayMatch(byType.get(type), id, type, changedProperties) ||
+			anyMayMatch(unindexed, id, type, changedProperties);
+	}
+	
+	private static int addCandidates(List<WorldReaction> candidates, List<WorldReaction> reactions, String id, String type, Set<String> changedProperties) {
+		if (reactions == null) {
+			return 0;
+		}
+		
+		int before = candidates.size();
+		for (WorldReaction reaction : reactions) {
+			if (reaction.mayMatch(id, type, changedProperties)) {
+				candidates.add(reaction);
+			}
+		}
+		
+		return (candidates.size() > before) ? 1 : 0;
+	}
+	
+	private static boolean anyMayMatch(List<WorldReaction> reactions, String id, String type, Set<String> changedProperties) {
+		if (reactions == null) {
+			return false;
+		}
+		
+		for (WorldReaction reaction : reactions) {
+			if (reaction.mayMatch(id, type, changedProperties)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static void add(Map<String,List<WorldReaction>> map, String key, WorldReaction reaction) {
+		List<WorldReaction> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<>(2);
+			map.put(key, list);
+		}
+		list.add(reaction);
+	}
+	
+	private static boolean remove(Map<String,List<WorldReaction>> map, String key, WorldReaction reaction) {
+		List<WorldReaction> list = map.get(key);
+		if (list == null || !list.remove(reaction)) {
+			return false;
+		}
+		
+		if (list.isEmpty()) {
+			map.remove(key);
+		}
+		return true;
+	}
+}
@@ -23,14 +23,18 @@ import de.martingropp.util.ReactionTrigger;
 import de.uds.lsv.platon.action.IOType
 import de.uds.lsv.platon.action.Action
 import de.uds.lsv.platon.action.ActionQueue
+import de.uds.lsv.platon.script.BroadcastMatchCache
+import de.uds.lsv.platon.script.PreparedInputCache
 import de.uds.lsv.platon.script.ScriptAdapter
+import de.uds.lsv.platon.world.ObjectChange
 import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState.AddListener
 import de.uds.lsv.platon.world.WorldState.DeleteListener
 import de.uds.lsv.platon.world.WorldState.EnvironmentListener
+import de.uds.lsv.platon.world.WorldState.InterestFilter
 import de.uds.lsv.platon.world.WorldState.ModifyListener
 
-public class DialogEngine implements Closeable, AddListener, ModifyListener, DeleteListener, EnvironmentListener, ReactionTrigger {
+public class DialogEngine implements Closeable, AddListener, ModifyListener, DeleteListener, EnvironmentListener, InterestFilter, ReactionTrigger {
 	private static final Log logger = LogFactory.getLog(DialogEngine.class.getName());
 
 	private ActionQueue actionQueue = new ActionQueue(this);
@@ -43,6 +47,23 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 	
 	public boolean terminated = false;
 	
+	/**
+	 * End of the last input (System.nanoTime()) that has not
+	 * been answered by an output yet, if responsePending.
+	 */
+	private long responsePendingSince;
+	private boolean responsePending = false;
+	/** whether that input was matched speculatively */
+	private boolean responseSpeculated = false;
+	
+	/**
+	 * Start of the current input (System.nanoTime()), for the
+	 * barge-in latency of the barge-in in inputComplete.
+	 * inputStarted is not called on the session thread.
+	 */
+	private volatile long inputStartedNanos;
+	private volatile boolean inputStartedKnown = false;
+	
 	/**
 	 * Create a new dialog engine.
 	 * 
@@ -98,11 +119,14 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 	}
 	
 	public void inputStarted(IOType type) {
+		long inputStartedNanos = System.nanoTime();
+		this.inputStartedNanos = inputStartedNanos;
+		inputStartedKnown = true;
 		user.speaking = true;
 		
 		if (session.config.ignoreGameInactive || session.isActive()) {
 			if (!Boolean.parseBoolean(session.worldState.getEnvironmentVariable("disableBargeIn", "false"))) {
-				actionQueue.bargeIn();
+				actionQueue.bargeIn(inputStartedNanos);
 			} else {
 				logger.debug("Barge in handling disabled.");
 			}
@@ -113,7 +137,25 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 		}
 	}
 	
-	public void inputComplete(IOType type, String text, Map<String,String> details) {
+	/**
+	 * Interim recognizer hypothesis: prepared and matched
+	 * speculatively (see ScriptAdapter.handlePartialInput).
+	 */
+	public void inputPartial(IOType type, String text, Map<String,String> details) {
+		if (session.config.ignoreGameInactive || session.isActive()) {
+			scriptAdapter.handlePartialInput(text, details);
+		}
+	}
+	
+	/**
+	 * @param inputCompleteNanos
+	 *   end of the input (System.nanoTime()), for the
+	 *   response latency statistics
+	 * @param broadcast
+	 *   for input without a speaker: shared with the other
+	 *   engines handling it, or null
+	 */
+	public void inputComplete(IOType type, String text, Map<String,String> details, long inputCompleteNanos=System.nanoTime(), BroadcastMatchCache broadcast=null) {
 		user.speaking = false;
 		
 		if (session.config.ignoreGameInactive || session.isActive()) {
@@ -128,10 +170,36 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 			// * processing of input2
 			// => no inputStarted could trigger a barge in
 			if (!Boolean.parseBoolean(session.worldState.getEnvironmentVariable("disableBargeIn", "false"))) {
-				actionQueue.bargeIn();
+				actionQueue.bargeIn(getInputStartedNanos(inputCompleteNanos));
+			}
+			
+			responsePendingSince = inputCompleteNanos;
+			responsePending = true;
+			responseSpeculated = scriptAdapter.isSpeculated(text, details);
+			scriptAdapter.handleInput(text, details, broadcast);
+		
+		} else {
+			logger.info("Game is not active -- ignoring inputComplete.");
+		}
+	}
+	
+	/**
+	 * N-best input: barge-in and matching happen once for
+	 * all hypotheses.
+	 */
+	public void inputComplete(IOType type, List<InputHypothesis> hypotheses, Map<String,String> details, long inputCompleteNanos=System.nanoTime(), BroadcastMatchCache broadcast=null) {
+		user.speaking = false;
+		
+		if (session.config.ignoreGameInactive || session.isActive()) {
+			// see above
+			if (!Boolean.parseBoolean(session.worldState.getEnvironmentVariable("disableBargeIn", "false"))) {
+				actionQueue.bargeIn(getInputStartedNanos(inputCompleteNanos));
 			}
 			
-			scriptAdapter.handleInput(text, details);
+			responsePendingSince = inputCompleteNanos;
+			responsePending = true;
+			responseSpeculated = false;
+			scriptAdapter.handleInput(hypotheses, details, broadcast);
 		
 		} else {
 			logger.info("Game is not active -- ignoring inputComplete.");
@@ -139,6 +207,39 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 	}
 	
 	public void inputAbandoned(IOType type) {
+		inputStartedKnown = false;
+		scriptAdapter.handleInputAbandoned();
+	}
+	
+	/**
+	 * Start of the input that is being completed, so an output
+	 * started while the user was speaking does not count as
+	 * aborted right away. Input without inputStarted (e.g. text)
+	 * starts when it completes.
+	 */
+	private long getInputStartedNanos(long inputCompleteNanos) {
+		if (!inputStartedKnown) {
+			return inputCompleteNanos;
+		}
+		
+		long nanos = inputStartedNanos;
+		inputStartedKnown = false;
+		return nanos;
+	}
+	
+	/**
+	 * Called when an output to the user has been started;
+	 * the first output after an input completes the
+	 * response latency measurement.
+	 */
+	public void outputStarted() {
+		if (responsePending) {
+			LatencyStatistics statistics = responseSpeculated ?
+				session.getSpeculativeResponseLatency() :
+				session.getResponseLatency();
+			statistics.addSince(responsePendingSince);
+			responsePending = false;
+		}
 	}
 
 	@Override
@@ -151,9 +252,9 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 	}
 	
 	@Override
-	public void objectModified(WorldObject object, Map<String,Object> oldState) {
+	public void objectModified(ObjectChange change) {
 		if (session.config.ignoreGameInactive || session.isActive()) {
-			scriptAdapter.objectModified(object, oldState);
+			scriptAdapter.objectModified(change);
 		} else {
 			logger.debug("Game is not active -- not running objectModified reactions.");
 		}
@@ -177,6 +278,26 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 		}
 	}
 	
+	@Override
+	public boolean mayReactToAdded(WorldObject object) {
+		return scriptAdapter.mayReactToAdded(object);
+	}
+	
+	@Override
+	public boolean mayReactToModified(ObjectChange change) {
+		return scriptAdapter.mayReactToModified(change);
+	}
+	
+	@Override
+	public boolean mayReactToDeleted(WorldObject object) {
+		return scriptAdapter.mayReactToDeleted(object);
+	}
+	
+	@Override
+	public boolean mayReactToEnvironment(String key) {
+		return scriptAdapter.mayReactToEnvironment(key);
+	}
+	
 	@Override
 	public void close() throws IOException {
 	}
@@ -205,6 +326,13 @@ public class DialogEngine implements Closeable, AddListener, ModifyListener, Del
 		return actionQueue.getQueue();
 	}
 	
+	/**
+	 * Cache for pure prepareInput stages (null if disabled).
+	 */
+	public PreparedInputCache getPreparedInputCache() {
+		return scriptAdapter.getPreparedInputCache();
+	}
+	
 	public void addHistoryItem(Action action) {
 		history.addFirst(action);
 		if (
@@ -21,9 +21,8 @@ import groovy.transform.TypeCheckingMode
 
 import java.util.Map.Entry
 import java.util.concurrent.Callable
-import java.util.concurrent.Executors
 import java.util.concurrent.Future
-import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.FutureTask
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.TimeUnit
 
@@ -31,12 +30,15 @@ import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
 import de.martingropp.util.ReactionMap
+import de.uds.lsv.platon.AsyncDialogClient
+import de.uds.lsv.platon.AsyncDialogClient.OutputRequest
 import de.uds.lsv.platon.DialogClient
 import de.uds.lsv.platon.DialogWorld
 import de.uds.lsv.platon.action.Action
 import de.uds.lsv.platon.action.IOType
 import de.uds.lsv.platon.action.VerbalInputAction
 import de.uds.lsv.platon.config.Config
+import de.uds.lsv.platon.script.BroadcastMatchCache
 import de.uds.lsv.platon.world.WorldState
 
 //@TypeChecked
@@ -63,8 +65,21 @@ public class DialogSession implements Closeable {
 	
 	ReactionMap pendingOutputReactions = new ReactionMap();
 	
-	ScheduledExecutorService executor;
-	Thread executorThread;
+	/**
+	 * outputs for the next outputStartBatch call
+	 * (AsyncDialogClient only; session thread only)
+	 */
+	private List<OutputRequest> pendingOutputStarts = null;
+	
+	/** inputStarted -> DialogClient.outputAbort (barge-in) */
+	final LatencyStatistics bargeInLatency = new LatencyStatistics("barge-in");
+	/** inputComplete -> first DialogClient.outputStart */
+	final LatencyStatistics responseLatency = new LatencyStatistics("response");
+	/** the same, for inputs matched speculatively (see inputPartial) */
+	final LatencyStatistics speculativeResponseLatency = new LatencyStatistics("speculative response");
+	
+	/** serial executor for all session tasks (see SessionScheduler) */
+	SessionStrand executor;
 	private volatile boolean executorIdle = false;
 
 	private boolean active = false;
@@ -86,6 +101,9 @@ public class DialogSession implements Closeable {
 		
 		logger.debug("Creating world state...");
 		this.worldState = new WorldState(this);
+		for (String property : config.worldIndexedProperties) {
+			worldState.addPropertyIndex(property);
+		}
 		
 		this.users = users;
 		
@@ -131,7 +149,12 @@ public class DialogSession implements Closeable {
 	private synchronized Future doSubmit(Closure closure) {
 		logger.debug("Submission to session executor: " + closure);
 		executorIdle = false;
-		return executor.submit({
+		return executor.submit(wrapTask(closure));
+	}
+	
+	@TypeChecked(TypeCheckingMode.SKIP)
+	private Callable wrapTask(Closure closure) {
+		return {
 			try {
 				closure()
 			}
@@ -144,7 +167,33 @@ public class DialogSession implements Closeable {
 				}
 				
 			}
-		} as Callable);
+		} as Callable;
+	}
+	
+	/**
+	 * Run a task on the executor thread before all
+	 * other queued tasks (e.g. to stop an output on
+	 * barge-in).
+	 */
+	public synchronized Future submitUrgent(Closure closure) {
+		logger.debug("Urgent submission to session executor: " + closure);
+		executorIdle = false;
+		FutureTask future = new FutureTask(wrapTask(closure));
+		executor.executeUrgent(future);
+		return future;
+	}
+	
+	/**
+	 * Run a task on the executor thread as soon as the
+	 * current turn of the session strand is over, so tasks
+	 * submitted during the turn can be handled together.
+	 */
+	public synchronized Future submitAtEndOfTurn(Closure closure) {
+		logger.debug("End-of-turn submission to session executor: " + closure);
+		executorIdle = false;
+		FutureTask future = new FutureTask(wrapTask(closure));
+		executor.executeAtEndOfTurn(future);
+		return future;
 	}
 	
 	/**
@@ -176,18 +225,26 @@ public class DialogSession implements Closeable {
 	/**
 	 * Submit a task to be executed on the executor thread,
 	 * at the next possible time.
+	 *
+	 * @return
+	 *   a future that is done once the task has run
 	 */
-	public void submit(Closure closure) {
-		doSubmit(closure);
+	public Future submit(Closure closure) {
+		return doSubmit(closure);
 	}
 	
 	/**
 	 * Run a task on the executor thread and wait for it to complete.
+	 *
+	 * @throws IllegalStateException
+	 *   if called from a task of another session on the same
+	 *   bounded scheduler (see SessionStrand.checkBlockingWait)
 	 */
 	public void submitAndWait(Closure closure) {
-		if (Thread.currentThread() == executorThread) {
+		if (isOnSessionThread()) {
 			closure();
 		} else {
+			executor.checkBlockingWait();
 			doSubmit(closure).get();
 		}
 	}
@@ -223,8 +280,7 @@ public class DialogSession implements Closeable {
 	}
 	
 	public boolean isOnSessionThread() {
-		// executorThread == null is for testing only
-		return (executorThread == null) || executorThread.equals(Thread.currentThread());
+		return executor.isRunningOnCurrentThread();
 	}
 	
 	/**
@@ -251,13 +307,17 @@ public class DialogSession implements Closeable {
 	}
 	
 	void startExecutor() {
-		logger.debug("Starting a new session executor.");
-		executor = Executors.newSingleThreadScheduledExecutor();
-		Future future = executor.submit({
-			executorThread = Thread.currentThread();
-			executorThread.setName("session-" + System.identityHashCode(this));
-		} as Callable);
-		future.get();
+		String name = "session-" + System.identityHashCode(this);
+		if (config?.sessionScheduler != null) {
+			logger.debug("Using shared session scheduler.");
+			executor = config.sessionScheduler.createStrand(name);
+		} else if (config?.virtualThreadSessions) {
+			logger.debug("Using virtual thread session scheduler.");
+			executor = SessionScheduler.getVirtualThreadScheduler().createStrand(name);
+		} else {
+			logger.debug("Starting a new session executor.");
+			executor = SessionScheduler.createDedicatedStrand(name);
+		}
 	}
 
 	/** Shutdown executor after all (non-scheduled) tasks have finished. */
@@ -280,7 +340,7 @@ public class DialogSession implements Closeable {
 	 * they will probably hang.
 	 */
 	public void shutdownExecutor() {
-		assert (executorThread != Thread.currentThread());
+		assert (!isOnSessionThread());
 		
 		logger.debug("Trying to shut down session executor.");
 		executor.submit(this.&waitForTasksAndShutdownExecutor);
@@ -308,16 +368,18 @@ public class DialogSession implements Closeable {
 	 * they will probably hang.
 	 */
 	public void waitForExecutorTasks(long timeoutMillis=60000) {
-		assert (executorThread != Thread.currentThread());
+		assert (!isOnSessionThread());
 		
 		Object receiver = new Object();
-		executor.submit({ doWaitForExecutorTasks(receiver) });
 		
 		// Correctly guarding against spurious wakeups is tricky here.
 		// (You have to make sure that watcher tasks don't wait for
 		// each other or that there is really only one watcher task.)
 		// Since this is just for testing: TODO
+		// Submitting while holding the lock keeps the watcher from
+		// notifying before we are waiting.
 		synchronized (receiver) {
+			executor.submit({ doWaitForExecutorTasks(receiver) });
 			receiver.wait(timeoutMillis);
 		}
 	}
@@ -360,6 +422,76 @@ public class DialogSession implements Closeable {
 		);
 	}
 	
+	/**
+	 * Like addOutputReaction(int, Closure), for an output
+	 * whose id might not be known yet.
+	 */
+	public void addOutputReaction(PendingOutput output, Closure completionClosure) {
+		output.addReaction(completionClosure);
+	}
+	
+	/**
+	 * Starts an output on the AsyncDialogClient without waiting
+	 * for its id. The outputs are sent when the current turn
+	 * of the session strand is over (at most tasksPerTurn
+	 * tasks later), ahead of the tasks queued for later turns;
+	 * outputs started during the same turn are sent together
+	 * in one outputStartBatch call.
+	 * Has to run on the session thread.
+	 */
+	public PendingOutput startOutputAsync(User user, IOType ioType, String text, Map<String,Object> details) {
+		assert (isOnSessionThread());
+		PendingOutput output = new PendingOutput(this);
+		if (pendingOutputStarts == null) {
+			pendingOutputStarts = new ArrayList<>();
+			submitAtEndOfTurn({ flushOutputStarts() });
+		}
+		pendingOutputStarts.add(new OutputRequest(user, ioType, text, details, output));
+		return output;
+	}
+	
+	private void flushOutputStarts() {
+		List<OutputRequest> requests = pendingOutputStarts.findAll {
+			OutputRequest request ->
+			((PendingOutput)request.callback).markSent()
+		};
+		pendingOutputStarts = null;
+		
+		if (requests.isEmpty()) {
+			return;
+		}
+		
+		// the response latency ends when the client is asked
+		// to start the output, not when it was queued
+		for (OutputRequest request : requests) {
+			if (request.user != null) {
+				dialogEngines[request.user.id]?.outputStarted();
+			}
+		}
+		
+		AsyncDialogClient client = (AsyncDialogClient)dialogClient;
+		try {
+			if (requests.size() == 1) {
+				OutputRequest request = requests[0];
+				client.outputStartAsync(
+					request.user,
+					request.ioType,
+					request.text,
+					request.details,
+					request.callback
+				);
+			} else {
+				logger.debug("Starting ${requests.size()} outputs in one batch.");
+				client.outputStartBatch(requests);
+			}
+		}
+		catch (RuntimeException e) {
+			for (OutputRequest request : requests) {
+				request.callback.failed(e);
+			}
+		}
+	}
+	
 	public User getUser(int userId) {
 		if (userId <= 0) {
 			return null;
@@ -371,6 +503,33 @@ public class DialogSession implements Closeable {
 		return dialogEngine.getUser();
 	}
 	
+	/**
+	 * Time from inputStarted until outputAbort was issued
+	 * for the interrupted output.
+	 */
+	public LatencyStatistics getBargeInLatency() {
+		return bargeInLatency;
+	}
+	
+	/**
+	 * Time from inputComplete until the first output
+	 * afterwards was started, for inputs that did not match
+	 * the last partial input.
+	 */
+	public LatencyStatistics getResponseLatency() {
+		return responseLatency;
+	}
+	
+	/**
+	 * Time from inputComplete until the first output
+	 * afterwards was started, for inputs that were prepared
+	 * and matched speculatively while the user was still
+	 * speaking (see inputPartial).
+	 */
+	public LatencyStatistics getSpeculativeResponseLatency() {
+		return speculativeResponseLatency;
+	}
+	
 	public TransactionManager getTransactionManager() {
 		return transactionManager;
 	}
@@ -396,6 +555,7 @@ public class DialogSession implements Closeable {
 		logger.debug("inputComplete(${speaker}, ${ioType}, ${text}, ${details})");
 		
 		if (speaker == null) {
+			BroadcastMatchCache broadcast = createBroadcastMatchCache();
 			for (DialogEngine dialogEngine : dialogEngines.values()) {
 					VerbalInputAction action = new VerbalInputAction(
 					this,
@@ -404,6 +564,7 @@ public class DialogSession implements Closeable {
 					text,
 					details
 				);
+				action.broadcastMatches = broadcast;
 				
 				dialogEngine.addAction(action);
 			}
@@ -421,6 +582,82 @@ public class DialogSession implements Closeable {
 		}
 	}
 	
+	/**
+	 * Interim recognizer hypothesis, while the user is still
+	 * speaking. The dialog engine prepares and matches it
+	 * speculatively (as far as that has no side effects), so
+	 * if the inputComplete that follows has the same text and
+	 * details, most of the matching is already done.
+	 */
+	public void inputPartial(User speaker, IOType ioType, String text, Map<String,String> details=null) {
+		logger.debug("inputPartial(${speaker}, ${ioType}, ${text}, ${details})");
+		submit({
+			if (speaker == null) {
+				for (DialogEngine dialogEngine : dialogEngines.values()) {
+					dialogEngine.inputPartial(ioType, text, details);
+				}
+			} else {
+				if (!dialogEngines.containsKey(speaker.id)) {
+					throw new RuntimeException("User not in session: " + speaker);
+				}
+				
+				dialogEngines[speaker.id].inputPartial(ioType, text, details);
+			}
+		});
+	}
+	
+	/**
+	 * Input with an N-best list of recognizer hypotheses.
+	 * All hypotheses are matched in a single pass over the
+	 * input actions; the action with the best score
+	 * (priority × confidence) is run, and gets the chosen
+	 * hypothesis in its input details (see InputHypothesis).
+	 */
+	public void inputComplete(User speaker, IOType ioType, List<InputHypothesis> hypotheses, Map<String,String> details) {
+		logger.debug("inputComplete(${speaker}, ${ioType}, ${hypotheses}, ${details})");
+		
+		if (speaker == null) {
+			BroadcastMatchCache broadcast = createBroadcastMatchCache();
+			for (DialogEngine dialogEngine : dialogEngines.values()) {
+				VerbalInputAction action = new VerbalInputAction(
+					this,
+					dialogEngine.getUser(),
+					ioType,
+					hypotheses,
+					details
+				);
+				action.broadcastMatches = broadcast;
+				
+				dialogEngine.addAction(action);
+			}
+			
+		} else {
+			if (!dialogEngines.containsKey(speaker.id)) {
+				throw new RuntimeException("User not in session: " + speaker);
+			}
+			
+			dialogEngines[speaker.id].addAction(new VerbalInputAction(
+				this,
+				speaker,
+				ioType,
+				hypotheses,
+				details
+			));
+		}
+	}
+	
+	/**
+	 * @return
+	 *   shared by the engines handling an input without
+	 *   a speaker, or null if there is nothing to share
+	 */
+	private BroadcastMatchCache createBroadcastMatchCache() {
+		if (!config.shareBroadcastMatching || dialogEngines.size() < 2) {
+			return null;
+		}
+		return new BroadcastMatchCache();
+	}
+	
 	public void inputAbandoned(User speaker, IOType ioType) {
 		logger.debug("inputAbandoned(${speaker}, ${ioType})");
 		submit({
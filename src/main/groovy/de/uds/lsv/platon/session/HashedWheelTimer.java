@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.session;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A hashed wheel timer (Varghese &amp; Lauck) for the many
+ * short-lived timeouts of dialog sessions (action watchdogs,
+ * after, idle).
+ *
+ * Adding and cancelling a timeout is O(1), and cancelled
+ * timeouts are unlinked on the next tick instead of staying
+ * around until their deadline.
+ * The price is accuracy: timeouts expire on the first tick
+ * after their deadline.
+ *
+ * Tasks run on the timer thread, so they must be short
+ * (i.e. hand the real work over to a session).
+ *
+ * @author mgropp
+ */
+public class HashedWheelTimer {
+	private static final Log logger = LogFactory.getLog(HashedWheelTimer.class.getName());
+	
+	private static final int STATE_PENDING = 0;
+	private static final int STATE_CANCELLED = 1;
+	private static final int STATE_EXPIRED = 2;
+	
+	/** Maximum number of new timeouts moved into the wheel per tick. */
+	private static final int MAX_TRANSFERS_PER_TICK = 100000;
+	
+	public interface Timeout {
+		/**
+		 * @return
+		 *   true iff the timeout was cancelled by this call
+		 *   (i.e. it had neither expired nor been cancelled before).
+		 */
+		boolean cancel();
+		boolean isCancelled();
+		boolean isExpired();
+	}
+	
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	
+	private final Queue<WheelTimeout> newTimeouts = new ConcurrentLinkedQueue<>();
+	private final Queue<WheelTimeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingTimeouts = new AtomicInteger(0);
+	
+	private final long startTime;
+	private final Thread workerThread;
+	private volatile boolean stopped = false;
+	
+	/** only accessed by the worker thread */
+	private long tick = 0;
+	
+	/**
+	 * @param name
+	 *   name of the timer thread
+	 * @param tickDuration
+	 *   timer resolution
+	 * @param unit
+	 * @param ticksPerWheel
+	 *   number of buckets (rounded up to a power of 2)
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0 || ticksPerWheel <= 0) {
+			throw new IllegalArgumentException();
+		}
+		
+		this.tickNanos = unit.toNanos(tickDuration);
+		
+		int size = Integer.highestOneBit(ticksPerWheel);
+		if (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		
+		this.startTime = System.nanoTime();
+		this.workerThread = new Thread(new Worker(), name);
+		this.workerThread.setDaemon(true);
+		this.workerThread.start();
+	}
+	
+	/**
+	 * Run task on the timer thread after the given delay.
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException();
+		}
+		
+		if (stopped) {
+			throw new RejectedExecutionException("Timer has been stopped.");
+		}
+		
+		long deadline = System.nanoTime() - startTime + Math.max(0, unit.toNanos(delay));
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+		pendingTimeouts.incrementAndGet();
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+	
+	/**
+	 * Number of timeouts that have neither expired nor
+	 * been cancelled (i.e. the timer queue depth).
+	 */
+	public int getPendingTimeouts() {
+		return pendingTimeouts.get();
+	}
+	
+	public void stop() {
+		stopped = true;
+		workerThread.interrupt();
+	}
+	
+	private class Worker implements Runnable {
+		@Override
+		public void run() {
+			while (!stopped) {
+				long deadline = tickNanos * (tick + 1);
+				if (!waitUntil(deadline)) {
+					break;
+				}
+				
+				removeCancelledTimeouts();
+				transferNewTimeouts();
+				wheel[(int)(tick & mask)].expireTimeouts(deadline);
+				tick++;
+			}
+			
+			logger.debug("Timer thread stopped.");
+		}
+		
+		private boolean waitUntil(long deadline) {
+			while (true) {
+				long sleepNanos = deadline - (System.nanoTime() - startTime);
+				if (sleepNanos <= 0) {
+					return true;
+				}
+				
+				LockSupport.parkNanos(HashedWheelTimer.this, sleepNanos);
+				if (stopped) {
+					return false;
+				}
+			}
+		}
+		
+		private void transferNewTimeouts() {
+			for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+				WheelTimeout timeout = newTimeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				
+				if (timeout.state.get() != STATE_PENDING) {
+					continue;
+				}
+				
+				long calculated = timeout.deadline / tickNanos;
+				timeout.remainingRounds = (calculated - tick) / wheel.length;
+				
+				// deadlines in the past go into the current bucket
+				long ticks = Math.max(calculated, tick);
+				wheel[(int)(ticks & mask)].add(timeout);
+			}
+		}
+		
+		private void removeCancelledTimeouts() {
+			while (true) {
+				WheelTimeout timeout = cancelledTimeouts.poll();
+				if (timeout == null) {
+					break;
+				}
+				
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+	}
+	
+	private class WheelTimeout implements Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+		
+		// only accessed by the worker thread
+		long remainingRounds;
+		Bucket bucket = null;
+		WheelTimeout next = null;
+		WheelTimeout prev = null;
+		
+		public WheelTimeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+		
+		@Override
+		public boolean cancel() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+				return false;
+			}
+			
+			pendingTimeouts.decrementAndGet();
+			cancelledTimeouts.add(this);
+			return true;
+		}
+		
+		@Override
+		public boolean isCancelled() {
+			return state.get() == STATE_CANCELLED;
+		}
+		
+		@Override
+		public boolean isExpired() {
+			return state.get() == STATE_EXPIRED;
+		}
+		
+		void expire() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+				return;
+			}
+			
+			pendingTimeouts.decrementAndGet();
+			try {
+				task.run();
+			}
+			catch (Throwable t) {
+				logger.error("Exception in timer task " + task, t);
+			}
+		}
+	}
+	
+	/**
+	 * Doubly linked list of timeouts; only accessed by the
+	 * worker thread.
+	 */
+	private static class Bucket {
+		private WheelTimeout head = null;
+		private WheelTimeout tail = null;
+		
+		public void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+		
+		public void expireTimeouts(long deadline) {
+			WheelTimeout timeout = head;
+			while (timeout != null) {
+				WheelTimeout next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if (timeout.deadline <= deadline) {
+						timeout.expire();
+					} else {
+						throw new IllegalStateException(String.format(
+							"Timeout deadline (%d) after tick deadline (%d)",
+							timeout.deadline, deadline
+						));
+					}
+				} else if (timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+		
+		public void remove(WheelTimeout timeout) {
+			if (timeout.bucket != this) {
+				return;
+			}
+			
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			}
+			if (timeout == head) {
+				head = timeout.next;
+			}
+			if (timeout == tail) {
+				tail = timeout.prev;
+			}
+			
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.session;
+
+/**
+ * One entry of a recognizer's N-best list
+ * (see DialogSession.inputComplete).
+ *
+ * @author mgropp
+ */
+public class InputHypothesis {
+	/** details key: text of the chosen hypothesis */
+	public static final String DETAILS_HYPOTHESIS = "hypothesis";
+	/** details key: position of the chosen hypothesis in the N-best list */
+	public static final String DETAILS_RANK = "hypothesisRank";
+	/** details key: recognizer confidence of the chosen hypothesis */
+	public static final String DETAILS_CONFIDENCE = "confidence";
+	/** details key: rule priority × confidence */
+	public static final String DETAILS_SCORE = "score";
+
+	public final String text;
+	public final double confidence;
+
+	public InputHypothesis(String text, double confidence) {
+		if (text == null) {
+			throw new IllegalArgumentException("Hypothesis text cannot be null!");
+		}
+		if (Double.isNaN(confidence) || confidence < 0) {
+			throw new IllegalArgumentException("Invalid confidence: " + confidence);
+		}
+
+		this.text = text;
+		this.confidence = confidence;
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"[InputHypothesis »%s« confidence=%s]",
+			text, confidence
+		);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects latency measurements (count, mean, maximum
+ * and a coarse histogram for percentiles).
+ * Adding a measurement is lock-free.
+ *
+ * Histogram buckets are powers of two (in microseconds),
+ * so percentiles are upper bounds that may be off by up
+ * to a factor of two.
+ *
+ * @author mgropp
+ */
+public class LatencyStatistics {
+	private static final int BUCKETS = 40;
+	
+	private final String name;
+	private final AtomicLong count = new AtomicLong(0);
+	private final AtomicLong totalNanos = new AtomicLong(0);
+	private final AtomicLong maxNanos = new AtomicLong(0);
+	private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+	
+	public LatencyStatistics(String name) {
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public void add(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+		
+		histogram.incrementAndGet(bucket(nanos));
+	}
+	
+	/**
+	 * Add the time since startNanos (System.nanoTime()).
+	 *
+	 * @return
+	 *   the measured latency
+	 */
+	public long addSince(long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		add(nanos);
+		return nanos;
+	}
+	
+	private static int bucket(long nanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getMean(TimeUnit unit) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		return unit.convert(totalNanos.get() / n, TimeUnit.NANOSECONDS);
+	}
+	
+	public long getMax(TimeUnit unit) {
+		return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @param percentile
+	 *   0 &lt; percentile &lt;= 100
+	 * @return
+	 *   an upper bound for the given percentile
+	 */
+	public long getPercentile(double percentile, TimeUnit unit) {
+		if (percentile <= 0 || percentile > 100) {
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+		
+		long n = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = histogram.get(i);
+			n += counts[i];
+		}
+		
+		if (n == 0) {
+			return 0;
+		}
+		
+		long threshold = (long)Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= threshold) {
+				long upperMicros = 1L << i;
+				return Math.min(
+					unit.convert(upperMicros, TimeUnit.MICROSECONDS),
+					getMax(unit)
+				);
+			}
+		}
+		
+		return getMax(unit);
+	}
+	
+	public void reset() {
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+		for (int i = 0; i < BUCKETS; i++) {
+			histogram.set(i, 0);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+			"[%s: n=%d mean=%dus p99<=%dus max=%dus]",
+			name,
+			getCount(),
+			getMean(TimeUnit.MICROSECONDS),
+			(getCount() == 0) ? 0 : getPercentile(99, TimeUnit.MICROSECONDS),
+			getMax(TimeUnit.MICROSECONDS)
+		);
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.session;
+
+import groovy.transform.TypeChecked
+
+import java.util.concurrent.TimeUnit
+
+import org.apache.commons.logging.Log
+import org.apache.commons.logging.LogFactory
+
+import de.uds.lsv.platon.AsyncDialogClient.OutputStartCallback
+
+/**
+ * An output started on an AsyncDialogClient, whose
+ * output id might not be known yet.
+ * Output reactions and an abort are held back until
+ * the client reports the id. An output that is aborted
+ * before it was sent to the client isn't sent at all,
+ * and its reactions get 0.0 right away.
+ *
+ * @author mgropp
+ */
+@TypeChecked
+public class PendingOutput implements OutputStartCallback {
+	private static final Log logger = LogFactory.getLog(PendingOutput.class.getName());
+	
+	/**
+	 * inputStartedNanos for an abort that was not caused by
+	 * an input. System.nanoTime() may be negative, so -1 is
+	 * a valid timestamp.
+	 */
+	public static final long NO_INPUT = Long.MIN_VALUE;
+	
+	private final DialogSession session;
+	
+	private int outputId = -1;
+	private boolean sent = false;
+	private boolean abortRequested = false;
+	private User abortUser = null;
+	/** start of the input that caused the abort (for the barge-in latency), or NO_INPUT */
+	private long abortInputStartedNanos = NO_INPUT;
+	/** true if the output will never be started (aborted before it was sent, or failed) */
+	private boolean dropped = false;
+	/** output reactions added before the id was known */
+	private List<Closure> reactions = new ArrayList<>();
+	
+	public PendingOutput(DialogSession session) {
+		this.session = session;
+	}
+	
+	/**
+	 * @return
+	 *   the output id, or -1 if it isn't known yet
+	 */
+	public synchronized int getOutputId() {
+		return outputId;
+	}
+	
+	/**
+	 * Called right before the output is sent to the client.
+	 *
+	 * @return
+	 *   false if the output has been aborted already
+	 *   and must not be sent
+	 */
+	synchronized boolean markSent() {
+		if (abortRequested) {
+			return false;
+		}
+		
+		sent = true;
+		return true;
+	}
+	
+	/**
+	 * See DialogSession.addOutputReaction.
+	 */
+	public void addReaction(Closure completionClosure) {
+		int id;
+		boolean drop;
+		synchronized (this) {
+			if (reactions != null) {
+				reactions.add(completionClosure);
+				return;
+			}
+			id = outputId;
+			drop = dropped;
+		}
+		
+		if (id >= 0) {
+			session.addOutputReaction(id, completionClosure);
+		} else if (drop) {
+			dropReactions([ completionClosure ]);
+		}
+	}
+	
+	/**
+	 * Aborts the output, or makes sure it is aborted
+	 * as soon as its id is known.
+	 */
+	public void abort(User user) {
+		abort(user, NO_INPUT);
+	}
+	
+	/**
+	 * Like abort(User), and records the barge-in latency
+	 * (see DialogSession.getBargeInLatency) once the abort
+	 * reaches the client, or the output is dropped before
+	 * it was sent.
+	 *
+	 * @param inputStartedNanos
+	 *   start of the input that caused the abort
+	 *   (System.nanoTime()), or NO_INPUT
+	 */
+	public void abort(User user, long inputStartedNanos) {
+		int id;
+		List<Closure> reactions = null;
+		synchronized (this) {
+			if (abortRequested) {
+				return;
+			}
+			
+			abortRequested = true;
+			abortUser = user;
+			abortInputStartedNanos = inputStartedNanos;
+			id = outputId;
+			
+			if (!sent) {
+				// markSent will refuse to send it
+				dropped = true;
+				reactions = this.reactions;
+				this.reactions = null;
+			}
+		}
+		
+		if (id >= 0) {
+			session.getDialogClient().outputAbort(id, user);
+			recordBargeInLatency(inputStartedNanos);
+		} else if (reactions != null) {
+			logger.debug("Output aborted before it was sent: " + this);
+			recordBargeInLatency(inputStartedNanos);
+			dropReactions(reactions);
+		} else {
+			logger.debug("Output id not known yet, deferring abort: " + this);
+		}
+	}
+	
+	@Override
+	public void started(int outputId) {
+		List<Closure> reactions;
+		boolean abort;
+		synchronized (this) {
+			this.outputId = outputId;
+			reactions = this.reactions;
+			this.reactions = null;
+			abort = abortRequested;
+		}
+		
+		if (reactions != null) {
+			for (Closure reaction : reactions) {
+				session.addOutputReaction(outputId, reaction);
+			}
+		}
+		
+		if (abort) {
+			logger.debug("Sending deferred abort: " + this);
+			final User user = abortUser;
+			final long inputStartedNanos = abortInputStartedNanos;
+			session.submitUrgent({
+				session.getDialogClient().outputAbort(outputId, user);
+				recordBargeInLatency(inputStartedNanos);
+			});
+		}
+	}
+	
+	/**
+	 * The output reactions get 0.0, like for an output
+	 * that was aborted right away.
+	 */
+	@Override
+	public void failed(Throwable t) {
+		logger.error("Output could not be started: " + this, t);
+		
+		List<Closure> reactions;
+		synchronized (this) {
+			dropped = true;
+			reactions = this.reactions;
+			this.reactions = null;
+		}
+		
+		if (reactions != null) {
+			dropReactions(reactions);
+		}
+	}
+	
+	private void recordBargeInLatency(long inputStartedNanos) {
+		if (inputStartedNanos != NO_INPUT) {
+			long latency = session.getBargeInLatency().addSince(inputStartedNanos);
+			logger.debug("outputAbort issued ${TimeUnit.NANOSECONDS.toMillis(latency)}ms after input started.");
+		}
+	}
+	
+	private void dropReactions(List<Closure> reactions) {
+		for (Closure reaction : reactions) {
+			final Closure r = reaction;
+			session.submit({ r(0.0d) });
+		}
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "[PendingOutput: id=${outputId}, sent=${sent}, aborted=${abortRequested}]";
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.session;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs the tasks of many sessions on a bounded pool of
+ * worker threads.
+ * Each session gets a SessionStrand, a serial executor:
+ * tasks of one strand never run concurrently and run in
+ * submission order, but a strand is not bound to a thread.
+ *
+ * Fairness: a strand runs at most tasksPerTurn tasks before
+ * it has to queue up behind the other sessions again.
+ * Session tasks must not wait for tasks of other sessions
+ * on the same scheduler (DialogSession.submitAndWait fails
+ * instead).
+ *
+ * The scheduler is shared via Config.sessionScheduler.
+ * The creator is responsible for shutting it down.
+ * 
+ * With Config.virtualThreadSessions, strands run on virtual
+ * threads (Java 21+), so blocking calls to the DialogWorld or
+ * DialogClient park the session instead of holding a thread.
+ *
+ * @author mgropp
+ */
+public class SessionScheduler {
+	private static final Log logger = LogFactory.getLog(SessionScheduler.class.getName());
+	
+	public static final int DEFAULT_TASKS_PER_TURN = 16;
+	
+	/** timer resolution */
+	private static final long TIMER_TICK_MILLIS = 10;
+	private static final int TIMER_WHEEL_SIZE = 512;
+	
+	private static HashedWheelTimer defaultTimer = null;
+	private static SessionScheduler virtualThreadScheduler = null;
+	
+	private final ExecutorService workers;
+	private final HashedWheelTimer timer;
+	private final int tasksPerTurn;
+	
+	/**
+	 * If true, the scheduler belongs to a single strand
+	 * and is shut down with it.
+	 */
+	private boolean dedicated = false;
+	
+	/** false if every turn gets a thread of its own */
+	private boolean bounded = true;
+	
+	/**
+	 * @param threads
+	 *   number of worker threads
+	 */
+	public SessionScheduler(int threads) {
+		this(threads, DEFAULT_TASKS_PER_TURN);
+	}
+	
+	/**
+	 * @param threads
+	 *   number of worker threads
+	 * @param tasksPerTurn
+	 *   maximum number of tasks a session may run before
+	 *   other sessions get their turn
+	 */
+	public SessionScheduler(int threads, int tasksPerTurn) {
+		this(createWorkers(threads, "session-worker-"), tasksPerTurn);
+	}
+	
+	/**
+	 * @param workers
+	 *   the executor running the strands
+	 * @param tasksPerTurn
+	 *   maximum number of tasks a session may run before
+	 *   other sessions get their turn
+	 */
+	public SessionScheduler(ExecutorService workers, int tasksPerTurn) {
+		if (tasksPerTurn < 1) {
+			throw new IllegalArgumentException("tasksPerTurn must be positive: " + tasksPerTurn);
+		}
+		
+		this.workers = workers;
+		this.timer = getDefaultTimer();
+		this.tasksPerTurn = tasksPerTurn;
+	}
+	
+	/**
+	 * A strand with a thread of its own, i.e. what every
+	 * session used to get: the thread is stopped when the
+	 * strand is shut down.
+	 * Turns are still bounded, so end-of-turn tasks (see
+	 * SessionStrand.executeAtEndOfTurn) don't wait for the
+	 * whole queue.
+	 */
+	public static SessionStrand createDedicatedStrand(String name) {
+		SessionScheduler scheduler = new SessionScheduler(
+			createWorkers(1, name),
+			DEFAULT_TASKS_PER_TURN
+		);
+		scheduler.dedicated = true;
+		return scheduler.createStrand(name);
+	}
+	
+	/**
+	 * @return
+	 *   true iff the JVM supports virtual threads.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		}
+		catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * A JVM-wide scheduler that runs every strand turn on a
+	 * new virtual thread.
+	 * (Looked up via reflection, as we still build for Java 7.)
+	 * 
+	 * Note that a virtual thread blocking inside a synchronized
+	 * block still pins its carrier thread on older JVMs.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *   if the JVM doesn't support virtual threads.
+	 */
+	public static synchronized SessionScheduler getVirtualThreadScheduler() {
+		if (virtualThreadScheduler == null) {
+			ExecutorService workers;
+			try {
+				workers = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (NoSuchMethodException e) {
+				throw new UnsupportedOperationException("Virtual threads are not supported by this JVM (Java 21 or later is required).", e);
+			}
+			catch (IllegalAccessException|InvocationTargetException e) {
+				throw new RuntimeException("Could not create virtual thread executor.", e);
+			}
+			
+			logger.info("Running sessions on virtual threads.");
+			virtualThreadScheduler = new SessionScheduler(workers, DEFAULT_TASKS_PER_TURN);
+			virtualThreadScheduler.bounded = false;
+		}
+		
+		return virtualThreadScheduler;
+	}
+	
+	public SessionStrand createStrand(String name) {
+		return new SessionStrand(this, name);
+	}
+	
+	public int getTasksPerTurn() {
+		return tasksPerTurn;
+	}
+	
+	/**
+	 * @return
+	 *   true if strands compete for a limited number of
+	 *   workers (see SessionStrand.checkBlockingWait)
+	 */
+	public boolean isBounded() {
+		return bounded;
+	}
+	
+	HashedWheelTimer getTimer() {
+		return timer;
+	}
+	
+	/**
+	 * Number of delayed tasks (action timeouts, after, idle)
+	 * waiting in the timer.
+	 */
+	public int getPendingTimeouts() {
+		return timer.getPendingTimeouts();
+	}
+	
+	void dispatch(final SessionStrand strand) {
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				strand.runTasks(tasksPerTurn);
+			}
+		});
+	}
+	
+	void strandTerminated(SessionStrand strand) {
+		if (dedicated) {
+			workers.shutdown();
+		}
+	}
+	
+	/**
+	 * Stop the worker threads after all dispatched
+	 * tasks have been run.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+	
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+	
+	private static ExecutorService createWorkers(int threads, final String namePrefix) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one worker thread: " + threads);
+		}
+		
+		return new ThreadPoolExecutor(
+			threads, threads,
+			0L, TimeUnit.MILLISECONDS,
+			new LinkedBlockingQueue<Runnable>(),
+			new ThreadFactory() {
+				private final AtomicInteger nextId = new AtomicInteger(0);
+				
+				@Override
+				public Thread newThread(Runnable r) {
+					int id = nextId.getAndIncrement();
+					return new Thread(r, (id == 0) ? namePrefix : namePrefix + id);
+				}
+			}
+		);
+	}
+	
+	/**
+	 * One timer thread for all schedulers -- the timer only
+	 * hands due tasks over to the strands.
+	 */
+	private static synchronized HashedWheelTimer getDefaultTimer() {
+		if (defaultTimer == null) {
+			logger.debug("Starting session timer thread.");
+			defaultTimer = new HashedWheelTimer(
+				"session-timer",
+				TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS,
+				TIMER_WHEEL_SIZE
+			);
+		}
+		
+		return defaultTimer;
+	}
+}
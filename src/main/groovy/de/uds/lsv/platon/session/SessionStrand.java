@@ -0,0 +1,485 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A serial executor on top of a SessionScheduler:
+ * tasks run one after another, in submission order,
+ * on whatever worker thread the scheduler provides.
+ * No task starts before the previous one has finished.
+ *
+ * A task must not block waiting for a task of another
+ * strand on the same bounded scheduler: once every worker
+ * is waiting like that, nothing runs anymore (see
+ * checkBlockingWait).
+ * Delayed tasks that are not due yet when the strand is
+ * shut down are cancelled.
+ *
+ * @author mgropp
+ */
+public class SessionStrand extends AbstractExecutorService implements ScheduledExecutorService {
+	private static final Log logger = LogFactory.getLog(SessionStrand.class.getName());
+	
+	/** the strand running a task on the current thread */
+	private static final ThreadLocal<SessionStrand> currentStrand = new ThreadLocal<>();
+	
+	private final SessionScheduler scheduler;
+	private final String name;
+	
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	
+	/** tasks that run before all other queued tasks */
+	private final Queue<Runnable> urgentTasks = new ConcurrentLinkedQueue<>();
+	
+	/** tasks that run when the current turn is over */
+	private final Queue<Runnable> endOfTurnTasks = new ConcurrentLinkedQueue<>();
+	
+	/** true while the strand is waiting for or running on a worker */
+	private final AtomicBoolean dispatched = new AtomicBoolean(false);
+	
+	/** the worker thread currently running our tasks, or null */
+	private volatile Thread runner = null;
+	
+	private volatile boolean shutdown = false;
+	private boolean terminated = false;
+	private final Object terminationLock = new Object();
+	
+	/** delayed tasks that have not been handed to the strand yet */
+	private final Set<StrandFuture<?>> scheduledTasks = Collections.newSetFromMap(
+		new ConcurrentHashMap<StrandFuture<?>,Boolean>()
+	);
+	
+	SessionStrand(SessionScheduler scheduler, String name) {
+		this.scheduler = scheduler;
+		this.name = name;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return
+	 *   true iff the calling thread is currently running
+	 *   a task of this strand.
+	 */
+	public boolean isRunningOnCurrentThread() {
+		return runner == Thread.currentThread();
+	}
+	
+	/**
+	 * Number of tasks waiting to be run (not counting
+	 * delayed tasks that aren't due yet).
+	 */
+	public int getQueueSize() {
+		return tasks.size() + urgentTasks.size() + endOfTurnTasks.size();
+	}
+	
+	@Override
+	public void execute(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		
+		if (shutdown) {
+			throw new RejectedExecutionException("Session strand has been shut down: " + name);
+		}
+		
+		tasks.add(command);
+		dispatch();
+	}
+	
+	/**
+	 * Run command before all tasks that are already queued
+	 * (but after the task that is currently running).
+	 * Urgent tasks run in submission order.
+	 */
+	public void executeUrgent(Runnable command) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		
+		if (shutdown) {
+			throw new RejectedExecutionException("Session strand has been shut down: " + name);
+		}
+		
+		urgentTasks.add(command);
+		dispatch();
+	}
+	
+	/**
+	 * Run command when the current turn (the tasks the strand
+	 * runs before yielding its worker, see SessionScheduler)
+	 * is over, before all tasks left for later turns.
+	 * Outside of a turn of this strand this is the same as
+	 * executeUrgent.
+	 */
+	public void executeAtEndOfTurn(Runnable command) {
+		if (!isRunningOnCurrentThread()) {
+			executeUrgent(command);
+			return;
+		}
+		
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		
+		if (shutdown) {
+			throw new RejectedExecutionException("Session strand has been shut down: " + name);
+		}
+		
+		endOfTurnTasks.add(command);
+	}
+	
+	/**
+	 * Call before blocking until a task of this strand is
+	 * done (e.g. DialogSession.submitAndWait).
+	 * Waiting for a task of the own strand never ends, and
+	 * waiting for another strand of the same bounded scheduler
+	 * holds a worker that strand might need.
+	 *
+	 * @throws IllegalStateException
+	 *   if the calling thread must not wait for this strand
+	 */
+	public void checkBlockingWait() {
+		SessionStrand current = currentStrand.get();
+		if (current == this) {
+			throw new IllegalStateException("Session strand " + name + " cannot wait for its own tasks.");
+		}
+		
+		if (current != null && current.scheduler == scheduler && scheduler.isBounded()) {
+			throw new IllegalStateException(String.format(
+				"Session strand %s must not wait for session strand %s on the same scheduler: this could take up all workers.",
+				current.name,
+				name
+			));
+		}
+	}
+	
+	private Runnable pollTask() {
+		Runnable task = urgentTasks.poll();
+		if (task == null) {
+			task = tasks.poll();
+		}
+		return task;
+	}
+	
+	private boolean hasTasks() {
+		return !urgentTasks.isEmpty() || !tasks.isEmpty();
+	}
+	
+	private void dispatch() {
+		if (dispatched.compareAndSet(false, true)) {
+			try {
+				scheduler.dispatch(this);
+			}
+			catch (RejectedExecutionException e) {
+				dispatched.set(false);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Called by the scheduler on a worker thread.
+	 */
+	void runTasks(int maxTasks) {
+		runner = Thread.currentThread();
+		currentStrand.set(this);
+		try {
+			for (int i = 0; i < maxTasks; i++) {
+				Runnable task = pollTask();
+				if (task == null) {
+					break;
+				}
+				
+				runTask(task);
+			}
+			
+			for (Runnable task = endOfTurnTasks.poll(); task != null; task = endOfTurnTasks.poll()) {
+				runTask(task);
+			}
+		}
+		finally {
+			currentStrand.remove();
+			runner = null;
+			dispatched.set(false);
+			
+			if (hasTasks()) {
+				// more work: queue up behind the other sessions
+				dispatch();
+			} else if (shutdown) {
+				checkTerminated();
+			}
+		}
+	}
+	
+	private void runTask(Runnable task) {
+		try {
+			task.run();
+		}
+		catch (Throwable t) {
+			logger.error("Uncaught exception in session task (" + name + ")", t);
+		}
+	}
+	
+	private void checkTerminated() {
+		synchronized (terminationLock) {
+			if (terminated || !shutdown || hasTasks() || dispatched.get()) {
+				return;
+			}
+			
+			terminated = true;
+			terminationLock.notifyAll();
+		}
+		
+		logger.debug("Session strand terminated: " + name);
+		scheduler.strandTerminated(this);
+	}
+	
+	/**
+	 * Queued tasks still run, delayed tasks that are not
+	 * due yet are cancelled.
+	 */
+	@Override
+	public void shutdown() {
+		shutdown = true;
+		cancelScheduledTasks();
+		checkTerminated();
+	}
+	
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		cancelScheduledTasks();
+		
+		List<Runnable> pending = new ArrayList<>();
+		for (Runnable task = pollTask(); task != null; task = pollTask()) {
+			pending.add(task);
+		}
+		
+		checkTerminated();
+		return pending;
+	}
+	
+	private void cancelScheduledTasks() {
+		List<StrandFuture<?>> pending = new ArrayList<>(scheduledTasks);
+		if (pending.isEmpty()) {
+			return;
+		}
+		
+		logger.info(String.format(
+			"Session strand %s shut down: cancelling %d delayed task(s).",
+			name,
+			pending.size()
+		));
+		for (StrandFuture<?> future : pending) {
+			logger.debug("Cancelling delayed task: " + future);
+			future.cancel(false);
+		}
+	}
+	
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+	
+	@Override
+	public boolean isTerminated() {
+		synchronized (terminationLock) {
+			return terminated;
+		}
+	}
+	
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (terminationLock) {
+			while (!terminated) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.timedWait(terminationLock, remaining);
+			}
+			return true;
+		}
+	}
+	
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(Executors.callable(command), delay, unit);
+	}
+	
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		StrandFuture<V> future = new StrandFuture<>(callable, System.nanoTime() + unit.toNanos(delay), 0);
+		future.arm();
+		return future;
+	}
+	
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		if (period <= 0) {
+			throw new IllegalArgumentException();
+		}
+		StrandFuture<Object> future = new StrandFuture<>(
+			Executors.callable(command),
+			System.nanoTime() + unit.toNanos(initialDelay),
+			unit.toNanos(period)
+		);
+		future.arm();
+		return future;
+	}
+	
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		if (delay <= 0) {
+			throw new IllegalArgumentException();
+		}
+		StrandFuture<Object> future = new StrandFuture<>(
+			Executors.callable(command),
+			System.nanoTime() + unit.toNanos(initialDelay),
+			-unit.toNanos(delay)
+		);
+		future.arm();
+		return future;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("[SessionStrand: %s, %d tasks queued]", name, getQueueSize());
+	}
+	
+	/**
+	 * A delayed task: the scheduler's timer waits for it
+	 * and then hands it over to the strand.
+	 */
+	private class StrandFuture<V> extends FutureTask<V> implements ScheduledFuture<V> {
+		private volatile long time;
+		
+		/**
+		 * 0: one-shot,
+		 * &gt;0: fixed rate,
+		 * &lt;0: fixed delay
+		 */
+		private final long period;
+		
+		private volatile HashedWheelTimer.Timeout timeout = null;
+		
+		public StrandFuture(Callable<V> callable, long time, long period) {
+			super(callable);
+			this.time = time;
+			this.period = period;
+		}
+		
+		void arm() {
+			if (shutdown) {
+				throw new RejectedExecutionException("Session strand has been shut down: " + name);
+			}
+			
+			scheduledTasks.add(this);
+			timeout = scheduler.getTimer().newTimeout(
+				new Runnable() {
+					@Override
+					public void run() {
+						scheduledTasks.remove(StrandFuture.this);
+						if (isDone()) {
+							return;
+						}
+						
+						try {
+							execute(StrandFuture.this);
+						}
+						catch (RejectedExecutionException e) {
+							StrandFuture.super.cancel(false);
+						}
+					}
+				},
+				time - System.nanoTime(),
+				TimeUnit.NANOSECONDS
+			);
+		}
+		
+		@Override
+		public void run() {
+			if (period == 0) {
+				super.run();
+			} else if (runAndReset()) {
+				if (period > 0) {
+					time += period;
+				} else {
+					time = System.nanoTime() - period;
+				}
+				
+				try {
+					arm();
+				}
+				catch (RejectedExecutionException e) {
+					super.cancel(false);
+				}
+			}
+		}
+		
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			HashedWheelTimer.Timeout t = timeout;
+			if (t != null) {
+				t.cancel();
+			}
+			scheduledTasks.remove(this);
+			return cancelled;
+		}
+		
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(time - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		
+		@Override
+		public int compareTo(Delayed other) {
+			if (other == this) {
+				return 0;
+			}
+			
+			long d = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+			return (d < 0) ? -1 : ((d > 0) ? 1 : 0);
+		}
+	}
+}
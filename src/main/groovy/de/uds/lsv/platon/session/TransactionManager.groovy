@@ -18,13 +18,19 @@ package de.uds.lsv.platon.session;
 
 import groovy.transform.TypeChecked
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.Future
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 import de.uds.lsv.platon.action.Action
 import de.uds.lsv.platon.action.EnvironmentModifiedAction
 import de.uds.lsv.platon.action.ObjectAddedAction
 import de.uds.lsv.platon.action.ObjectDeletedAction
 import de.uds.lsv.platon.action.ObjectModifiedAction
+import de.uds.lsv.platon.world.WorldObject
 
 @TypeChecked
 public class TransactionManager {
@@ -42,23 +48,34 @@ public class TransactionManager {
 		}
 		
 		public void close() {
-			if (!transactionManager.transactions.containsKey(transactionId)) {
+			Queue<Action> transaction = transactionManager.transactions.remove(transactionId);
+			if (transaction == null) {
 				return;
 			}
 			
+			transactionManager.closePendingModifications();
 			transactionManager.session.submitAndWait({
-				List<Action> transaction = transactionManager.transactions[transactionId];
-				try {
-					transactionManager.session.worldState.batchApply(transaction);
-				}
-				finally {
-					synchronized (transactionManager.transactions) {
-						transactionManager.transactions.remove(transactionId);
-					}
-				}
+				transactionManager.session.worldState.batchApply(transaction);
 			});
 		}
 		
+		/**
+		 * Like close, but doesn't wait for the transaction
+		 * to be applied.
+		 *
+		 * @return
+		 *   a future that is done once the transaction has
+		 *   been applied, or null if it was already closed
+		 */
+		public Future<?> closeAsync() {
+			Queue<Action> transaction = transactionManager.transactions.remove(transactionId);
+			if (transaction == null) {
+				return null;
+			}
+			
+			return transactionManager.submitTransaction(transaction);
+		}
+		
 		/**
 		 * Add an object creation to a transaction, or submit it
 		 * immediately if transactionId < 0.
@@ -121,9 +138,32 @@ public class TransactionManager {
 		}
 	}
 	
+	/**
+	 * Non-transactional modifications of one object that
+	 * have been submitted, but not applied yet.
+	 */
+	private static class PendingModification {
+		final Map<String,String> modifications;
+		
+		PendingModification(Map<String,String> modifications) {
+			this.modifications = new LinkedHashMap<>(modifications);
+		}
+	}
+	
 	private final DialogSession session;
 	private final AtomicInteger lastId = new AtomicInteger(0);
-	private final Map<Integer,List<Action>> transactions = new HashMap<>();
+	/**
+	 * open transactions; a transaction is removed when it is
+	 * ended, before it is applied on the session thread
+	 */
+	private final ConcurrentMap<Integer,Queue<Action>> transactions = new ConcurrentHashMap<>();
+	
+	/**
+	 * object id => pending modification that later modifications
+	 * can still be merged into (see Config.coalesceModifications)
+	 */
+	private final Map<String,PendingModification> pendingModifications = new HashMap<>();
+	private final AtomicLong coalescedModifications = new AtomicLong(0);
 	
 	public TransactionManager(DialogSession session) {
 		this.session = session;
@@ -135,24 +175,54 @@ public class TransactionManager {
 	
 	public int beginTransaction() {
 		int transactionId = lastId.incrementAndGet();
-		transactions.put(transactionId, new ArrayList<Action>());
+		transactions.put(transactionId, new ConcurrentLinkedQueue<Action>());
 		return transactionId;
 	}
 	
+	/**
+	 * Applies the transaction and waits until it has been
+	 * applied on the session thread.
+	 */
 	public void endTransaction(int transactionId) {
-		if (!transactions.containsKey(transactionId)) {
+		Queue<Action> transaction = removeTransaction(transactionId);
+		
+		// later modifications must not overtake the transaction
+		closePendingModifications();
+		
+		session.submitAndWait({
+			session.worldState.batchApply(transaction);
+		});
+	}
+	
+	/**
+	 * Submits the transaction to the session thread without
+	 * waiting for it to be applied. The transaction is closed
+	 * immediately, i.e. later changes in it are rejected, and
+	 * later changes outside of it are applied after it.
+	 *
+	 * @return
+	 *   a future that is done once the transaction
+	 *   has been applied
+	 */
+	public Future<?> endTransactionAsync(int transactionId) {
+		return submitTransaction(removeTransaction(transactionId));
+	}
+	
+	private Queue<Action> removeTransaction(int transactionId) {
+		Queue<Action> transaction = transactions.remove(transactionId);
+		if (transaction == null) {
 			throw new IllegalArgumentException("Transaction with identifier ${transactionId} does not exist or was already closed.");
 		}
+		return transaction;
+	}
+	
+	private Future<?> submitTransaction(Queue<Action> transaction) {
+		// later modifications must not overtake the transaction
+		closePendingModifications();
 		
-		session.submitAndWait({
-			List<Action> transaction = transactions[transactionId];
-			try {
-				session.worldState.batchApply(transaction);
-			}
-			finally {
-				transactions.remove(transactionId);
-			}
-		})
+		return session.submit({
+			session.worldState.batchApply(transaction);
+		});
 	}
 	
 	/**
@@ -162,6 +232,7 @@ public class TransactionManager {
 	public void addChangeNotificationAdd(int transactionId, Map<String,String> properties) {
 		ObjectAddedAction change = new ObjectAddedAction(session, properties);
 		if (transactionId < 0) {
+			closePendingModification(properties.get(WorldObject.FIELD_ID));
 			session.submit({ session.worldState.apply(change) });
 		} else {
 			addAction(
@@ -176,6 +247,11 @@ public class TransactionManager {
 	 * immediately if transactionId < 0.
 	 */
 	public void addChangeNotificationModify(int transactionId, Map<String,String> modifications) {
+		if (transactionId < 0 && session.config.coalesceModifications) {
+			submitCoalesced(modifications);
+			return;
+		}
+		
 		ObjectModifiedAction change = new ObjectModifiedAction(session, modifications);
 		if (transactionId < 0) {
 			session.submit({ session.worldState.apply(change) });
@@ -194,6 +270,7 @@ public class TransactionManager {
 	public void addChangeNotificationDelete(int transactionId, String id) {
 		ObjectDeletedAction change = new ObjectDeletedAction(session, id);
 		if (transactionId < 0) {
+			closePendingModification(id);
 			session.submit({ session.worldState.apply(change) });
 		} else {
 			addAction(
@@ -219,11 +296,98 @@ public class TransactionManager {
 		}
 	}
 	
-	private synchronized void addAction(int transactionId, Action action) {
-		if (!transactions.containsKey(transactionId)) {
+	/**
+	 * Merges the modification into a pending modification of
+	 * the same object (last writer wins), or submits it as a
+	 * new pending modification. The change applied in the end
+	 * has the object state before the first of the merged
+	 * modifications as its old state.
+	 */
+	private void submitCoalesced(Map<String,String> modifications) {
+		final String objectId = modifications.get(WorldObject.FIELD_ID);
+		if (objectId == null || isCoalescingExempt(objectId, modifications)) {
+			// must not be overtaken by later modifications
+			closePendingModification(objectId);
+			ObjectModifiedAction change = new ObjectModifiedAction(session, modifications);
+			session.submit({ session.worldState.apply(change) });
+			return;
+		}
+		
+		final PendingModification pending = new PendingModification(modifications);
+		synchronized (pendingModifications) {
+			PendingModification existing = pendingModifications.get(objectId);
+			if (existing != null) {
+				existing.modifications.putAll(modifications);
+				coalescedModifications.incrementAndGet();
+				return;
+			}
+			
+			pendingModifications.put(objectId, pending);
+		}
+		
+		session.submit({
+			Map<String,String> merged;
+			synchronized (pendingModifications) {
+				if (pendingModifications.get(objectId).is(pending)) {
+					pendingModifications.remove(objectId);
+				}
+				merged = pending.modifications;
+			}
+			
+			session.worldState.apply(new ObjectModifiedAction(session, merged));
+		});
+	}
+	
+	private boolean isCoalescingExempt(String objectId, Map<String,String> modifications) {
+		if (session.config.coalesceExemptIds.contains(objectId)) {
+			return true;
+		}
+		
+		for (String field : session.config.coalesceExemptFields) {
+			if (modifications.containsKey(field)) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Later modifications of the object won't be merged
+	 * into the currently pending one.
+	 */
+	private void closePendingModification(String objectId) {
+		synchronized (pendingModifications) {
+			pendingModifications.remove(objectId);
+		}
+	}
+	
+	private void closePendingModifications() {
+		synchronized (pendingModifications) {
+			pendingModifications.clear();
+		}
+	}
+	
+	/**
+	 * @return
+	 *   the number of modifications that have been merged
+	 *   into another pending modification
+	 */
+	public long getCoalescedModificationCount() {
+		return coalescedModifications.get();
+	}
+	
+	/**
+	 * Doesn't lock: changes can be added to a transaction
+	 * from several threads, but not concurrently with
+	 * ending it.
+	 */
+	private void addAction(int transactionId, Action action) {
+		Queue<Action> transaction = transactions.get(transactionId);
+		if (transaction == null) {
 			throw new IllegalArgumentException("Transaction with identifier ${transactionId} does not exist or was already closed.");
 		}
 		
-		transactions[transactionId].add(action);
+		transaction.add(action);
 	}
 }
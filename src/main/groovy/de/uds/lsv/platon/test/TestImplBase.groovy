@@ -19,15 +19,22 @@ package de.uds.lsv.platon.test
 import groovy.transform.TypeChecked
 import groovy.transform.TypeCheckingMode
 
+import java.util.concurrent.Callable
+import java.util.concurrent.FutureTask
 import java.util.concurrent.atomic.AtomicInteger
 
 import spock.lang.Specification
+import de.uds.lsv.platon.AsyncDialogClient
+import de.uds.lsv.platon.AsyncDialogClient.OutputRequest
+import de.uds.lsv.platon.AsyncDialogClient.OutputStartCallback
 import de.uds.lsv.platon.DialogClient
 import de.uds.lsv.platon.DialogWorld
 import de.uds.lsv.platon.action.IOType
 import de.uds.lsv.platon.config.Config
+import de.uds.lsv.platon.debug.LatencyDialogWorld
 import de.uds.lsv.platon.exception.DialogWorldException
 import de.uds.lsv.platon.session.DialogSession
+import de.uds.lsv.platon.session.InputHypothesis
 import de.uds.lsv.platon.session.User
 import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState
@@ -48,6 +55,9 @@ public class TestImplBase extends Specification {
 	
 	List<Throwable> exceptions = new ArrayList<>();
 	
+	/** sizes of the output start calls of an async dialog client */
+	List<Integer> outputBatchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+	
 	public void init(Map kwargs=[:], String script) {
 		config.openDialogScript = (Closure<Reader>){
 			->
@@ -80,12 +90,17 @@ public class TestImplBase extends Specification {
 			}
 		);
 		users = createUsers(kwargs.get("numUsers", 1));
-		dialogClient = createDialogClient()
+		dialogClient = kwargs.get("asyncDialogClient", false) ? createAsyncDialogClient() : createDialogClient();
 		dialogWorld = createDialogWorld(
 			kwargs.get("changeRequestModifyFails", false),
 			kwargs.get("changeRequestDeleteFails", false)
 		);
 		
+		long worldLatencyMillis = (long)kwargs.get("worldLatencyMillis", 0L);
+		if (worldLatencyMillis > 0) {
+			dialogWorld = new LatencyDialogWorld(dialogWorld, worldLatencyMillis);
+		}
+		
 		session = new DialogSession(config, dialogClient, dialogWorld, users);
 	
 		worldState = session.getWorldState();
@@ -193,6 +208,50 @@ public class TestImplBase extends Specification {
 		return dialogClient;
 	}
 	
+	/**
+	 * An AsyncDialogClient that passes all outputs on to
+	 * the stub of createDialogClient, and reports the output
+	 * ids right away.
+	 */
+	@TypeChecked(TypeCheckingMode.SKIP)
+	DialogClient createAsyncDialogClient() {
+		DialogClient syncClient = createDialogClient();
+		AsyncDialogClient dialogClient = Stub(AsyncDialogClient);
+		
+		Closure start = {
+			User user, IOType ioType, String text, Map<String,Object> details, OutputStartCallback callback ->
+			int outputId = syncClient.outputStart(user, ioType, text, details);
+			callback.started(outputId);
+			FutureTask<Integer> future = new FutureTask<Integer>({ outputId } as Callable<Integer>);
+			future.run();
+			return future;
+		};
+		
+		dialogClient.outputStartAsync(_,_,_,_,_) >> {
+			User user, IOType ioType, String text, Map<String,Object> details, OutputStartCallback callback ->
+			outputBatchSizes.add(1);
+			return start(user, ioType, text, details, callback);
+		}
+		
+		// a single List parameter would get Spock's argument list
+		dialogClient.outputStartBatch(_) >> {
+			args ->
+			List<OutputRequest> requests = (List<OutputRequest>)args[0];
+			outputBatchSizes.add(requests.size());
+			return requests.collect {
+				OutputRequest request ->
+				start(request.user, request.ioType, request.text, request.details, request.callback)
+			};
+		}
+		
+		dialogClient.outputAbort(_, _) >> {
+			int outputId, User user ->
+			syncClient.outputAbort(outputId, user);
+		}
+		
+		return dialogClient;
+	}
+	
 	void waitForTasks() {
 		session.waitForExecutorTasks();
 	}
@@ -214,6 +273,28 @@ public class TestImplBase extends Specification {
 		);
 	}
 	
+	void inputPartial(String text, Map<String,String> details=null, User speaker=null) {
+		session.inputPartial(
+			speaker,
+			IOType.SPEECH,
+			text,
+			details
+		);
+	}
+	
+	void input(List<InputHypothesis> hypotheses, Map<String,String> details=null, User speaker=null) {
+		session.inputStarted(
+			speaker,
+			IOType.SPEECH
+		);
+		session.inputComplete(
+			speaker,
+			IOType.SPEECH,
+			hypotheses,
+			details
+		);
+	}
+	
 	void addObject(Map<String,String> properties) {
 		session.getTransactionManager().addChangeNotificationAdd(
 			-1,
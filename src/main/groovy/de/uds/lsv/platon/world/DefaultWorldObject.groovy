@@ -77,6 +77,11 @@ public class DefaultWorldObject extends WorldObject {
 		return stringProperties.every({ this.@properties[it.key] == it.value })
 	}
 	
+	@Override
+	protected String getWorldFieldAsString(String name) {
+		return this.@properties.get(name);
+	}
+	
 	@Override
 	public void modified(Map<String,String> stringProperties) {
 		this.@properties.putAll(stringProperties);
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.world;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * A single modification of a world object, computed once
+ * by the WorldState and shared by all ModifyListeners.
+ *
+ * Both property maps use internal names (see
+ * WorldObject.getPropertiesWithInternalNames) and
+ * cannot be modified.
+ *
+ * @author mgropp
+ */
+public class ObjectChange {
+	private final WorldObject object;
+	private final Map<String,Object> oldProperties;
+	private final Map<String,Object> newProperties;
+	private final Set<String> changedProperties;
+	private final Set<String> notifiedProperties;
+	
+	/**
+	 * @param oldProperties
+	 *   the object's properties before the modification;
+	 *   the current properties are taken from the object
+	 */
+	public ObjectChange(WorldObject object, Map<String,Object> oldProperties) {
+		this(object, oldProperties, object.getPropertiesWithInternalNames(), null);
+	}
+	
+	/**
+	 * @param notifiedProperties
+	 *   the keys of the change notification, or null
+	 *   to use the changed properties
+	 */
+	public ObjectChange(WorldObject object, Map<String,Object> oldProperties, Map<String,Object> newProperties, Set<String> notifiedProperties) {
+		this.object = object;
+		this.oldProperties = Collections.unmodifiableMap(oldProperties);
+		this.newProperties = Collections.unmodifiableMap(newProperties);
+		
+		Set<String> changedProperties = new HashSet<>();
+		for (Entry<String,Object> entry : newProperties.entrySet()) {
+			Object oldValue = oldProperties.get(entry.getKey());
+			if (
+				(entry.getValue() == null) ?
+				(oldValue != null || !oldProperties.containsKey(entry.getKey())) :
+				!entry.getValue().equals(oldValue)
+			) {
+				changedProperties.add(entry.getKey());
+			}
+		}
+		for (String key : oldProperties.keySet()) {
+			if (!newProperties.containsKey(key)) {
+				changedProperties.add(key);
+			}
+		}
+		this.changedProperties = Collections.unmodifiableSet(changedProperties);
+		this.notifiedProperties =
+			(notifiedProperties == null) ?
+			this.changedProperties :
+			Collections.unmodifiableSet(notifiedProperties);
+	}
+	
+	public WorldObject getObject() {
+		return object;
+	}
+	
+	public String getId() {
+		return object.getId();
+	}
+	
+	public Map<String,Object> getOldProperties() {
+		return oldProperties;
+	}
+	
+	public Map<String,Object> getNewProperties() {
+		return newProperties;
+	}
+	
+	/**
+	 * @return
+	 *   the names of all properties whose value differs
+	 *   between the old and the new state
+	 */
+	public Set<String> getChangedProperties() {
+		return changedProperties;
+	}
+	
+	/**
+	 * @return
+	 *   the keys of the change notification (including
+	 *   properties whose value did not change)
+	 */
+	public Set<String> getNotifiedProperties() {
+		return notifiedProperties;
+	}
+	
+	public boolean changed(String property) {
+		return changedProperties.contains(property);
+	}
+	
+	public Object getOldValue(String property) {
+		return oldProperties.get(property);
+	}
+	
+	public Object getNewValue(String property) {
+		return newProperties.get(property);
+	}
+	
+	@Override
+	public String toString() {
+		return String.format(
+			"[ObjectChange %s: %s (old: %s, new: %s)]",
+			object.getId(),
+			changedProperties,
+			oldProperties,
+			newProperties
+		);
+	}
+}
@@ -16,6 +16,10 @@
 
 package de.uds.lsv.platon.world;
 
+import groovy.transform.TypeChecked
+
+import java.util.Map.Entry
+
 import org.apache.commons.logging.Log
 import org.apache.commons.logging.LogFactory
 
@@ -25,114 +29,273 @@ import de.uds.lsv.platon.world.WorldState.ModifyListener
  * Unlike a normal listener, allows you to subscribe to a specific
  * state or a specific state transition in the properties of an
  * object.
+ *
+ * Subscriptions to a state of a single object (awaitState) are
+ * indexed by object id and property, so a modification only
+ * looks at the subscriptions for the properties it touches.
+ * All subscriptions are kept in copy-on-write structures:
+ * subscribing and cancelling copy, delivering a modification
+ * doesn't.
  */
+@TypeChecked
 class SubscriptionManager implements ModifyListener {
 	private static final Log logger = LogFactory.getLog(SubscriptionManager.class.getName());
 	
-	public class Subscription {
+	public static abstract class Subscription {
+		protected final SubscriptionManager manager;
+		protected final Closure action;
+		
+		protected Subscription(SubscriptionManager manager, Closure action) {
+			this.manager = manager;
+			this.action = action;
+		}
+		
+		public void cancel() {
+			manager.cancelSubscription(this);
+		}
+	}
+	
+	/**
+	 * A subscription with arbitrary filters on the old and
+	 * new properties of any object.
+	 */
+	private static class FilterSubscription extends Subscription {
 		private final Closure fromFilter;
 		private final Closure toFilter;
-		private final Closure action;
 		
-		private Subscription(Closure fromFilter, Closure toFilter, Closure action) {
+		private FilterSubscription(SubscriptionManager manager, Closure fromFilter, Closure toFilter, Closure action) {
+			super(manager, action);
 			this.fromFilter = fromFilter;
 			this.toFilter = toFilter;
-			this.action = action;
 		}
 		
-		public void cancel() {
-			cancelSubscription(this);
+		@Override
+		public String toString() {
+			return String.format("%s->%s => %s", fromFilter, toFilter, action);
+		}
+	}
+	
+	/**
+	 * A subscription to a single object reaching a given state.
+	 */
+	private static class StateSubscription extends Subscription {
+		private final String objectId;
+		/** property values the object has to reach (external names) */
+		private final Map<String,String> values;
+		
+		private StateSubscription(SubscriptionManager manager, String objectId, Map<String,String> values, Closure action) {
+			super(manager, action);
+			this.objectId = objectId;
+			this.values = values;
+		}
+		
+		private boolean matches(Map<String,Object> newProperties) {
+			for (Entry<String,String> entry : values.entrySet()) {
+				Object value = newProperties.get(internalName(entry.getKey()));
+				if (value?.toString() != entry.getValue()) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%s %s => %s", objectId, values, action);
 		}
 	}
 	
 	private final WorldState worldState;
-	private final Map<Closure,Map<Closure,List<Closure>>> subscriptions = new LinkedHashMap<>();
+	
+	private volatile List<FilterSubscription> filterSubscriptions = Collections.emptyList();
+	/** object id -> property -> subscriptions */
+	private volatile Map<String,Map<String,List<StateSubscription>>> stateSubscriptions = Collections.emptyMap();
 	
 	public SubscriptionManager(WorldState worldState) {
 		this.worldState = worldState;
 		worldState.addModifyListener(this);
 	}
 	
+	/**
+	 * Calls action (with the object as its argument) whenever
+	 * filter accepts the properties of a modified object
+	 * (with external names, see WorldObject.getProperties).
+	 */
 	public Subscription subscribe(Closure filter, Closure action) {
-		logger.debug(String.format(
-			"Adding world state subscription %s => %s",
-			filter.toString(), action.toString()
-		));
 		return subscribe(null, filter, action);
 	}
 	
+	/**
+	 * Like subscribe(Closure, Closure), if fromFilter accepts
+	 * the properties before the modification, too (with
+	 * internal names, see WorldObject.getPropertiesWithInternalNames).
+	 */
 	public synchronized Subscription subscribe(Closure fromFilter, Closure toFilter, Closure action) {
-		logger.debug(String.format(
-			"Adding world state subscription %s -> %s => %s",
-			fromFilter.toString(), toFilter.toString(),
-			action.toString()
-		));
+		FilterSubscription subscription = new FilterSubscription(this, fromFilter, toFilter, action);
+		logger.debug("Adding world state subscription " + subscription);
+		
+		List<FilterSubscription> subscriptions = new ArrayList<>(filterSubscriptions);
+		subscriptions.add(subscription);
+		filterSubscriptions = Collections.unmodifiableList(subscriptions);
+		
+		return subscription;
+	}
 	
-		if (!subscriptions.containsKey(fromFilter)) {
-			subscriptions.put(fromFilter, new LinkedHashMap<>());
-		}
-		def inner = subscriptions[fromFilter];
-		if (!inner.containsKey(toFilter)) {
-			inner[toFilter] = new ArrayList<>();
+	/**
+	 * Calls action (with the object as its argument) whenever
+	 * a modification leaves the object with the given id with
+	 * the given property values.
+	 *
+	 * @param values
+	 *   property values, using the names of change notifications
+	 *   (WorldObject.FIELD_ID and FIELD_TYPE are allowed)
+	 */
+	public synchronized Subscription awaitState(String objectId, Map<String,String> values, Closure action) {
+		StateSubscription subscription = new StateSubscription(
+			this,
+			objectId,
+			new LinkedHashMap<String,String>(values),
+			action
+		);
+		logger.debug("Adding world state subscription " + subscription);
+		
+		Map<String,List<StateSubscription>> byProperty = stateSubscriptions.get(objectId);
+		byProperty = (byProperty == null) ? new HashMap<String,List<StateSubscription>>() : new HashMap<>(byProperty);
+		for (String key : indexKeys(subscription)) {
+			List<StateSubscription> list = byProperty.get(key);
+			list = (list == null) ? new ArrayList<StateSubscription>() : new ArrayList<>(list);
+			list.add(subscription);
+			byProperty.put(key, Collections.unmodifiableList(list));
 		}
 		
-		inner[toFilter].add(action);
+		Map<String,Map<String,List<StateSubscription>>> subscriptions = new HashMap<>(stateSubscriptions);
+		subscriptions.put(objectId, Collections.unmodifiableMap(byProperty));
+		stateSubscriptions = Collections.unmodifiableMap(subscriptions);
 		
-		return new Subscription(fromFilter, toFilter, action);
+		return subscription;
 	}
 	
 	public synchronized void cancelSubscription(Subscription subscription) {
-		logger.debug(String.format(
-			"Cancelling world state subscription %s->%s => %s",
-			subscription.fromFilter.toString(),
-			subscription.toFilter.toString(),
-			subscription.action.toString()
-		));
-	
-		List<Closure> actions = subscriptions.get(subscription.fromFilter)?.get(subscription.toFilter);
-		if (actions == null) {
+		logger.debug("Cancelling world state subscription " + subscription);
+		
+		if (subscription instanceof StateSubscription) {
+			cancelStateSubscription((StateSubscription)subscription);
+		} else if (filterSubscriptions.contains(subscription)) {
+			List<FilterSubscription> subscriptions = new ArrayList<>(filterSubscriptions);
+			subscriptions.remove(subscription);
+			filterSubscriptions = Collections.unmodifiableList(subscriptions);
+		}
+	}
+	
+	private void cancelStateSubscription(StateSubscription subscription) {
+		Map<String,List<StateSubscription>> byProperty = stateSubscriptions.get(subscription.objectId);
+		if (byProperty == null) {
 			return;
 		}
 		
-		actions.remove(subscription.action);
-		if (actions.isEmpty()) {
-			subscriptions[subscription.fromFilter].remove(subscription.toFilter);
+		byProperty = new HashMap<>(byProperty);
+		for (String key : indexKeys(subscription)) {
+			List<StateSubscription> list = byProperty.get(key);
+			if (list == null || !list.contains(subscription)) {
+				continue;
+			}
+			
+			if (list.size() == 1) {
+				byProperty.remove(key);
+			} else {
+				list = new ArrayList<>(list);
+				list.remove(subscription);
+				byProperty.put(key, Collections.unmodifiableList(list));
+			}
 		}
 		
-		if (subscriptions[subscription.fromFilter].isEmpty()) {
-			subscriptions.remove(subscription.fromFilter);
+		Map<String,Map<String,List<StateSubscription>>> subscriptions = new HashMap<>(stateSubscriptions);
+		if (byProperty.isEmpty()) {
+			subscriptions.remove(subscription.objectId);
+		} else {
+			subscriptions.put(subscription.objectId, Collections.unmodifiableMap(byProperty));
 		}
+		stateSubscriptions = Collections.unmodifiableMap(subscriptions);
 	}
-
+	
 	@Override
-	public void objectModified(WorldObject object, Map<String,Object> oldProperties) {
-		Map<String,Object> newProperties = object.getProperties();
+	public void objectModified(ObjectChange change) {
+		WorldObject object = change.getObject();
+		Map<String,Object> newProperties = change.getNewProperties();
 		
-		logger.debug("World object modified: " + newProperties);
+		if (logger.isDebugEnabled()) {
+			logger.debug("World object modified: " + newProperties);
+		}
 		
-		def subscriptionsCopy = new LinkedHashMap<>(subscriptions);
-		for (fromFilter in subscriptionsCopy.keySet()) {
-			if (fromFilter == null || fromFilter(oldProperties)) {
-				if (fromFilter != null) {
-					logger.debug("fromFilter matches: " + fromFilter);
-				}
-				
-				def subscriptionsFrom = new LinkedHashMap<>(subscriptionsCopy[fromFilter]);
-				for (toFilter in subscriptionsFrom.keySet()) {
-					if (toFilter(newProperties)) {
-						logger.debug(String.format(
-							"Filter matches: %s->%s",
-							fromFilter.toString(),
-							toFilter.toString()
-						));
-						
-						def subscriptionsFromTo = new ArrayList<>(subscriptionsFrom[toFilter]); 
-						for (action in subscriptionsFromTo) {
-							action(object);
-						}
-					}
+		Map<String,List<StateSubscription>> byProperty = stateSubscriptions.get(change.getId());
+		if (byProperty != null) {
+			Set<StateSubscription> candidates = new LinkedHashSet<>();
+			addAll(candidates, byProperty.get(WorldObject.FIELD_ID));
+			for (String key : change.getNotifiedProperties()) {
+				addAll(candidates, byProperty.get(key));
+			}
+			
+			for (StateSubscription subscription : candidates) {
+				if (subscription.matches(newProperties)) {
+					logger.debug("State matches: " + subscription);
+					subscription.action.call(object);
 				}
 			}
 		}
+		
+		List<FilterSubscription> subscriptions = filterSubscriptions;
+		if (subscriptions.isEmpty()) {
+			return;
+		}
+		
+		Map<String,Object> oldProperties = change.getOldProperties();
+		Map<String,Object> filterProperties = externalNames(newProperties);
+		for (FilterSubscription subscription : subscriptions) {
+			if (
+				(subscription.fromFilter == null || subscription.fromFilter.call(oldProperties)) &&
+				subscription.toFilter.call(filterProperties)
+			) {
+				logger.debug("Filter matches: " + subscription);
+				subscription.action.call(object);
+			}
+		}
+	}
+	
+	/**
+	 * A state subscription is indexed under each of its
+	 * properties, or under the id field if it has none.
+	 */
+	private static Collection<String> indexKeys(StateSubscription subscription) {
+		Set<String> keys = new LinkedHashSet<>(subscription.values.keySet());
+		keys.remove(WorldObject.FIELD_ID);
+		if (keys.isEmpty()) {
+			return Collections.singleton(WorldObject.FIELD_ID);
+		}
+		return keys;
+	}
+	
+	/**
+	 * Filters get the new state with external names
+	 * (see WorldObject.getProperties).
+	 */
+	private static Map<String,Object> externalNames(Map<String,Object> properties) {
+		Map<String,Object> map = new HashMap<>(properties);
+		if (map.containsKey("type")) {
+			map.put(WorldObject.FIELD_TYPE, map.remove("type"));
+		}
+		return Collections.unmodifiableMap(map);
+	}
+	
+	private static String internalName(String key) {
+		if (WorldObject.FIELD_TYPE.equals(key)) {
+			return "type";
+		}
+		return key;
+	}
+	
+	private static void addAll(Set<StateSubscription> set, List<StateSubscription> list) {
+		if (list != null) {
+			set.addAll(list);
+		}
 	}
 }
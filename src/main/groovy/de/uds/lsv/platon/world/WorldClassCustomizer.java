@@ -0,0 +1,346 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.world;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.VariableScope;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.expr.BooleanExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.FieldExpression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.TernaryExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.ExpressionStatement;
+import org.codehaus.groovy.ast.stmt.IfStatement;
+import org.codehaus.groovy.ast.stmt.ReturnStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.syntax.Token;
+import org.codehaus.groovy.syntax.Types;
+
+/**
+ * Generates direct field accessors for @WorldClass classes at
+ * compile time: overrides of WorldObject.setWorldField,
+ * getWorldFieldAsString and putWorldFields that read, parse and
+ * assign the public @WorldFields declared in the class without
+ * going through WorldClassInfo.
+ *
+ * Methods the class declares itself are left alone, fields that
+ * can't be assigned from a string (final or of an unsupported
+ * type) are passed on to the superclass implementation.
+ *
+ * DialogScriptCache adds this customizer when compiling dialog
+ * scripts, shared or not. Precompiled world classes keep using
+ * the cached accessors in WorldClassInfo.
+ *
+ * @author mgropp
+ */
+public class WorldClassCustomizer extends CompilationCustomizer {
+	private static final Log logger = LogFactory.getLog(WorldClassCustomizer.class.getName());
+	
+	private static final ClassNode WORLD_OBJECT_TYPE = ClassHelper.make(WorldObject.class);
+	private static final String WORLD_CLASS_NAME = WorldClass.class.getName();
+	private static final String WORLD_FIELD_NAME = WorldField.class.getName();
+	
+	/**
+	 * Part of the DialogScriptCache key: increase it whenever
+	 * the generated code changes, so scripts stored on disk
+	 * with older accessors are compiled again.
+	 */
+	public static final int VERSION = 1;
+	
+	public WorldClassCustomizer() {
+		super(CompilePhase.CANONICALIZATION);
+	}
+	
+	@Override
+	public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+		if (!isWorldClass(classNode)) {
+			return;
+		}
+		
+		List<FieldNode> fields = new ArrayList<>();
+		for (FieldNode field : classNode.getFields()) {
+			if (
+				field.isPublic() &&
+				!field.isStatic() &&
+				hasAnnotation(field.getAnnotations(), WORLD_FIELD_NAME)
+			) {
+				fields.add(field);
+			}
+		}
+		
+		if (fields.isEmpty()) {
+			return;
+		}
+		
+		logger.debug("Generating world field accessors for " + classNode.getName());
+		
+		addSetWorldField(classNode, fields);
+		addGetWorldFieldAsString(classNode, fields);
+		addPutWorldFields(classNode, fields);
+	}
+	
+	private static boolean isWorldClass(ClassNode classNode) {
+		return
+			!classNode.isInterface() &&
+			hasAnnotation(classNode.getAnnotations(), WORLD_CLASS_NAME) &&
+			classNode.isDerivedFrom(WORLD_OBJECT_TYPE);
+	}
+	
+	private static boolean hasAnnotation(List<AnnotationNode> annotations, String name) {
+		for (AnnotationNode annotation : annotations) {
+			if (name.equals(annotation.getClassNode().getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * protected void setWorldField(String name, String value) {
+	 *   if (name == "a") { this.a = parse(value) }
+	 *   else if ...
+	 *   else { super.setWorldField(name, value) }
+	 * }
+	 */
+	private static void addSetWorldField(ClassNode classNode, List<FieldNode> fields) {
+		Parameter name = new Parameter(ClassHelper.STRING_TYPE, "name");
+		Parameter value = new Parameter(ClassHelper.STRING_TYPE, "value");
+		Parameter[] parameters = new Parameter[] { name, value };
+		
+		Statement code = new ExpressionStatement(
+			new MethodCallExpression(
+				VariableExpression.SUPER_EXPRESSION,
+				"setWorldField",
+				new ArgumentListExpression(new VariableExpression(name), new VariableExpression(value))
+			)
+		);
+		
+		for (int i = fields.size() - 1; i >= 0; i--) {
+			FieldNode field = fields.get(i);
+			if (field.isFinal()) {
+				continue;
+			}
+			
+			Expression parsed = parse(field.getType(), new VariableExpression(value));
+			if (parsed == null) {
+				continue;
+			}
+			
+			code = new IfStatement(
+				nameEquals(field, name),
+				new ExpressionStatement(
+					new BinaryExpression(
+						new FieldExpression(field),
+						Token.newSymbol(Types.ASSIGN, -1, -1),
+						parsed
+					)
+				),
+				code
+			);
+		}
+		
+		addMethod(classNode, "setWorldField", ClassHelper.VOID_TYPE, parameters, code);
+	}
+	
+	/**
+	 * protected String getWorldFieldAsString(String name) {
+	 *   if (name == "a") { return (this.a != null) ? this.a.toString() : null }
+	 *   ...
+	 *   return super.getWorldFieldAsString(name)
+	 * }
+	 */
+	private static void addGetWorldFieldAsString(ClassNode classNode, List<FieldNode> fields) {
+		Parameter name = new Parameter(ClassHelper.STRING_TYPE, "name");
+		
+		BlockStatement code = new BlockStatement();
+		for (FieldNode field : fields) {
+			Expression asString = new MethodCallExpression(
+				new FieldExpression(field),
+				"toString",
+				ArgumentListExpression.EMPTY_ARGUMENTS
+			);
+			
+			if (!ClassHelper.isPrimitiveType(field.getType())) {
+				asString = new TernaryExpression(
+					new BooleanExpression(
+						new BinaryExpression(
+							new FieldExpression(field),
+							Token.newSymbol(Types.COMPARE_NOT_EQUAL, -1, -1),
+							ConstantExpression.NULL
+						)
+					),
+					asString,
+					ConstantExpression.NULL
+				);
+			}
+			
+			code.addStatement(
+				new IfStatement(
+					nameEquals(field, name),
+					new ReturnStatement(asString),
+					new BlockStatement()
+				)
+			);
+		}
+		
+		code.addStatement(
+			new ReturnStatement(
+				new MethodCallExpression(
+					VariableExpression.SUPER_EXPRESSION,
+					"getWorldFieldAsString",
+					new ArgumentListExpression(new VariableExpression(name))
+				)
+			)
+		);
+		
+		addMethod(classNode, "getWorldFieldAsString", ClassHelper.STRING_TYPE, new Parameter[] { name }, code);
+	}
+	
+	/**
+	 * protected void putWorldFields(Map map) {
+	 *   super.putWorldFields(map) // unless the superclass is WorldObject
+	 *   map.put("a", this.a)
+	 *   ...
+	 * }
+	 */
+	private static void addPutWorldFields(ClassNode classNode, List<FieldNode> fields) {
+		Parameter map = new Parameter(ClassHelper.MAP_TYPE.getPlainNodeReference(), "map");
+		
+		BlockStatement code = new BlockStatement();
+		if (!WORLD_OBJECT_TYPE.equals(classNode.getSuperClass())) {
+			// inherited @WorldFields
+			code.addStatement(
+				new ExpressionStatement(
+					new MethodCallExpression(
+						VariableExpression.SUPER_EXPRESSION,
+						"putWorldFields",
+						new ArgumentListExpression(new VariableExpression(map))
+					)
+				)
+			);
+		}
+		
+		for (FieldNode field : fields) {
+			code.addStatement(
+				new ExpressionStatement(
+					new MethodCallExpression(
+						new VariableExpression(map),
+						"put",
+						new ArgumentListExpression(
+							new ConstantExpression(field.getName()),
+							new FieldExpression(field)
+						)
+					)
+				)
+			);
+		}
+		
+		addMethod(classNode, "putWorldFields", ClassHelper.VOID_TYPE, new Parameter[] { map }, code);
+	}
+	
+	private static void addMethod(ClassNode classNode, String name, ClassNode returnType, Parameter[] parameters, Statement code) {
+		if (classNode.getDeclaredMethod(name, parameters) != null) {
+			logger.debug(String.format(
+				"%s declares %s itself, not generating it.",
+				classNode.getName(),
+				name
+			));
+			return;
+		}
+		
+		MethodNode method = new MethodNode(
+			name,
+			Modifier.PROTECTED,
+			returnType,
+			parameters,
+			ClassNode.EMPTY_ARRAY,
+			code
+		);
+		method.setVariableScope(new VariableScope());
+		classNode.addMethod(method);
+	}
+	
+	private static BooleanExpression nameEquals(FieldNode field, Parameter name) {
+		return new BooleanExpression(
+			new BinaryExpression(
+				new VariableExpression(name),
+				Token.newSymbol(Types.COMPARE_EQUAL, -1, -1),
+				new ConstantExpression(field.getName())
+			)
+		);
+	}
+	
+	/**
+	 * Same conversions as WorldClassInfo.
+	 *
+	 * @return
+	 *   null if fields of this type can't be assigned
+	 *   from strings
+	 */
+	private static Expression parse(ClassNode type, Expression value) {
+		if (ClassHelper.STRING_TYPE.equals(type)) {
+			return value;
+		} else if (ClassHelper.byte_TYPE.equals(type)) {
+			return parse(Byte.class, "parseByte", value);
+		} else if (ClassHelper.short_TYPE.equals(type)) {
+			return parse(Short.class, "parseShort", value);
+		} else if (ClassHelper.int_TYPE.equals(type)) {
+			return parse(Integer.class, "parseInt", value);
+		} else if (ClassHelper.long_TYPE.equals(type)) {
+			return parse(Long.class, "parseLong", value);
+		} else if (ClassHelper.float_TYPE.equals(type)) {
+			return parse(Float.class, "parseFloat", value);
+		} else if (ClassHelper.double_TYPE.equals(type)) {
+			return parse(Double.class, "parseDouble", value);
+		} else if (ClassHelper.boolean_TYPE.equals(type)) {
+			return parse(Boolean.class, "parseBoolean", value);
+		} else if (ClassHelper.char_TYPE.equals(type)) {
+			return parse(WorldObject.class, "parseWorldChar", value);
+		} else {
+			return null;
+		}
+	}
+	
+	private static Expression parse(Class<?> owner, String method, Expression value) {
+		return new MethodCallExpression(
+			new ClassExpression(ClassHelper.make(owner)),
+			method,
+			new ArgumentListExpression(value)
+		);
+	}
+}
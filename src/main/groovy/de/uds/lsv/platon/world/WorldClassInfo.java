@@ -0,0 +1,266 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.world;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-class metadata of a world object class, computed once
+ * per class: the @WorldClass type and accessors for all public
+ * @WorldField fields. WorldObject and WorldMaker use this instead
+ * of looking up fields, annotations and constructors reflectively
+ * on every access.
+ *
+ * @author mgropp
+ */
+class WorldClassInfo {
+	private static final ClassValue<WorldClassInfo> infos = new ClassValue<WorldClassInfo>() {
+		@Override
+		protected WorldClassInfo computeValue(Class<?> cls) {
+			return new WorldClassInfo(cls);
+		}
+	};
+	
+	private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+	
+	private static final MethodType GETTER_TYPE =
+		MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE =
+		MethodType.methodType(void.class, Object.class, String.class);
+	private static final MethodType CONSTRUCTOR_TYPE =
+		MethodType.methodType(Object.class);
+	
+	/**
+	 * Accessors of a single @WorldField field.
+	 */
+	static final class Property {
+		private final String name;
+		private final boolean writable;
+		/** (Object)Object, primitives are boxed */
+		private final MethodHandle getter;
+		/** (Object,String)void, parses the value; null if not settable */
+		private final MethodHandle setter;
+		/** why the field cannot be set (if setter is null) */
+		private final String setterError;
+		
+		private Property(Field field, WorldField annotation) {
+			this.name = field.getName();
+			this.writable = annotation.writable();
+			
+			try {
+				this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+			}
+			catch (IllegalAccessException e) {
+				throw new RuntimeException("Cannot access field " + field, e);
+			}
+			
+			MethodHandle setter = null;
+			String setterError = null;
+			if (Modifier.isFinal(field.getModifiers())) {
+				setterError = "Field " + field.getName() + " is final.";
+			} else {
+				MethodHandle parser = getParser(field.getType());
+				if (parser == null) {
+					setterError = "Unsupported type in field " + field.getName() + ": " + field.getType();
+				} else {
+					try {
+						setter = MethodHandles.filterArguments(
+							lookup.unreflectSetter(field),
+							1,
+							parser
+						).asType(SETTER_TYPE);
+					}
+					catch (IllegalAccessException e) {
+						setterError = "Cannot access field " + field + ": " + e.getMessage();
+					}
+				}
+			}
+			this.setter = setter;
+			this.setterError = setterError;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public boolean isWritable() {
+			return writable;
+		}
+		
+		public Object get(WorldObject object) {
+			try {
+				return (Object)getter.invokeExact((Object)object);
+			}
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			catch (Throwable t) {
+				throw new RuntimeException(t);
+			}
+		}
+		
+		public String getAsString(WorldObject object) {
+			Object value = get(object);
+			return (value == null) ? null : value.toString();
+		}
+		
+		public void set(WorldObject object, String value) {
+			if (setter == null) {
+				throw new RuntimeException(setterError);
+			}
+			
+			try {
+				setter.invokeExact((Object)object, value);
+			}
+			catch (RuntimeException | Error e) {
+				throw e;
+			}
+			catch (Throwable t) {
+				throw new RuntimeException(t);
+			}
+		}
+	}
+	
+	private final String worldClassType;
+	private final Map<String,Property> properties;
+	/** ()Object; null if there is no accessible default constructor */
+	private final MethodHandle constructor;
+	
+	private WorldClassInfo(Class<?> cls) {
+		WorldClass worldClass = cls.getAnnotation(WorldClass.class);
+		this.worldClassType = (worldClass == null) ? null : worldClass.value();
+		
+		Map<String,Property> properties = new LinkedHashMap<>();
+		for (Field field : cls.getFields()) {
+			if (Modifier.isStatic(field.getModifiers())) {
+				continue;
+			}
+			
+			WorldField annotation = field.getAnnotation(WorldField.class);
+			if (annotation != null) {
+				field.setAccessible(true);
+				properties.put(field.getName(), new Property(field, annotation));
+			}
+		}
+		this.properties = Collections.unmodifiableMap(properties);
+		
+		MethodHandle constructor = null;
+		if (!Modifier.isAbstract(cls.getModifiers())) {
+			try {
+				Constructor<?> defaultConstructor = cls.getConstructor();
+				defaultConstructor.setAccessible(true);
+				constructor = lookup.unreflectConstructor(defaultConstructor).asType(CONSTRUCTOR_TYPE);
+			}
+			catch (NoSuchMethodException | IllegalAccessException e) {
+				// no usable default constructor -- newInstance will complain
+			}
+		}
+		this.constructor = constructor;
+	}
+	
+	public static WorldClassInfo forClass(Class<?> cls) {
+		return infos.get(cls);
+	}
+	
+	/**
+	 * @return
+	 *   the value of the class' @WorldClass annotation,
+	 *   or null if there is none
+	 */
+	public String getWorldClassType() {
+		return worldClassType;
+	}
+	
+	/**
+	 * @return
+	 *   the @WorldField property with that name,
+	 *   or null if there is none
+	 */
+	public Property getProperty(String name) {
+		return properties.get(name);
+	}
+	
+	public Collection<Property> getProperties() {
+		return properties.values();
+	}
+	
+	/**
+	 * Puts the current values of all @WorldField
+	 * properties of the object into the map.
+	 */
+	public void putValues(WorldObject object, Map<String,Object> map) {
+		for (Property property : properties.values()) {
+			map.put(property.name, property.get(object));
+		}
+	}
+	
+	public Object newInstance(Class<?> cls) {
+		if (constructor == null) {
+			throw new RuntimeException("Cannot access constructor " + cls.getSimpleName() + "()");
+		}
+		
+		try {
+			return (Object)constructor.invokeExact();
+		}
+		catch (Throwable t) {
+			throw new RuntimeException("Could not create an instance of class " + cls, t);
+		}
+	}
+	
+	private static MethodHandle getParser(Class<?> type) {
+		try {
+			if (String.class.equals(type)) {
+				return MethodHandles.identity(String.class);
+			} else if (Byte.TYPE.equals(type)) {
+				return parser(Byte.class, "parseByte", type);
+			} else if (Short.TYPE.equals(type)) {
+				return parser(Short.class, "parseShort", type);
+			} else if (Integer.TYPE.equals(type)) {
+				return parser(Integer.class, "parseInt", type);
+			} else if (Long.TYPE.equals(type)) {
+				return parser(Long.class, "parseLong", type);
+			} else if (Float.TYPE.equals(type)) {
+				return parser(Float.class, "parseFloat", type);
+			} else if (Double.TYPE.equals(type)) {
+				return parser(Double.class, "parseDouble", type);
+			} else if (Boolean.TYPE.equals(type)) {
+				return parser(Boolean.class, "parseBoolean", type);
+			} else if (Character.TYPE.equals(type)) {
+				return parser(WorldObject.class, "parseWorldChar", type);
+			} else {
+				return null;
+			}
+		}
+		catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	private static MethodHandle parser(Class<?> owner, String name, Class<?> type)
+	throws NoSuchMethodException, IllegalAccessException {
+		return lookup.findStatic(owner, name, MethodType.methodType(type, String.class));
+	}
+}
@@ -18,8 +18,6 @@ package de.uds.lsv.platon.world;
 
 import groovy.lang.GroovyClassLoader;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -85,20 +83,7 @@ public class WorldMaker {
 		
 		} else {
 			Class<? extends WorldObject> typeClass = typeRegistry.get(type);
-			Constructor<? extends WorldObject> constructor;
-			try {
-				constructor = typeClass.getConstructor();
-			}
-			catch (NoSuchMethodException | SecurityException e) {
-				throw new RuntimeException("Cannot access constructor " + typeClass.getSimpleName() + "(DialogSession, Map)", e);
-			}
-	
-			try {
-				worldObject = constructor.newInstance();
-			}
-			catch (InstantiationException | IllegalAccessException| IllegalArgumentException | InvocationTargetException e) {
-				throw new RuntimeException("Could not create an instance of class " + typeClass, e);
-			}
+			worldObject = (WorldObject)WorldClassInfo.forClass(typeClass).newInstance(typeClass);
 		}
 		
 		worldObject.init(session, properties);
@@ -18,9 +18,6 @@ package de.uds.lsv.platon.world;
 
 import groovy.transform.TypeChecked
 
-import java.lang.reflect.Field
-import java.lang.reflect.Method
-import java.lang.reflect.Modifier
 import java.util.Map.Entry
 
 import de.uds.lsv.platon.session.DialogSession
@@ -37,12 +34,10 @@ public abstract class WorldObject implements Cloneable {
 	String type;
 	
 	public WorldObject() {
-		WorldClass annotation = this.getClass().getAnnotation(WorldClass.class);
-		if (annotation == null) {
+		type = WorldClassInfo.forClass(this.getClass()).getWorldClassType();
+		if (type == null) {
 			throw new RuntimeException("Missing WorldClass annotation!");
 		}
-		
-		type = annotation.value();
 	}
 	
 	public WorldObject(String type) {
@@ -66,14 +61,7 @@ public abstract class WorldObject implements Cloneable {
 		map.put(FIELD_ID, id);
 		map.put(FIELD_TYPE, getType());
 		
-		for (Field field : this.getClass().getFields()) {
-			if (field.getAnnotation(WorldField.class) != null) {
-				map.put(
-					field.getName(),
-					getWorldField(field)
-				);
-			}
-		}
+		putWorldFields(map);
 		
 		return map;
 	}
@@ -83,169 +71,11 @@ public abstract class WorldObject implements Cloneable {
 		map.put("id", id);
 		map.put("type", getType());
 		
-		for (Field field : this.getClass().getFields()) {
-			if (field.getAnnotation(WorldField.class) != null) {
-				map.put(
-					field.getName(),
-					getWorldField(field)
-				);
-			}
-		}
+		putWorldFields(map);
 		
 		return map;
 	}
 	
-	private Object getWorldField(Field field) {
-		if (Modifier.isPublic(field.getModifiers())) {
-			// Accessible field
-			if (Byte.TYPE.equals(field.getType())) {
-				return Byte.valueOf(field.getByte(this));
-			} else if (Short.TYPE.equals(field.getType())) {
-				return Short.valueOf(field.getShort(this));
-			} else if (Integer.TYPE.equals(field.getType())) {
-				return Integer.valueOf(field.getInt(this));
-			} else if (Long.TYPE.equals(field.getType())) {
-				return Long.valueOf(field.getLong(this));
-			} else if (Float.TYPE.equals(field.getType())) {
-				return Float.valueOf(field.getFloat(this));
-			} else if (Double.TYPE.equals(field.getType())) {
-				return Double.valueOf(field.getDouble(this));
-			} else if (Boolean.TYPE.equals(field.getType())) {
-				return Boolean.valueOf(field.getBoolean(this));
-			} else if (Character.TYPE.equals(field.getType())) {
-				return Character.valueOf(field.getChar(this));
-			} else {
-				return field.get(this);
-			}
-		
-		} else {
-			// Not accessible -- try setX (which should have been generated
-			// by Groovy for fields without visibility modifiers)
-			String methodName = field.getName();
-			if (Character.isLowerCase(methodName.charAt(0))) {
-				methodName = "" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
-			}
-			methodName = "get" + methodName;
-			
-			Method method = this.getClass().getMethod(methodName);
-			return method.invoke(this);
-		}
-	}
-	
-	private String getWorldFieldAsString(Field field) {
-		if (Modifier.isPublic(field.getModifiers())) {
-			// Accessible field
-			if (Byte.TYPE.equals(field.getType())) {
-				return Byte.toString(field.getByte(this));
-			} else if (Short.TYPE.equals(field.getType())) {
-				return Short.toString(field.getShort(this));
-			} else if (Integer.TYPE.equals(field.getType())) {
-				return Integer.toString(field.getInt(this));
-			} else if (Long.TYPE.equals(field.getType())) {
-				return Long.toString(field.getLong(this));
-			} else if (Float.TYPE.equals(field.getType())) {
-				return Float.toString(field.getFloat(this));
-			} else if (Double.TYPE.equals(field.getType())) {
-				return Double.toString(field.getDouble(this));
-			} else if (Boolean.TYPE.equals(field.getType())) {
-				return Boolean.toString(field.getBoolean(this));
-			} else if (Character.TYPE.equals(field.getType())) {
-				return Character.toString(field.getChar(this));
-			} else {
-				return field.get(this).toString();
-			}
-		
-		} else {
-			// Not accessible -- try setX (which should have been generated
-			// by Groovy for fields without visibility modifiers)
-			String methodName = field.getName();
-			if (Character.isLowerCase(methodName.charAt(0))) {
-				methodName = "" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
-			}
-			methodName = "get" + methodName;
-			
-			Method method = this.getClass().getMethod(methodName);
-			return method.invoke(this).toString();
-		}
-	}
-	
-	private void setWorldField(Field field, String value) {
-		if (field.getAnnotation(WorldField.class) == null) {
-			throw new IllegalAccessException("You can only modify fields annotated with @WorldField.");
-		}
-		
-		if (Modifier.isPublic(field.getModifiers())) {
-			// Accessible field
-			if (Byte.TYPE.equals(field.getType())) {
-				field.setByte(this, Byte.parseByte(value));
-			} else if (Short.TYPE.equals(field.getType())) {
-				field.setShort(this, Short.parseShort(value));
-			} else if (Integer.TYPE.equals(field.getType())) {
-				field.setInt(this, Integer.parseInt(value));
-			} else if (Long.TYPE.equals(field.getType())) {
-				field.setLong(this, Long.parseLong(value));
-			} else if (Float.TYPE.equals(field.getType())) {
-				field.setFloat(this, Float.parseFloat(value));
-			} else if (Double.TYPE.equals(field.getType())) {
-				field.setDouble(this, Double.parseDouble(value));
-			} else if (Boolean.TYPE.equals(field.getType())) {
-				field.setBoolean(this, Boolean.parseBoolean(value));
-			} else if (Character.TYPE.equals(field.getType())) {
-				if (value.length() != 1) {
-					throw new RuntimeException("Invalid char value: »" + value + "«");
-				}
-				field.setChar(this, value.charAt(0));
-			} else if (String.class.equals(field.getType())) {
-				field.set(this, value);
-			} else {
-				throw new RuntimeException("Unsupported type in field " + field.getName() + ": " + field.getType());
-			}
-		
-		} else {
-			// Not accessible -- try setX (which should have been generated
-			// by Groovy for fields without visibility modifiers)
-			String methodName = field.getName();
-			if (Character.isLowerCase(methodName.charAt(0))) {
-				methodName = "" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
-			}
-			methodName = "set" + methodName;
-			
-			if (Byte.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Byte.TYPE);
-				method.invoke(this, Byte.parseByte(value));
-			} else if (Short.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Short.TYPE);
-				method.invoke(this, Short.parseShort(value));
-			} else if (Integer.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Integer.TYPE);
-				method.invoke(this, Integer.parseInt(value));
-			} else if (Long.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Long.TYPE);
-				method.invoke(this, Long.parseLong(value));
-			} else if (Float.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Float.TYPE);
-				method.invoke(this, Float.parseFloat(value));
-			} else if (Double.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Double.TYPE);
-				method.invoke(this, Double.parseDouble(value));
-			} else if (Boolean.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Boolean.TYPE);
-				method.invoke(this, Boolean.parseBoolean(value));
-			} else if (Character.TYPE.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, Character.TYPE);
-				if (value.length() != 1) {
-					throw new RuntimeException("Invalid char value: »" + value + "«");
-				}
-				method.invoke(this, value.charAt(0));
-			} else if (String.class.equals(field.getType())) {
-				Method method = this.getClass().getMethod(methodName, String.class);
-				method.invoke(this, value);
-			} else {
-				throw new RuntimeException("Unsupported type in field " + field.getName() + ": " + field.getType());
-			}
-		}
-	}
-	
 	public boolean matchesProperties(Map<String,String> stringProperties) {
 		for (Entry<String,String> entry : stringProperties.entrySet()) {
 			if (FIELD_ID.equals(entry.getKey())) {
@@ -256,24 +86,32 @@ public abstract class WorldObject implements Cloneable {
 				if (!type.equals(entry.getValue())) {
 					return false;
 				}
-			} else {
-				Field field;
-				try {
-					field = this.getClass().getField(entry.getKey());
-				}
-				catch (NoSuchFieldException e) {
-					return false;
-				}
-				
-				if (!entry.getValue().equals(getWorldFieldAsString(field))) {
-					return false;
-				}
+			} else if (!entry.getValue().equals(getWorldFieldAsString(entry.getKey()))) {
+				return false;
 			}
 		}
 		
 		return true;
 	}
 	
+	/**
+	 * The value of a property as it would appear in a
+	 * change notification (see matchesProperties).
+	 * 
+	 * @return
+	 *   null if there is no such world field or its
+	 *   value is null
+	 */
+	public String getWorldPropertyAsString(String name) {
+		if (FIELD_ID.equals(name)) {
+			return id;
+		} else if (FIELD_TYPE.equals(name)) {
+			return type;
+		}
+		
+		return getWorldFieldAsString(name);
+	}
+	
 	/**
 	 * True iff the field is part of the object state
 	 * transferred between dialog engine end world server.
@@ -281,13 +119,7 @@ public abstract class WorldObject implements Cloneable {
 	 * @return
 	 */
 	public boolean isWorldField(String name) {
-		Field field = getClass().getField(name);
-		if (field == null) {
-			return false;
-		}
-		
-		WorldField annotation = field.getAnnotation(WorldField.class);
-		return (annotation != null);
+		return (WorldClassInfo.forClass(this.getClass()).getProperty(name) != null);
 	}
 	
 	/**
@@ -299,17 +131,8 @@ public abstract class WorldObject implements Cloneable {
 	 * @return
 	 */
 	public boolean isWritableField(String name) {
-		Field field = getClass().getField(name);
-		if (field == null) {
-			return false;
-		}
-		
-		WorldField annotation = field.getAnnotation(WorldField.class);
-		if (annotation == null) {
-			return false;
-		}
-		
-		return annotation.writable();
+		WorldClassInfo.Property property = WorldClassInfo.forClass(this.getClass()).getProperty(name);
+		return (property != null && property.isWritable());
 	}
 	
 	public void modified(Map<String,String> stringProperties) {
@@ -321,11 +144,54 @@ public abstract class WorldObject implements Cloneable {
 				continue;
 			}
 			
-			setWorldField(
-				this.getClass().getField(entry.getKey()),
-				entry.getValue()
-			);
+			setWorldField(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	// The following three methods are the only places where
+	// @WorldField values are accessed. For @WorldClass classes
+	// in dialog scripts, WorldClassCustomizer generates overrides
+	// that access the fields directly.
+	
+	/**
+	 * Parses the value and assigns it to a @WorldField.
+	 */
+	protected void setWorldField(String name, String value) {
+		WorldClassInfo.Property property = WorldClassInfo.forClass(this.getClass()).getProperty(name);
+		if (property == null) {
+			// throws NoSuchFieldException if there is no such field at all
+			this.getClass().getField(name);
+			throw new IllegalAccessException("You can only modify fields annotated with @WorldField.");
+		}
+		
+		property.set(this, value);
+	}
+	
+	/**
+	 * @return
+	 *   the string value of a @WorldField, or null if there
+	 *   is no such field or its value is null
+	 */
+	protected String getWorldFieldAsString(String name) {
+		WorldClassInfo.Property property = WorldClassInfo.forClass(this.getClass()).getProperty(name);
+		return (property == null) ? null : property.getAsString(this);
+	}
+	
+	/**
+	 * Puts the values of all @WorldFields into the map.
+	 */
+	protected void putWorldFields(Map<String,Object> map) {
+		WorldClassInfo.forClass(this.getClass()).putValues(this, map);
+	}
+	
+	/**
+	 * Parser for char @WorldFields (used by generated code).
+	 */
+	protected static char parseWorldChar(String value) {
+		if (value.length() != 1) {
+			throw new RuntimeException("Invalid char value: »" + value + "«");
 		}
+		return value.charAt(0);
 	}
 	
 	@Override
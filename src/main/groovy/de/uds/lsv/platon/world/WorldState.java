@@ -20,15 +20,17 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import de.martingropp.util.Pair;
 import de.uds.lsv.platon.action.Action;
 import de.uds.lsv.platon.action.EnvironmentModifiedAction;
 import de.uds.lsv.platon.action.ObjectAddedAction;
@@ -53,7 +55,11 @@ public class WorldState implements Closeable {
 	}
 	
 	public static interface ModifyListener {
-		void objectModified(WorldObject object, Map<String,Object> oldState);
+		/**
+		 * @param change
+		 *   shared by all listeners
+		 */
+		void objectModified(ObjectChange change);
 	}
 	
 	public static interface DeleteListener {
@@ -64,9 +70,30 @@ public class WorldState implements Closeable {
 		void environmentModified(String key, String value);
 	}
 	
+	/**
+	 * Can be implemented by listeners that know cheaply
+	 * whether they could react to an event at all.
+	 * Listeners returning false are not notified.
+	 */
+	public static interface InterestFilter {
+		boolean mayReactToAdded(WorldObject object);
+		boolean mayReactToModified(ObjectChange change);
+		boolean mayReactToDeleted(WorldObject object);
+		boolean mayReactToEnvironment(String key);
+	}
+	
 	/** Don't modify this directly! */
 	private final Map<String,WorldObject> objects = new HashMap<>();
 	
+	/** type => id => object */
+	private final Map<String,Map<String,WorldObject>> typeIndex = new HashMap<>();
+	
+	/**
+	 * property => value (as string) => id => object,
+	 * for the properties passed to addPropertyIndex
+	 */
+	private final Map<String,Map<String,Map<String,WorldObject>>> propertyIndexes = new HashMap<>();
+	
 	private final List<AddListener> addListeners = new ArrayList<>();
 	private final List<ModifyListener> modifyListeners = new ArrayList<>();
 	private final List<DeleteListener> deleteListeners = new ArrayList<>();
@@ -102,6 +129,7 @@ public class WorldState implements Closeable {
 		assert (object != null);
 		
 		objects.put(objectId, object);
+		addToIndexes(object);
 		
 		logger.info("New object: " + object);
 		
@@ -119,7 +147,9 @@ public class WorldState implements Closeable {
 		WorldObject object = doChangeNotificationAdd(properties);
 		if (object != null) {
 			for (AddListener listener : addListeners) {
-				listener.objectAdded(object);
+				if (mayReactToAdded(listener, object)) {
+					listener.objectAdded(object);
+				}
 			}
 		}
 	}
@@ -128,7 +158,7 @@ public class WorldState implements Closeable {
 	 * Performs changes, but does not invoke listeners.
 	 * Exists mainly for the Object*edAction classes (-> transactions).
 	 */
-	public Pair<WorldObject,Map<String,Object>> doChangeNotificationModify(Map<String,String> modifications) {
+	public ObjectChange doChangeNotificationModify(Map<String,String> modifications) {
 		logger.debug(String.format("changeNotificationModify(%s)", modifications));
 		
 		if (!modifications.containsKey(WorldObject.FIELD_ID)) {
@@ -142,10 +172,26 @@ public class WorldState implements Closeable {
 		
 		WorldObject object = objects.get(objectId);
 		Map<String,Object> oldState = object.getPropertiesWithInternalNames();
-		
 		object.modified(modifications);
+		ObjectChange change = new ObjectChange(
+			object,
+			oldState,
+			object.getPropertiesWithInternalNames(),
+			modifications.keySet()
+		);
 		
-		return new Pair<>(object, oldState);
+		if (!propertyIndexes.isEmpty()) {
+			for (String property : change.getChangedProperties()) {
+				Map<String,Map<String,WorldObject>> index = propertyIndexes.get(property);
+				if (index != null) {
+					Object oldValue = change.getOldValue(property);
+					removeFromIndex(index, (oldValue == null) ? null : oldValue.toString(), object);
+					addToIndex(index, object.getWorldPropertyAsString(property), object);
+				}
+			}
+		}
+		
+		return change;
 	}
 	
 	public synchronized void changeNotificationModify(Map<String,String> modifications) {
@@ -156,12 +202,12 @@ public class WorldState implements Closeable {
 			logger.warn("World state modification outside session executor thread! Current thread: " + Thread.currentThread());
 		}
 		
-		Pair<WorldObject,Map<String,Object>> r = doChangeNotificationModify(modifications);
-		WorldObject object = r.first;
-		Map<String,Object> oldState = r.second;
+		ObjectChange change = doChangeNotificationModify(modifications);
 		
 		for (ModifyListener listener : modifyListeners) {
-			listener.objectModified(object, oldState);
+			if (mayReactToModified(listener, change)) {
+				listener.objectModified(change);
+			}
 		}
 	}
 	
@@ -178,6 +224,7 @@ public class WorldState implements Closeable {
 		
 		WorldObject object = objects.get(objectId);
 		objects.remove(objectId);
+		removeFromIndexes(object);
 		
 		return object;
 	}
@@ -193,7 +240,9 @@ public class WorldState implements Closeable {
 		WorldObject object = doChangeNotificationDelete(objectId);
 		
 		for (DeleteListener listener : deleteListeners) {
-			listener.objectDeleted(object);
+			if (mayReactToDeleted(listener, object)) {
+				listener.objectDeleted(object);
+			}
 		}
 	}
 	
@@ -208,7 +257,9 @@ public class WorldState implements Closeable {
 		}
 		
 		for (EnvironmentListener listener : environmentListeners) {
-			listener.environmentModified(key, value);
+			if (mayReactToEnvironment(listener, key)) {
+				listener.environmentModified(key, value);
+			}
 		}
 	}
 	
@@ -301,26 +352,54 @@ public class WorldState implements Closeable {
 	
 	private void notifyListeners(Action change) {
 		if (change instanceof ObjectAddedAction) {
+			ObjectAddedAction action = (ObjectAddedAction)change;
 			for (AddListener listener : addListeners) {
-				((ObjectAddedAction)change).notifyListener(listener);
+				if (action.getAddedObject() == null || mayReactToAdded(listener, action.getAddedObject())) {
+					action.notifyListener(listener);
+				}
 			}
 		} else if (change instanceof ObjectModifiedAction) {
+			ObjectModifiedAction action = (ObjectModifiedAction)change;
 			for (ModifyListener listener : modifyListeners) {
-				((ObjectModifiedAction)change).notifyListener(listener);
+				if (mayReactToModified(listener, action.getChange())) {
+					action.notifyListener(listener);
+				}
 			}
 		} else if (change instanceof ObjectDeletedAction) {
+			ObjectDeletedAction action = (ObjectDeletedAction)change;
 			for (DeleteListener listener : deleteListeners) {
-				((ObjectDeletedAction)change).notifyListener(listener);
+				if (mayReactToDeleted(listener, action.getDeletedObject())) {
+					action.notifyListener(listener);
+				}
 			}
 		} else if (change instanceof EnvironmentModifiedAction) {
+			EnvironmentModifiedAction action = (EnvironmentModifiedAction)change;
 			for (EnvironmentListener listener : environmentListeners) {
-				((EnvironmentModifiedAction)change).notifyListener(listener);
+				if (mayReactToEnvironment(listener, action.getKey())) {
+					action.notifyListener(listener);
+				}
 			}
 		} else {
 			throw new AssertionError("?!");
 		}
 	}
 	
+	private static boolean mayReactToAdded(Object listener, WorldObject object) {
+		return !(listener instanceof InterestFilter) || ((InterestFilter)listener).mayReactToAdded(object);
+	}
+	
+	private static boolean mayReactToModified(Object listener, ObjectChange change) {
+		return !(listener instanceof InterestFilter) || ((InterestFilter)listener).mayReactToModified(change);
+	}
+	
+	private static boolean mayReactToDeleted(Object listener, WorldObject object) {
+		return !(listener instanceof InterestFilter) || ((InterestFilter)listener).mayReactToDeleted(object);
+	}
+	
+	private static boolean mayReactToEnvironment(Object listener, String key) {
+		return !(listener instanceof InterestFilter) || ((InterestFilter)listener).mayReactToEnvironment(key);
+	}
+	
 	@Override
 	public void close() throws IOException {
 	}
@@ -360,6 +439,145 @@ public class WorldState implements Closeable {
 	public Map<String,WorldObject> getObjects() {
 		return objects;
 	}
+	
+	/**
+	 * @return
+	 *   the object with this id, or null
+	 */
+	public WorldObject getObject(String id) {
+		return objects.get(id);
+	}
+	
+	/**
+	 * All objects of a type (the value of the WorldClass
+	 * annotation). Don't modify!
+	 */
+	public Collection<WorldObject> getObjectsOfType(String type) {
+		Map<String,WorldObject> ofType = typeIndex.get(type);
+		return (ofType == null) ? Collections.<WorldObject>emptyList() : Collections.unmodifiableCollection(ofType.values());
+	}
+	
+	/**
+	 * Index the objects by the value of a property (i.e. a
+	 * WorldField), so findObjects can look them up instead
+	 * of checking every object. Values are compared as
+	 * strings, like in change notifications.
+	 */
+	public synchronized void addPropertyIndex(String property) {
+		if (WorldObject.FIELD_ID.equals(property) || WorldObject.FIELD_TYPE.equals(property)) {
+			// always indexed
+			return;
+		}
+		if (propertyIndexes.containsKey(property)) {
+			return;
+		}
+		
+		Map<String,Map<String,WorldObject>> index = new HashMap<>();
+		for (WorldObject object : objects.values()) {
+			addToIndex(index, object.getWorldPropertyAsString(property), object);
+		}
+		propertyIndexes.put(property, index);
+	}
+	
+	public Set<String> getIndexedProperties() {
+		return Collections.unmodifiableSet(propertyIndexes.keySet());
+	}
+	
+	/**
+	 * All objects matching the properties (see
+	 * WorldObject.matchesProperties). The candidates are
+	 * looked up by id, type (WorldObject.FIELD_TYPE) or an
+	 * indexed property if possible; only the remaining
+	 * properties are checked for each candidate.
+	 */
+	public List<WorldObject> findObjects(Map<String,String> properties) {
+		Collection<WorldObject> candidates = objects.values();
+		String lookupKey = null;
+		
+		if (properties.containsKey(WorldObject.FIELD_ID)) {
+			WorldObject object = objects.get(properties.get(WorldObject.FIELD_ID));
+			if (object == null) {
+				return Collections.emptyList();
+			}
+			candidates = Collections.singletonList(object);
+			lookupKey = WorldObject.FIELD_ID;
+		} else {
+			for (Entry<String,String> entry : properties.entrySet()) {
+				Map<String,WorldObject> hits;
+				if (WorldObject.FIELD_TYPE.equals(entry.getKey())) {
+					hits = typeIndex.get(entry.getValue());
+				} else if (propertyIndexes.containsKey(entry.getKey())) {
+					hits = propertyIndexes.get(entry.getKey()).get(entry.getValue());
+				} else {
+					continue;
+				}
+				
+				if (hits == null) {
+					return Collections.emptyList();
+				}
+				if (lookupKey == null || hits.size() < candidates.size()) {
+					candidates = hits.values();
+					lookupKey = entry.getKey();
+				}
+			}
+		}
+		
+		Map<String,String> remaining = properties;
+		if (lookupKey != null) {
+			remaining = new HashMap<>(properties);
+			remaining.remove(lookupKey);
+		}
+		
+		List<WorldObject> result = new ArrayList<>();
+		for (WorldObject object : candidates) {
+			if (remaining.isEmpty() || object.matchesProperties(remaining)) {
+				result.add(object);
+			}
+		}
+		return result;
+	}
+	
+	private void addToIndexes(WorldObject object) {
+		addToIndex(typeIndex, object.getType(), object);
+		for (Entry<String,Map<String,Map<String,WorldObject>>> entry : propertyIndexes.entrySet()) {
+			addToIndex(entry.getValue(), object.getWorldPropertyAsString(entry.getKey()), object);
+		}
+	}
+	
+	private void removeFromIndexes(WorldObject object) {
+		removeFromIndex(typeIndex, object.getType(), object);
+		for (Entry<String,Map<String,Map<String,WorldObject>>> entry : propertyIndexes.entrySet()) {
+			removeFromIndex(entry.getValue(), object.getWorldPropertyAsString(entry.getKey()), object);
+		}
+	}
+	
+	private static void addToIndex(Map<String,Map<String,WorldObject>> index, String value, WorldObject object) {
+		if (value == null) {
+			// objects without the property (or with null) are not indexed
+			return;
+		}
+		
+		Map<String,WorldObject> hits = index.get(value);
+		if (hits == null) {
+			hits = new HashMap<>();
+			index.put(value, hits);
+		}
+		hits.put(object.getId(), object);
+	}
+	
+	private static void removeFromIndex(Map<String,Map<String,WorldObject>> index, String value, WorldObject object) {
+		if (value == null) {
+			return;
+		}
+		
+		Map<String,WorldObject> hits = index.get(value);
+		if (hits != null) {
+			hits.remove(object.getId());
+			if (hits.isEmpty()) {
+				index.remove(value);
+			}
+		}
+	}
 
 	/**
 	 * Check if the world states contains an object with
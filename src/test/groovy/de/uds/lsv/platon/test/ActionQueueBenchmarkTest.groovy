@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+import spock.lang.Requires
+import de.uds.lsv.platon.test.TestEnvironment.TestDoor
+import de.uds.lsv.platon.world.WorldObject
+
+/**
+ * nextAction with thousands of VerbalInputActions queued
+ * behind a blocking stack (see ActionQueueTest.testDeepQueue).
+ * With constant-time selection, the time per input does not
+ * grow with the queue depth.
+ * Only runs with -Dplaton.benchmark=true.
+ */
+@Requires({ Benchmark.isEnabled() })
+class ActionQueueBenchmarkTest extends TestImplBase {
+	def benchmarkDeepQueue(int numInputs) {
+		setup:
+			AtomicInteger handled = new AtomicInteger(0);
+			AtomicInteger maxDepth = new AtomicInteger(0);
+			init(
+				"""\
+				input(~/go .*/) {
+					depth(queue.size())
+					object('door1').open().then({
+						handled()
+					})
+				}
+				""",
+				definitions: [
+					"depth": { int depth -> if (depth > maxDepth.get()) { maxDepth.set(depth) } },
+					"handled": { handled.incrementAndGet() }
+				]
+			);
+			addObject([
+				(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+				(WorldObject.FIELD_ID): "door1",
+				"isOpen": "false",
+				"isLocked": "false"
+			]);
+		
+		when:
+			double nanos = Benchmark.nanosPerOperation(
+				"input with ${numInputs} VerbalInputActions queued",
+				numInputs
+			) {
+				// hold the session thread, so all inputs are
+				// queued before the first one runs; its partial
+				// actions then keep the others blocked
+				CountDownLatch inputsAdded = new CountDownLatch(1);
+				session.submit({ inputsAdded.await() });
+				for (int i = 0; i < numInputs; i++) {
+					input("go ${i}");
+				}
+				inputsAdded.countDown();
+				waitForTasks();
+			};
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			nanos > 0
+			maxDepth.get() >= numInputs - 1
+			handled.get() == (Benchmark.WARMUP_ROUNDS + Benchmark.DEFAULT_ROUNDS) * numInputs
+			session.dialogEngines.values().every { it.getActionQueueView().isEmpty() }
+		
+		where:
+			numInputs << [ 1000, 4000 ]
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import de.uds.lsv.platon.test.TestEnvironment.TestDoor
+import de.uds.lsv.platon.world.WorldObject
+
+class ActionQueueTest extends TestImplBase {
+	def testDeepQueue() {
+		setup:
+			int numInputs = 500;
+			List<String> log = Collections.synchronizedList([]);
+			init(
+				"""\
+				input(~/go .*/) {
+					def text = it
+					log("start \${text}")
+					object('door1').open().then({
+						log("then \${text}")
+					})
+				}
+				""",
+				definitions: [
+					"log": { log.add(it.toString()) }
+				]
+			);
+			addObject([
+				(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+				(WorldObject.FIELD_ID): "door1",
+				"isOpen": "false",
+				"isLocked": "false"
+			]);
+		
+		when:
+			for (int i = 0; i < numInputs; i++) {
+				input("go ${i}");
+			}
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			// each input waits for the partial actions of the previous one
+			log == (0..<numInputs).collect { [ "start go ${it}", "then go ${it}" ] }.flatten()
+			session.dialogEngines.values().every { it.getActionQueueView().isEmpty() }
+	}
+}
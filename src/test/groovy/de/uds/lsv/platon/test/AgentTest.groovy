@@ -17,6 +17,7 @@
 package de.uds.lsv.platon.test;
 
 import de.uds.lsv.platon.script.Agent
+import de.uds.lsv.platon.script.AgentInstance
 import de.uds.lsv.platon.script.AgentStack
 import de.uds.lsv.platon.script.ScriptAdapter
 
@@ -333,4 +334,22 @@ class AgentTest extends TestImplBase {
 			1 * dialogClientMonitor.outputStart(_, _, "ping", _)
 			0 * dialogClientMonitor.outputStart(_, _, _, _)
 	}
+	
+	def testInputActionsAddedAfterFirstUse() {
+		setup:
+			AgentStack stack = new AgentStack();
+			ScriptAdapter scriptAdapter = Mock(ScriptAdapter);
+			scriptAdapter.getAgentStack() >> stack;
+			Agent agent = new Agent(scriptAdapter, "agent");
+			agent.addInputAction("a", {}, 0.1d);
+			AgentInstance agentInstance = new AgentInstance(stack, agent);
+		
+		when:
+			def first = agentInstance.getInputAction(0);
+			agent.addInputAction("b", {}, 0.2d);
+		then:
+			agentInstance.getInputAction(0).is(first)
+			agentInstance.getInputAction(1).priority == 0.2d
+			agentInstance.getInputActions().collect({ it.priority }) == [ 0.1d, 0.2d ]
+	}
 }
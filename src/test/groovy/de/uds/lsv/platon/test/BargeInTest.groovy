@@ -25,8 +25,10 @@ import java.util.concurrent.atomic.AtomicInteger
 import spock.lang.Specification
 import de.uds.lsv.platon.DialogClient
 import de.uds.lsv.platon.action.IOType
+import de.uds.lsv.platon.action.VerbalOutputAction
 import de.uds.lsv.platon.session.DialogEngine
 import de.uds.lsv.platon.session.DialogSession
+import de.uds.lsv.platon.session.LatencyStatistics
 import de.uds.lsv.platon.session.User
 import de.uds.lsv.platon.world.WorldState
 
@@ -40,6 +42,7 @@ class BargeInTest extends Specification {
 	private static AtomicInteger nextOutputId = new AtomicInteger(0);
 	
 	private def outputReactions = [:]
+	private LatencyStatistics bargeInLatency = new LatencyStatistics("barge-in");
 	
 	private def createDialogSession(users, dialogClient) {
 		def worldState = Stub(WorldState);
@@ -52,10 +55,12 @@ class BargeInTest extends Specification {
 		def session = Stub(DialogSession);
 		session.isActive() >> true;
 		session.submit(_) >> { it[0]() };
+		session.submitUrgent(_) >> { it[0]() };
 		session.runOnSessionThread(_) >> { it[0]() };
 		session.isOnSessionThread() >> true;
 		session.getWorldState() >> worldState;
 		session.getDialogClient() >> dialogClient;
+		session.getBargeInLatency() >> bargeInLatency;
 		session.addOutputReaction(_, _) >> {
 			outputId, closure ->
 			outputReactions[outputId] = closure;
@@ -174,4 +179,80 @@ class BargeInTest extends Specification {
 			1 * dialogClientMonitor.outputStart(_, _, "BB", _)
 			0 * dialogClientMonitor.outputAbort(_)
 	}
+	
+	def testBargeInAbortsAllRunningOutputs() {
+		setup:
+			// the outputs are started back to back, so all
+			// three are playing when B comes in
+			def script =
+				"input(en:~/A/) { tell user, 'A1'; tell user, 'A2'; tell user, 'A3' }\n" +
+				"input(en:~/B/) { tell user, 'BB'; }";
+		
+			Semaphore outputStartedSemaphore = new Semaphore(0);
+			
+			DialogClient dialogClientMonitor = Mock(DialogClient)
+			DialogClient dialogClient = createDialogClient(dialogClientMonitor, outputStartedSemaphore)
+			
+			User user = new User(-1, 1, "Test User", "en", "US");
+			DialogSession session = createDialogSession([user], dialogClient);
+			DialogEngine dialogEngine = createDialogEngine(session, user, script)
+			
+		when:
+			dialogEngine.inputStarted(IOType.SPEECH);
+			dialogEngine.inputComplete(IOType.SPEECH, "A", null);
+			boolean allStarted = outputStartedSemaphore.tryAcquire(3, 5L, TimeUnit.SECONDS);
+			
+			dialogEngine.inputStarted(IOType.SPEECH);
+			dialogEngine.inputComplete(IOType.SPEECH, "B", null);
+			outputStartedSemaphore.acquire();
+			Thread.sleep(500);
+		then:
+			allStarted
+			1 * dialogClientMonitor.outputStart(_, _, "A1", _)
+			1 * dialogClientMonitor.outputStart(_, _, "A2", _)
+			1 * dialogClientMonitor.outputStart(_, _, "A3", _)
+			3 * dialogClientMonitor.outputAbort(_, _)
+			1 * dialogClientMonitor.outputStart(_, _, "BB", _)
+			
+			// one measurement per aborted output
+			bargeInLatency.getCount() == 3
+			bargeInLatency.getMean(TimeUnit.NANOSECONDS) > 0
+			bargeInLatency.getMax(TimeUnit.NANOSECONDS) >= bargeInLatency.getMean(TimeUnit.NANOSECONDS)
+			bargeInLatency.getPercentile(50, TimeUnit.NANOSECONDS) <= bargeInLatency.getMax(TimeUnit.NANOSECONDS)
+			bargeInLatency.getPercentile(100, TimeUnit.MICROSECONDS) == bargeInLatency.getMax(TimeUnit.MICROSECONDS)
+	}
+	
+	def testBargeInLatencyOfOutputStartedWhileSpeaking() {
+		setup:
+			def script = "input(en:~/B/) { tell user, 'BB'; }";
+			
+			Semaphore outputStartedSemaphore = new Semaphore(0);
+			
+			DialogClient dialogClientMonitor = Mock(DialogClient)
+			DialogClient dialogClient = createDialogClient(dialogClientMonitor, outputStartedSemaphore)
+			
+			User user = new User(-1, 1, "Test User", "en", "US");
+			DialogSession session = createDialogSession([user], dialogClient);
+			DialogEngine dialogEngine = createDialogEngine(session, user, script)
+			
+		when:
+			// the output starts after inputStarted, so only the
+			// barge-in in inputComplete can abort it
+			dialogEngine.inputStarted(IOType.SPEECH);
+			dialogEngine.addAction(new VerbalOutputAction(session, user, "AA", false, [:]));
+			outputStartedSemaphore.acquire();
+			Thread.sleep(200);
+			
+			dialogEngine.inputComplete(IOType.SPEECH, "B", null);
+			outputStartedSemaphore.acquire();
+			Thread.sleep(500);
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "AA", _)
+			1 * dialogClientMonitor.outputAbort(_, _)
+			1 * dialogClientMonitor.outputStart(_, _, "BB", _)
+			
+			// measured from inputStarted, not from inputComplete
+			bargeInLatency.getCount() == 1
+			bargeInLatency.getMax(TimeUnit.MILLISECONDS) >= 200
+	}
 }
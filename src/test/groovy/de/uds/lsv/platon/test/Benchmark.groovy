@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+/**
+ * Timing for the *BenchmarkTest specs. They only run if the
+ * system property platon.benchmark is set:
+ *   mvn test -Dplaton.benchmark=true -Dtest=InputPriorityBenchmarkTest
+ * Timings are printed, not asserted, so they cannot make the
+ * build flaky.
+ */
+class Benchmark {
+	static final String PROPERTY = "platon.benchmark";
+	static final int DEFAULT_ROUNDS = 7;
+	static final int WARMUP_ROUNDS = 3;
+	
+	static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+	
+	/**
+	 * Runs round (which does operations operations) a few times
+	 * to warm up, then rounds times with timing.
+	 *
+	 * @return
+	 *   the median of the rounds, in nanoseconds per operation
+	 */
+	static double nanosPerOperation(String name, int operations, int rounds=DEFAULT_ROUNDS, Closure round) {
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			round();
+		}
+		
+		List<Double> results = [];
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			round();
+			results.add((System.nanoTime() - start) / (double)operations);
+		}
+		
+		Collections.sort(results);
+		double median = results[(int)(results.size() / 2)];
+		println(String.format(
+			"BENCHMARK %s: %.1f ns/op (median of %d rounds, %d ops each; min %.1f, max %.1f) [Groovy %s, Java %s]",
+			name,
+			median,
+			rounds,
+			operations,
+			results[0],
+			results[-1],
+			GroovySystem.getVersion(),
+			System.getProperty("java.version")
+		));
+		
+		return median;
+	}
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import de.uds.lsv.platon.script.DialogScriptCache
+import de.uds.lsv.platon.script.DialogScriptException
+import de.uds.lsv.platon.script.PreparedInputCache
+
+class DialogScriptCacheTest extends TestImplBase {
+	File cacheDirectory;
+	
+	def setup() {
+		config.shareCompiledScripts = true;
+	}
+	
+	def cleanup() {
+		cacheDirectory?.deleteDir();
+		DialogScriptCache.getInstance().setMaxSize(DialogScriptCache.DEFAULT_MAX_SIZE);
+		DialogScriptCache.getInstance().setBuildFingerprint(null);
+	}
+	
+	def testSharedBetweenEngines() {
+		setup:
+			int cachedScripts = DialogScriptCache.getInstance().size();
+			init(
+				"// ${UUID.randomUUID()}\n" +
+				"input(~/ping/) { tell user, 'pong' }",
+				numUsers: 3
+			)
+		
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			DialogScriptCache.getInstance().size() == cachedScripts + 1
+			3 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+	
+	def testInitScriptClassesWithSharing() {
+		setup:
+			int cachedScripts = DialogScriptCache.getInstance().size();
+			config.scriptInit = (
+				"class InitGreeting { static String text() { 'pong' } }\n" +
+				"return null"
+			);
+			init(
+				"// ${UUID.randomUUID()}\n" +
+				"input(~/ping/) { tell user, InitGreeting.text() }",
+				numUsers: 2
+			)
+		
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			// not shared, the script has to see InitGreeting
+			DialogScriptCache.getInstance().size() == cachedScripts
+			2 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+	
+	def testCompiledAgainstOwnClassLoader() {
+		setup:
+			ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+			// like a webapp's loader, with platon in a shared lib
+			ClassLoader childLoader = new URLClassLoader(new URL[0], DialogScriptCache.class.getClassLoader());
+			boolean shareable = DialogScriptCache.canShare();
+		
+		when:
+			Thread.currentThread().setContextClassLoader(childLoader);
+			boolean childShareable = DialogScriptCache.canShare();
+			DialogScriptCache.CompiledDialogScript compiledScript = DialogScriptCache.getInstance().get(
+				"// ${UUID.randomUUID()}\nreturn 1".toString(),
+				null,
+				null,
+				null
+			);
+		
+		then:
+			shareable
+			!childShareable
+			compiledScript.getClassLoader().getParent() == DialogScriptCache.class.getClassLoader()
+		
+		cleanup:
+			Thread.currentThread().setContextClassLoader(contextLoader);
+	}
+	
+	def testWorldClassesCustomizedWithoutSharing() {
+		setup:
+			List<Class> found = [];
+			config.shareCompiledScripts = false;
+			init(
+				"import de.uds.lsv.platon.world.*\n" +
+				"@WorldClass('test.ScriptLamp')\n" +
+				"class ScriptLamp extends WorldObject {\n" +
+				"  @WorldField public boolean isOn = false\n" +
+				"}\n" +
+				"input(~/ping/) { found(ScriptLamp); tell user, 'pong' }",
+				definitions: [ "found": { found.add(it) } ]
+			)
+		
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			found.size() == 1
+			// generated by WorldClassCustomizer
+			found[0].getDeclaredMethod("setWorldField", String, String) != null
+	}
+	
+	def testLeastRecentlyUsedDropped() {
+		setup:
+			DialogScriptCache cache = DialogScriptCache.getInstance();
+			cache.clear();
+			cache.setMaxSize(2);
+			List<String> scripts = (1..3).collect { "// ${UUID.randomUUID()}\nreturn ${it}".toString() };
+			def first = cache.get(scripts[0], null, null, null);
+			def second = cache.get(scripts[1], null, null, null);
+		
+		when:
+			// first is used more recently than second
+			cache.get(scripts[0], null, null, null);
+			cache.get(scripts[2], null, null, null);
+		
+		then:
+			cache.size() == 2
+			cache.get(scripts[0], null, null, null);
+			!cache.get(scripts[1], null, null, null).is(second)
+	}
+	
+	def testRemove() {
+		setup:
+			DialogScriptCache cache = DialogScriptCache.getInstance();
+			String script = "// ${UUID.randomUUID()}\nreturn 1";
+			def compiled = cache.get(script, null, null, null);
+			int size = cache.size();
+		
+		expect:
+			cache.remove(compiled)
+			cache.size() == size - 1
+			!cache.remove(compiled)
+			!cache.get(script, null, null, null).is(compiled)
+	}
+	
+	def testPreparedInputCachePerSize() {
+		setup:
+			DialogScriptCache cache = DialogScriptCache.getInstance();
+			def compiled = cache.get("// ${UUID.randomUUID()}\nreturn 1", null, null, null);
+		
+		expect:
+			compiled.getPreparedInputCache(10).is(compiled.getPreparedInputCache(10))
+			!compiled.getPreparedInputCache(10).is(compiled.getPreparedInputCache(20))
+			compiled.getPreparedInputCache(20).getMaxSize() == 20
+	}
+	
+	def testPreparedInputCacheLanguage() {
+		setup:
+			PreparedInputCache cache = new PreparedInputCache(10);
+			cache.put(0, "en", "ing", [ "foo": "bar" ], "ping");
+		
+		expect:
+			cache.get(0, "en", "ing", [ "foo": "bar" ]) == "ping"
+			cache.get(0, "de", "ing", [ "foo": "bar" ]) == null
+			cache.get(0, null, "ing", [ "foo": "bar" ]) == null
+			cache.get(0, "en", "ing", null) == null
+	}
+	
+	def testCacheDirectory() {
+		setup:
+			cacheDirectory = File.createTempDir();
+			config.scriptCacheDirectory = cacheDirectory;
+			String script = (
+				"// ${UUID.randomUUID()}\n" +
+				"class Pong { static String text() { 'pong' } }\n" +
+				"input(~/ping/) { tell user, Pong.text() }"
+			);
+			
+			// first run: compile and store
+			init(script);
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+			
+			// second run: load from disk
+			DialogScriptCache.getInstance().clear();
+			init(script);
+		
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			cacheDirectory.listFiles().size() == 1
+			new File(cacheDirectory.listFiles()[0], "index").isFile()
+			1 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+	
+	def testBuildFingerprintChanged() {
+		setup:
+			cacheDirectory = File.createTempDir();
+			config.scriptCacheDirectory = cacheDirectory;
+			String script = (
+				"// ${UUID.randomUUID()}\n" +
+				"input(~/ping/) { tell user, 'pong' }"
+			);
+			DialogScriptCache cache = DialogScriptCache.getInstance();
+			String fingerprint = cache.getBuildFingerprint();
+			
+			// first run: compile and store
+			init(script);
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+			
+			// second run: same script, redeployed platon
+			cache.clear();
+			cache.setBuildFingerprint(fingerprint + "-redeployed");
+			init(script);
+		
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			// compiled again, not loaded from the first entry
+			cacheDirectory.listFiles().size() == 2
+			cacheDirectory.listFiles().every { new File(it, "index").isFile() }
+			1 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+	
+	def testCacheDirectoryExceptionLocation() {
+		setup:
+			cacheDirectory = File.createTempDir();
+			config.scriptCacheDirectory = cacheDirectory;
+			String script = (
+				"// ${UUID.randomUUID()}\n" +
+				"\n" +
+				"throw new RuntimeException('test')\n"
+			);
+			
+			try {
+				init(script);
+			}
+			catch (DialogScriptException e) {
+			}
+			DialogScriptCache.getInstance().clear();
+		
+		when:
+			init(script);
+		
+		then:
+			def e = thrown(DialogScriptException)
+			e.startLine == 3
+	}
+}
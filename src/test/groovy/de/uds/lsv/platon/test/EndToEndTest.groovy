@@ -16,10 +16,21 @@
 
 package de.uds.lsv.platon.test;
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Future
+
+import de.uds.lsv.platon.action.IOType
 import de.uds.lsv.platon.action.VerbalInputAction
 import de.uds.lsv.platon.action.VerbalOutputAction
+import de.uds.lsv.platon.debug.LatencyDialogWorld
+import de.uds.lsv.platon.script.BroadcastMatchCache
 import de.uds.lsv.platon.script.DialogScriptException
+import de.uds.lsv.platon.script.PreparedInputCache
+import de.uds.lsv.platon.session.DialogEngine
 import de.uds.lsv.platon.session.DialogSession
+import de.uds.lsv.platon.session.PendingOutput
+import de.uds.lsv.platon.session.SessionScheduler
+import de.uds.lsv.platon.session.TransactionManager
 import de.uds.lsv.platon.session.TransactionManager.Transaction
 import de.uds.lsv.platon.world.WorldObject
 import TestEnvironment.TestDoor
@@ -104,6 +115,241 @@ class EndToEndTest extends TestImplBase {
 			!worldState.getObjects().get('door1').isLocked
 	}
 	
+	def testObjectQueries() {
+		setup:
+			config.worldIndexedProperties = [ "roomId" ];
+			init(
+				"input(~/ping/) {\n" +
+				"  tell user, objects(type: 'TestDoor', roomId: 'room1').size() + ' ' +\n" +
+				"    objects(roomId: 'room1') { it.isOpen }*.id + ' ' +\n" +
+				"    object(type: 'TestDoor', roomId: 'room2').id + ' ' +\n" +
+				"    object('door3').roomId\n" +
+				"}"
+			)
+			[ "door1": "room1", "door2": "room1", "door3": "room2" ].each {
+				id, roomId ->
+				addObject([
+					(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+					(WorldObject.FIELD_ID): id,
+					"roomId": roomId,
+					"isOpen": (id == "door2") ? "true" : "false"
+				])
+			}
+		
+		when:
+			input("ping")
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "2 [door2] door3 room2", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
+	
+	def testCoalesceModifications() {
+		setup:
+			config.coalesceModifications = true;
+			init("objectModified(id: 'door1') { tell user, 'moved ' + it.roomId }")
+			addObject([
+				(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+				(WorldObject.FIELD_ID): "door1",
+				"roomId": "room0"
+			])
+			
+			// keep the session busy until all modifications are in
+			CountDownLatch latch = new CountDownLatch(1);
+			session.submit({ latch.await() });
+			(1..5).each {
+				session.getTransactionManager().addChangeNotificationModify(
+					-1,
+					[ (WorldObject.FIELD_ID): "door1", "roomId": "room${it}".toString() ]
+				)
+			}
+		
+		when:
+			latch.countDown();
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "moved room5", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			session.getTransactionManager().getCoalescedModificationCount() == 4
+	}
+	
+	def testEndTransactionAsync() {
+		setup:
+			init("objectModified(id: 'door1') { tell user, 'moved ' + it.roomId }")
+			addObject([
+				(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+				(WorldObject.FIELD_ID): "door1",
+				"roomId": "room0"
+			])
+			
+			// keep the session busy: ending the transaction must not wait
+			CountDownLatch latch = new CountDownLatch(1);
+			session.submit({ latch.await() });
+			TransactionManager transactionManager = session.getTransactionManager();
+			int transactionId = transactionManager.beginTransaction();
+			transactionManager.addChangeNotificationModify(
+				transactionId,
+				[ (WorldObject.FIELD_ID): "door1", "roomId": "room1" ]
+			);
+		
+		when:
+			Future future = transactionManager.endTransactionAsync(transactionId);
+			boolean doneBeforeRelease = future.isDone();
+			transactionManager.addChangeNotificationModify(
+				transactionId,
+				[ (WorldObject.FIELD_ID): "door1", "roomId": "room2" ]
+			);
+		
+		then:
+			thrown(IllegalArgumentException)
+			!doneBeforeRelease
+		
+		when:
+			latch.countDown();
+			future.get();
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "moved room1", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			worldState.getObjects().get('door1').roomId == "room1"
+	}
+	
+	def testPipelinedChangeRequests() {
+		setup:
+			config.pipelineChangeRequests = true;
+			init(
+				worldLatencyMillis: 100,
+				"input(~/open all/) { (1..5).each { object('door' + it).isOpen = true } }"
+			)
+			(1..5).each {
+				addObject([
+					(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+					(WorldObject.FIELD_ID): "door${it}".toString(),
+					"isOpen": "false",
+					"isLocked": "false"
+				])
+			}
+		
+		when:
+			input("open all")
+			long deadline = System.currentTimeMillis() + 10000;
+			while (
+				!(1..5).every { worldState.getObjects().get("door${it}".toString())?.isOpen } &&
+				System.currentTimeMillis() < deadline
+			) {
+				Thread.sleep(10);
+			}
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			5 * dialogWorldMonitor.changeRequestModify(-1, _)
+			(1..5).every { worldState.getObjects().get("door${it}".toString()).isOpen }
+			((LatencyDialogWorld)dialogWorld).getMaxRequestsInFlight() > 1
+	}
+	
+	def testAsyncDialogClientBatch() {
+		setup:
+			init(
+				numUsers: 2,
+				asyncDialogClient: true,
+				"input(~/hi/) { tell user, 'hello' }"
+			)
+		
+		when:
+			input("hi");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			2 * dialogClientMonitor.outputStart(_, _, "hello", _)
+			outputBatchSizes == [ 2 ]
+	}
+	
+	def testAsyncOutputAbortedBeforeSent() {
+		setup:
+			init(
+				asyncDialogClient: true,
+				"input(~/hi/) { tell user, 'hello' }"
+			)
+			List<Double> reactions = Collections.synchronizedList([]);
+		
+		when:
+			session.submit({
+				PendingOutput output = session.startOutputAsync(users[0], IOType.SPEECH, "x", [:]);
+				session.addOutputReaction(output, { reactions.add(it) });
+				output.abort(null);
+				// registered after the abort
+				session.addOutputReaction(output, { reactions.add(it) });
+			});
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			outputBatchSizes == []
+			reactions == [ 0.0d, 0.0d ]
+	}
+	
+	def testDeferredAbortBargeInLatency() {
+		setup:
+			init(
+				asyncDialogClient: true,
+				"input(~/hi/) { tell user, 'hello' }"
+			)
+			PendingOutput output = new PendingOutput(session);
+		
+		when:
+			// sent, but the client hasn't reported the id yet
+			output.markSent();
+			output.abort(null, System.nanoTime());
+		
+		then:
+			0 * dialogClientMonitor.outputAbort(_, _)
+			session.getBargeInLatency().getCount() == 0
+		
+		when:
+			output.started(7);
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputAbort(7, null)
+			session.getBargeInLatency().getCount() == 1
+	}
+	
+	def testAsyncOutputStartOnBusySession() {
+		setup:
+			init(
+				asyncDialogClient: true,
+				"input(~/hi/) { tell user, 'hello' }"
+			)
+			List<String> order = Collections.synchronizedList([]);
+		
+		when:
+			session.submit({
+				session.startOutputAsync(users[0], IOType.SPEECH, "x", [:]);
+				for (int i = 0; i < 100; i++) {
+					final String task = "task ${i}";
+					session.submit({ order.add(task) });
+				}
+			});
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "x", _) >> { order.add("start") }
+			// sent at the end of the current turn, not after the queue
+			order.indexOf("start") >= 0
+			order.indexOf("start") < SessionScheduler.DEFAULT_TASKS_PER_TURN
+	}
+	
 	def testModifyObjectSetPropertyAssign() {
 		setup:
 			init("input(~/ping/) { object('door1').isOpen = true }")
@@ -294,6 +540,31 @@ class EndToEndTest extends TestImplBase {
 			duration < 1500L
 	}
 	
+	def testIdleOncePerIdlePeriod() {
+		setup:
+			int count = 0;
+			init(
+				"""\
+				input(~/ping/) { }
+				idle 500.milliseconds { countIdle() }
+				""",
+				definitions: [
+					"countIdle": { count++ },
+				]
+			);
+		
+		when:
+			input("ping");
+			Thread.sleep(1700);
+			input("ping");
+			Thread.sleep(1000);
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			count == 2
+	}
+	
 	/**
 	 * Test base agent init.
 	 */
@@ -645,6 +916,145 @@ class EndToEndTest extends TestImplBase {
 			0 * dialogClientMonitor.outputStart(_, _, _, _)
 	}
 	
+	def testPrepareInputPure() {
+		setup:
+			int calls = 0;
+			init(
+				"prepareInput(pure: true) { count(); return 'p' + it }\n" +
+				"input(~/ping/) { tell user, 'pong' }",
+				definitions: [ "count": { calls++ } ]
+			)
+			PreparedInputCache cache = session.dialogEngines.values().first().getPreparedInputCache();
+			long hits = cache.getHits();
+			long misses = cache.getMisses();
+		
+		when:
+			3.times { input("ing") };
+			input("ing", [ "foo": "bar" ]);
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			4 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			// once without details, once with
+			calls == 2
+			cache.getHits() - hits == 2
+			cache.getMisses() - misses == 2
+	}
+	
+	def testPrepareInputPureNotValue() {
+		setup:
+			int calls = 0;
+			init(
+				"prepareInput(pure: true) { count(); return new StringBuilder('p').append(it) }\n" +
+				"input(~/ping/) { tell user, 'pong' }",
+				definitions: [ "count": { calls++ } ]
+			)
+			PreparedInputCache cache = session.dialogEngines.values().first().getPreparedInputCache();
+		
+		when:
+			3.times { input("ing") };
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			3 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			// a StringBuilder could be changed by the engine using it
+			calls == 3
+			cache.size() == 0
+	}
+	
+	def testBroadcastInputPreparedOnce() {
+		setup:
+			int calls = 0;
+			config.shareCompiledScripts = true;
+			config.preparedInputCacheSize = 0;
+			init(
+				"prepareInput(pure: true) { count(); return 'p' + it }\n" +
+				"input(~/pong/) { tell user, 'wrong' }\n" +
+				"input(~/ping/) { tell user, 'pong' }",
+				numUsers: 3,
+				definitions: [ "count": { calls++ } ]
+			)
+		
+		when:
+			input("ing");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			3 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			calls == 1
+	}
+	
+	def testBroadcastMatchesShared() {
+		setup:
+			int calls = 0;
+			config.shareCompiledScripts = true;
+			config.preparedInputCacheSize = 0;
+			init(
+				"prepareInput(pure: true) { text, details -> count(); return 'p' + text }\n" +
+				"input(~/.*pong.*/) { tell user, 'wrong' }\n" +
+				"input(~/ping/) { tell user, 'pong' }",
+				numUsers: 3,
+				definitions: [ "count": { calls++ } ]
+			)
+			BroadcastMatchCache broadcast = new BroadcastMatchCache();
+		
+		when:
+			session.submit({
+				session.dialogEngines.values().eachWithIndex {
+					DialogEngine dialogEngine, int i ->
+					dialogEngine.inputComplete(IOType.SPEECH, "ing", allDetails[i], System.nanoTime(), broadcast);
+				}
+			});
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			3 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			calls == expectedCalls
+			// ~/.*pong.*/ is evaluated once per distinct details
+			broadcast.getShared() == expectedShared
+		
+		where:
+			allDetails                                   | expectedCalls | expectedShared
+			[ null, null, null ]                         | 1             | 2
+			[ [ "a": "1" ], [ "a": "1" ], [ "a": "1" ] ] | 1             | 2
+			[ [ "a": "1" ], [ "a": "2" ], [ "a": "2" ] ] | 2             | 1
+	}
+	
+	def testInputPartial() {
+		setup:
+			int calls = 0;
+			init(
+				"prepareInput(pure: true) { count(); return 'p' + it }\n" +
+				"input(~/ping/) { tell user, 'pong' }",
+				definitions: [ "count": { calls++ } ]
+			)
+		
+		when:
+			inputPartial("ing");
+			input("ing");
+			waitForTasks();
+			inputPartial("in");
+			input("ing");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			2 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+			// "ing" and "in"; the second "ing" is in the cache
+			calls == 2
+			session.getSpeculativeResponseLatency().getCount() == 1
+			session.getResponseLatency().getCount() == 1
+	}
+	
 	def testIdleInInput() {
 		setup:
 			init(
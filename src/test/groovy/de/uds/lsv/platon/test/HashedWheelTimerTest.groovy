@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+import de.uds.lsv.platon.session.HashedWheelTimer
+
+class HashedWheelTimerTest extends Specification {
+	// small wheel, so timeouts need several rounds
+	HashedWheelTimer timer = new HashedWheelTimer("test-timer", 10, TimeUnit.MILLISECONDS, 8);
+	
+	def cleanup() {
+		timer.stop();
+	}
+	
+	def testExpiry() {
+		setup:
+			List<Integer> fired = Collections.synchronizedList([]);
+			CountDownLatch latch = new CountDownLatch(3);
+			long start = System.nanoTime();
+		
+		when:
+			for (int delay in [ 300, 20, 150 ]) {
+				final int d = delay;
+				timer.newTimeout({ fired.add(d); latch.countDown() } as Runnable, d, TimeUnit.MILLISECONDS);
+			}
+			latch.await(5, TimeUnit.SECONDS);
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		
+		then:
+			fired == [ 20, 150, 300 ]
+			elapsed >= 300
+			timer.getPendingTimeouts() == 0
+	}
+	
+	def testCancel() {
+		setup:
+			boolean fired = false;
+		
+		when:
+			HashedWheelTimer.Timeout timeout = timer.newTimeout({ fired = true } as Runnable, 50, TimeUnit.MILLISECONDS);
+			int pendingBefore = timer.getPendingTimeouts();
+			boolean cancelled = timeout.cancel();
+			Thread.sleep(200);
+		
+		then:
+			pendingBefore == 1
+			cancelled
+			timeout.isCancelled()
+			!timeout.isExpired()
+			!timeout.cancel()
+			!fired
+			timer.getPendingTimeouts() == 0
+	}
+}
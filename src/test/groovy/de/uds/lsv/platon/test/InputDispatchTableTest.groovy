@@ -0,0 +1,121 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.regex.Pattern
+
+import spock.lang.Specification
+import de.uds.lsv.platon.script.InputDispatchTable
+import de.uds.lsv.platon.script.OneOf
+import de.uds.lsv.platon.script.Wildcard
+import de.uds.lsv.platon.script.Agent.InternalPatternAction
+
+class InputDispatchTableTest extends Specification {
+	static final List<Object> PATTERNS = [
+		"hello",
+		~/hello/,
+		~/hel+o/,
+		~/hello?/,
+		~/hello|bye/,
+		~/(?i)hello/,
+		Pattern.compile("hello", Pattern.CASE_INSENSITIVE),
+		Pattern.compile("stop.*", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE),
+		Pattern.compile("key", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE),
+		Pattern.compile("hello", Pattern.COMMENTS),
+		~/open the (door|window)/,
+		~/open the door/,
+		~/o{0}pen the door/,
+		new OneOf("bye", ~/see you.*/),
+		new OneOf("bye", { String s -> s.startsWith("b") }),
+		{ String s -> s.length() == 5 },
+		{ -> true },
+		{ Integer i -> i > 2 },
+		Integer,
+		Wildcard.INSTANCE,
+		3,
+		"open the door",
+	];
+	
+	static final List<Object> INPUTS = [
+		"hello", "hell", "helo", "HELLO", "bye", "bb", "see you later",
+		"open the door", "open the window", "pen the door", "", 3, 4L, 1,
+		"STOP now", "\u017Ftop", "\u212Aey", "KEY", "hElLo",
+	];
+	
+	def testSameResultAsLinearScan() {
+		setup:
+			InputDispatchTable table = new InputDispatchTable(
+				PATTERNS.collect { new InternalPatternAction(it, { -> }, 1.0) }
+			);
+		
+		expect:
+			INPUTS.every { input ->
+				List<Integer> linear = (0..<PATTERNS.size()).findAll {
+					table.getPattern(it).matches(input, null) != null
+				};
+				List<Integer> dispatched = table.getCandidates(input).toList().findAll {
+					table.getPattern(it).matches(input, null) != null
+				};
+				linear == dispatched
+			}
+	}
+	
+	def testCandidatesAreSortedAndUnique() {
+		setup:
+			InputDispatchTable table = new InputDispatchTable(
+				PATTERNS.collect { new InternalPatternAction(it, { -> }, 1.0) }
+			);
+		
+		expect:
+			INPUTS.every { input ->
+				List<Integer> candidates = table.getCandidates(input).toList();
+				candidates == candidates.unique(false).sort(false)
+			}
+	}
+	
+	def testLiteralsSkipOtherActions() {
+		setup:
+			InputDispatchTable table = new InputDispatchTable(
+				(1..500).collect { new InternalPatternAction("word${it}".toString(), { -> }, 1.0) } +
+				(1..500).collect { new InternalPatternAction(~"regex${it} .*", { -> }, 1.0) }
+			);
+		
+		expect:
+			table.getCandidates("word42").toList() == [ 41 ]
+			table.getCandidates("regex7 foo").toList() == [ 506 ]
+			table.getCandidates("nothing").length == 0
+	}
+	
+	def testCaseInsensitivePrefixes() {
+		setup:
+			// input patterns are case-insensitive by default (see ScriptBindings)
+			InputDispatchTable table = new InputDispatchTable(
+				(1..500).collect {
+					new InternalPatternAction(
+						Pattern.compile("regex${it} .*", Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE),
+						{ -> },
+						1.0
+					)
+				}
+			);
+		
+		expect:
+			table.getCandidates("REGEX7 foo").toList() == [ 6 ]
+			table.getCandidates("Regex42 bar").toList() == [ 41 ]
+			table.getCandidates("nothing").length == 0
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import spock.lang.Requires
+
+/**
+ * Input handling time with many finite-priority rules
+ * (see InputPriorityTest.testManyFinitePriorityRules).
+ * Only runs with -Dplaton.benchmark=true.
+ */
+@Requires({ Benchmark.isEnabled() })
+class InputPriorityBenchmarkTest extends TestImplBase {
+	def benchmarkManyFinitePriorityRules(int numRules) {
+		setup:
+			int numInputs = 200;
+			AtomicInteger evaluated = new AtomicInteger(0);
+			StringBuilder script = new StringBuilder();
+			for (int i = 0; i < numRules; i++) {
+				script.append("input(0.${199 - i}, ~/.*/) { evaluated(); next() }\n");
+				script.append("input(0.${199 - i}, de.uds.lsv.platon.script.Wildcard.INSTANCE) { evaluated(); next() }\n");
+			}
+			script.append("input(0.001, ~/.*/) { tell user, 'pong' }\n");
+			init(
+				script.toString(),
+				definitions: [
+					"evaluated": { evaluated.incrementAndGet() }
+				]
+			);
+		
+		when:
+			double nanos = Benchmark.nanosPerOperation(
+				"input with ${2 * numRules + 1} finite-priority rules",
+				numInputs
+			) {
+				for (int i = 0; i < numInputs; i++) {
+					input("ping ${i}");
+				}
+				waitForTasks();
+			};
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			nanos > 0
+			evaluated.get() == (Benchmark.WARMUP_ROUNDS + Benchmark.DEFAULT_ROUNDS) * numInputs * 2 * numRules
+		
+		where:
+			numRules << [ 10, 100 ]
+	}
+}
@@ -16,6 +16,8 @@
 
 package de.uds.lsv.platon.test;
 
+import java.util.concurrent.atomic.AtomicInteger
+
 class InputPriorityTest extends TestImplBase {
 	def testInputPrioritySimple() {
 		init(
@@ -83,4 +85,76 @@ class InputPriorityTest extends TestImplBase {
 			1 * dialogClientMonitor.outputStart(_, _, "pong", _)
 			0 * dialogClientMonitor.outputStart(_, _, _, _)
 	}
+	
+	def testInputPriorityNoException() {
+		init(
+			"input(0.5, ~/ping/) { tell user, 'pong' }"
+		)
+		when:
+			input("ping")
+			shutdownExecutors();
+			checkExceptions();
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+	
+	/**
+	 * Many wildcard and finite-priority rules that call
+	 * next(), so ranking has to walk down the whole list.
+	 */
+	def testManyFinitePriorityRules() {
+		setup:
+			int numRules = 100;
+			int numInputs = 200;
+			AtomicInteger evaluated = new AtomicInteger(0);
+			StringBuilder script = new StringBuilder();
+			for (int i = 0; i < numRules; i++) {
+				script.append("input(0.${199 - i}, ~/.*/) { evaluated(); next() }\n");
+				script.append("input(0.${199 - i}, de.uds.lsv.platon.script.Wildcard.INSTANCE) { evaluated(); next() }\n");
+			}
+			script.append("input(0.001, ~/.*/) { tell user, 'pong' }\n");
+			init(
+				script.toString(),
+				definitions: [
+					"evaluated": { evaluated.incrementAndGet() }
+				]
+			);
+		
+		when:
+			for (int i = 0; i < numInputs; i++) {
+				input("ping ${i}");
+			}
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			// rules are declared best first and next() goes on
+			// after the chosen one, so every rule runs once
+			evaluated.get() == numInputs * 2 * numRules
+			numInputs * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+	
+	def testParallelMatching() {
+		setup:
+			config.parallelInputMatchingThreshold = 1;
+			StringBuilder script = new StringBuilder();
+			for (int i = 0; i < 300; i++) {
+				script.append("input(~/other ${i}/) { tell user, 'error' }\n");
+			}
+			script.append("input(0.5, ~/ping/) { tell user, 'error' }\n");
+			script.append("input(true, 'ping') { next() }\n");
+			script.append("input({ String s -> s == 'ping' }) { next() }\n");
+			script.append("input(0.7, ~/p.*/) { tell user, 'pong' }\n");
+			script.append("input(0.7, ~/.*/) { tell user, 'error' }\n");
+			init(script.toString());
+		
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+		
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "pong", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
 }
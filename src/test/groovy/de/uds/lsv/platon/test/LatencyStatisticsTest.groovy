@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.concurrent.TimeUnit
+
+import spock.lang.Specification
+import de.uds.lsv.platon.session.LatencyStatistics
+
+class LatencyStatisticsTest extends Specification {
+	LatencyStatistics statistics = new LatencyStatistics("test");
+	
+	def testEmpty() {
+		expect:
+			statistics.getCount() == 0
+			statistics.getMean(TimeUnit.MICROSECONDS) == 0
+			statistics.getMax(TimeUnit.MICROSECONDS) == 0
+			statistics.getPercentile(99, TimeUnit.MICROSECONDS) == 0
+	}
+	
+	def testPercentiles() {
+		setup:
+			90.times { statistics.add(TimeUnit.MILLISECONDS.toNanos(1)) }
+			10.times { statistics.add(TimeUnit.MILLISECONDS.toNanos(100)) }
+		
+		expect:
+			statistics.getCount() == 100
+			statistics.getMean(TimeUnit.MICROSECONDS) == 10900
+			statistics.getMax(TimeUnit.MILLISECONDS) == 100
+			// 1ms is in the bucket up to 1024us
+			statistics.getPercentile(50, TimeUnit.MICROSECONDS) == 1024
+			statistics.getPercentile(90, TimeUnit.MICROSECONDS) == 1024
+			// the bucket for 100ms goes up to 131072us, but
+			// percentiles are capped at the maximum
+			statistics.getPercentile(91, TimeUnit.MICROSECONDS) == 100000
+			statistics.getPercentile(100, TimeUnit.MICROSECONDS) == 100000
+	}
+	
+	def testNegativeLatency() {
+		when:
+			statistics.add(-5);
+		
+		then:
+			statistics.getCount() == 1
+			statistics.getMax(TimeUnit.NANOSECONDS) == 0
+			statistics.getPercentile(100, TimeUnit.NANOSECONDS) == 0
+	}
+	
+	def testInvalidPercentile() {
+		when:
+			statistics.getPercentile(0, TimeUnit.MICROSECONDS);
+		
+		then:
+			thrown(IllegalArgumentException)
+	}
+	
+	def testReset() {
+		setup:
+			statistics.add(TimeUnit.MILLISECONDS.toNanos(5));
+		
+		when:
+			statistics.reset();
+		
+		then:
+			statistics.getCount() == 0
+			statistics.getMax(TimeUnit.MICROSECONDS) == 0
+			statistics.getPercentile(100, TimeUnit.MICROSECONDS) == 0
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import de.uds.lsv.platon.session.InputHypothesis
+
+class NBestInputTest extends TestImplBase {
+	def testPriorityTimesConfidence() {
+		init(
+			"input(0.5, 'play music') { tell user, 'music' }\n" +
+			"input(0.9, 'play news') { tell user, 'news' }"
+		)
+		when:
+			input([
+				new InputHypothesis("play music", 0.9),
+				new InputHypothesis("play news", 0.4)
+			])
+			shutdownExecutors();
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "music", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
+	
+	def testInfinitePriorityFirst() {
+		init(
+			"input(0.9, ~/.*/) { tell user, 'error' }\n" +
+			"input(~/stop/) { tell user, 'stopped' }"
+		)
+		when:
+			input([
+				new InputHypothesis("top", 0.8),
+				new InputHypothesis("stop", 0.2)
+			])
+			shutdownExecutors();
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "stopped", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
+	
+	def testMostConfidentHypothesis() {
+		init(
+			"input(~/yes|yeah/) { input, matcher, details -> tell user, details.hypothesis + ' ' + details.hypothesisRank + ' ' + details.score }"
+		)
+		when:
+			input([
+				new InputHypothesis("yes", 0.3),
+				new InputHypothesis("yeah", 0.6),
+				new InputHypothesis("no", 0.1)
+			])
+			shutdownExecutors();
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "yeah 1 Infinity", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
+	
+	def testScoreInDetails() {
+		init(
+			"input(0.5, 'hello') { input, result, details -> tell user, details.confidence + ' ' + details.score }"
+		)
+		when:
+			input([ new InputHypothesis("hello", 0.5) ])
+			shutdownExecutors();
+		then:
+			1 * dialogClientMonitor.outputStart(_, _, "0.5 0.25", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
+	
+	def testPrepareInputOncePerHypothesis() {
+		setup:
+			List<String> prepared = [];
+		init(
+			definitions: [ prepared: prepared ],
+			"prepareInput { prepared.add(it); it.toLowerCase() }\n" +
+			"input(0.5, 'hello') { tell user, 'hi' }"
+		)
+		when:
+			input([
+				new InputHypothesis("Hello", 0.7),
+				new InputHypothesis("Yellow", 0.2)
+			])
+			shutdownExecutors();
+		then:
+			prepared == [ "Hello", "Yellow" ]
+			1 * dialogClientMonitor.outputStart(_, _, "hi", _)
+			0 * dialogClientMonitor.outputStart(_, _, _, _)
+	}
+}
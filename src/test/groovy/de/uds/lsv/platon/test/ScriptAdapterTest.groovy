@@ -35,6 +35,7 @@ import de.uds.lsv.platon.session.User
 import de.uds.lsv.platon.test.WorldObjectWrapperTest.TestObject
 import de.uds.lsv.platon.world.WorldClass
 import de.uds.lsv.platon.world.WorldMethod
+import de.uds.lsv.platon.world.ObjectChange
 import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState
 
@@ -654,6 +655,109 @@ public class ScriptAdapterTest extends Specification {
 			0 * reactionMonitor.reaction(_)
 	}
 	
+	def testObjectModifiedChange() {
+		setup:
+			def user = new User(-1, 0, "test user", "en", "us");
+			def objects = [:];
+			
+			def worldState = Stub(WorldState);
+			worldState.getObjects() >> objects;
+			
+			def session = Stub(DialogSession);
+			session.runOnSessionThread(_) >> { it[0]() };
+			session.getWorldState() >> worldState;
+			
+			def dialogEngine = Mock(DialogEngine);
+			dialogEngine.getUser() >> user;
+			dialogEngine.getSession() >> session;
+		
+			def testObject = new TestObject();
+			testObject.init(session, [ (WorldObject.FIELD_ID): "foo", "propertyA": "1", (WorldObject.FIELD_TYPE): TestObject.TYPE ]);
+			
+			def reactionMonitor = Mock(ReactionMonitor)
+			def scriptAdapter = new ScriptAdapter(
+				new StringReader(
+					"objectModified({ o, n, change -> change.changed('propertyA') }) { reactionTriggered(0) }\n" +
+					"objectModified({ o, n, change -> change.changed('propertyB') }) { reactionTriggered(1) }\n" +
+					"objectModified('foo', { n, change -> n.propertyA == 2 && change.getOldValue('propertyA') == 1 }) { reactionTriggered(2) }\n" +
+					"objectModified({ o, n -> o.propertyA != n.propertyA }) { reactionTriggered(3) }"
+				),
+				null,
+				dialogEngine,
+				[ "reactionTriggered": { int id -> reactionMonitor.reaction(id) } ]
+			);
+	
+		when:
+			def oldProperties = testObject.getPropertiesWithInternalNames();
+			testObject.propertyA = 2;
+			scriptAdapter.objectModified(testObject, oldProperties)
+		then:
+			1 * reactionMonitor.reaction(0)
+			1 * reactionMonitor.reaction(2)
+			1 * reactionMonitor.reaction(3)
+			0 * reactionMonitor.reaction(_)
+	}
+	
+	def testWorldReactionCriteria() {
+		setup:
+			def user = new User(-1, 0, "test user", "en", "us");
+			def objects = [:];
+			
+			def worldState = Stub(WorldState);
+			worldState.getObjects() >> objects;
+			
+			def session = Stub(DialogSession);
+			session.runOnSessionThread(_) >> { it[0]() };
+			session.getWorldState() >> worldState;
+			
+			def dialogEngine = Mock(DialogEngine);
+			dialogEngine.getUser() >> user;
+			dialogEngine.getSession() >> session;
+			
+			def testObject = new TestObject();
+			testObject.init(session, [ (WorldObject.FIELD_ID): "foo", "propertyA": "1", (WorldObject.FIELD_TYPE): TestObject.TYPE ]);
+			
+			def reactionMonitor = Mock(ReactionMonitor)
+			def scriptAdapter = new ScriptAdapter(
+				new StringReader(
+					"objectModified(type: '${TestObject.TYPE}', changed: 'propertyA') { reactionTriggered(0) }\n" +
+					"objectModified(id: 'foo', changed: [ 'propertyB', 'propertyC' ]) { reactionTriggered(1) }\n" +
+					"objectModified(type: 'other.Type') { reactionTriggered(2) }\n" +
+					"objectModified(id: 'foo', { o, n -> n.propertyA == 2 }) { reactionTriggered(3) }\n" +
+					"objectAdded(type: '${TestObject.TYPE}') { reactionTriggered(4) }\n" +
+					"objectAdded(id: 'bar') { reactionTriggered(5) }\n" +
+					"objectDeleted(type: 'other.Type') { reactionTriggered(6) }"
+				),
+				null,
+				dialogEngine,
+				[ "reactionTriggered": { int id -> reactionMonitor.reaction(id) } ]
+			);
+		
+		when:
+			def oldProperties = testObject.getPropertiesWithInternalNames();
+			testObject.propertyA = 2;
+			scriptAdapter.objectModified(testObject, oldProperties)
+		then:
+			1 * reactionMonitor.reaction(0)
+			1 * reactionMonitor.reaction(3)
+			0 * reactionMonitor.reaction(_)
+		
+		when:
+			scriptAdapter.objectAdded(testObject)
+		then:
+			1 * reactionMonitor.reaction(4)
+			0 * reactionMonitor.reaction(_)
+		
+		when:
+			def otherObject = new TestObject();
+			otherObject.init(session, [ (WorldObject.FIELD_ID): "baz", (WorldObject.FIELD_TYPE): TestObject.TYPE ]);
+			def unchanged = new ObjectChange(otherObject, otherObject.getPropertiesWithInternalNames());
+		then:
+			scriptAdapter.mayReactToAdded(otherObject)
+			!scriptAdapter.mayReactToModified(unchanged)
+			!scriptAdapter.mayReactToDeleted(otherObject)
+	}
+	
 	def testObjectModifiedSingleClosure() {
 		setup:
 			def user = new User(-1, 0, "test user", "en", "us");
@@ -1518,6 +1622,7 @@ public class ScriptAdapterTest extends Specification {
 			
 			def worldState = Stub(WorldState);
 			worldState.getObjects() >> worldObjects;
+			worldState.getObject(_) >> { String id -> worldObjects[id] };
 			
 			def session = Stub(DialogSession);
 			session.getWorldState() >> worldState;
@@ -1564,6 +1669,7 @@ public class ScriptAdapterTest extends Specification {
 			
 			WorldState worldState = Stub(WorldState);
 			worldState.getObjects() >> worldObjects;
+			worldState.getObject(_) >> { String id -> worldObjects[id] };
 			
 			DialogClient dialogClient = Stub(DialogClient);
 			
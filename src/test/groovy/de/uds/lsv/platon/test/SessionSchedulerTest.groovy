@@ -0,0 +1,213 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+import de.uds.lsv.platon.session.SessionScheduler
+import de.uds.lsv.platon.session.SessionStrand
+
+class SessionSchedulerTest extends TestImplBase {
+	SessionScheduler scheduler = new SessionScheduler(4, 3);
+	
+	def cleanup() {
+		scheduler.shutdown();
+	}
+	
+	def testStrandsAreSerial() {
+		setup:
+			int numStrands = 20;
+			int numTasks = 1000;
+			List<SessionStrand> strands = (1..numStrands).collect { scheduler.createStrand("strand-${it}") };
+			List<List<Integer>> results = strands.collect { Collections.synchronizedList([]) };
+			List<AtomicBoolean> running = strands.collect { new AtomicBoolean(false) };
+			AtomicBoolean overlap = new AtomicBoolean(false);
+			CountDownLatch latch = new CountDownLatch(numStrands * numTasks);
+			
+		when:
+			for (int task = 0; task < numTasks; task++) {
+				for (int i = 0; i < numStrands; i++) {
+					final int strandIndex = i;
+					final int taskIndex = task;
+					strands[i].execute({
+						if (!running[strandIndex].compareAndSet(false, true)) {
+							overlap.set(true);
+						}
+						results[strandIndex].add(taskIndex);
+						running[strandIndex].set(false);
+						latch.countDown();
+					} as Runnable);
+				}
+			}
+			latch.await(1, TimeUnit.MINUTES);
+			
+		then:
+			!overlap.get()
+			results.every { it == (0..<numTasks).toList() }
+	}
+	
+	def testRunningOnCurrentThread() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			
+		when:
+			boolean inside = strand.submit({ strand.isRunningOnCurrentThread() } as java.util.concurrent.Callable).get();
+			
+		then:
+			inside
+			!strand.isRunningOnCurrentThread()
+	}
+	
+	def testSchedule() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			long start = System.nanoTime();
+			
+		when:
+			long end = strand.schedule({ System.nanoTime() } as java.util.concurrent.Callable, 100, TimeUnit.MILLISECONDS).get();
+			
+		then:
+			end - start >= TimeUnit.MILLISECONDS.toNanos(100)
+	}
+	
+	def testUrgentTasksGoFirst() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			CountDownLatch blocker = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(4);
+			List<String> order = Collections.synchronizedList([]);
+			
+		when:
+			strand.execute({ blocker.await(); done.countDown() } as Runnable);
+			strand.execute({ order.add("a"); done.countDown() } as Runnable);
+			strand.execute({ order.add("b"); done.countDown() } as Runnable);
+			strand.executeUrgent({ order.add("urgent"); done.countDown() } as Runnable);
+			blocker.countDown();
+			done.await(1, TimeUnit.MINUTES);
+			
+		then:
+			order == [ "urgent", "a", "b" ]
+	}
+	
+	def testEndOfTurnTasks() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			CountDownLatch blocker = new CountDownLatch(1);
+			CountDownLatch done = new CountDownLatch(7);
+			List<String> order = Collections.synchronizedList([]);
+			
+		when:
+			strand.execute({
+				blocker.await();
+				strand.executeAtEndOfTurn({ order.add("end"); done.countDown() } as Runnable);
+				done.countDown();
+			} as Runnable);
+			for (String name in [ "a", "b", "c", "d", "e" ]) {
+				final String task = name;
+				strand.execute({ order.add(task); done.countDown() } as Runnable);
+			}
+			blocker.countDown();
+			done.await(1, TimeUnit.MINUTES);
+			
+		then:
+			// three tasks per turn
+			order == [ "a", "b", "end", "c", "d", "e" ]
+	}
+	
+	def testShutdown() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			strand.execute({ Thread.sleep(100) } as Runnable);
+			
+		when:
+			strand.shutdown();
+			
+		then:
+			strand.awaitTermination(1, TimeUnit.MINUTES)
+			strand.isTerminated()
+	}
+	
+	def testDelayedTasksCancelledAtShutdown() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			AtomicBoolean ran = new AtomicBoolean(false);
+			ScheduledFuture future = strand.schedule({ ran.set(true) } as Runnable, 200, TimeUnit.MILLISECONDS);
+			
+		when:
+			strand.shutdown();
+			strand.awaitTermination(1, TimeUnit.MINUTES);
+			Thread.sleep(400);
+			
+		then:
+			future.isCancelled()
+			!ran.get()
+			strand.isTerminated()
+	}
+	
+	def testBlockingWaitOnSameScheduler() {
+		setup:
+			SessionStrand strand = scheduler.createStrand("strand");
+			SessionStrand other = scheduler.createStrand("other");
+			SessionScheduler otherScheduler = new SessionScheduler(1);
+			SessionStrand elsewhere = otherScheduler.createStrand("elsewhere");
+			List<Throwable> errors = Collections.synchronizedList([]);
+			
+		when:
+			strand.submit({
+				for (SessionStrand target : [ strand, other, elsewhere ]) {
+					try {
+						target.checkBlockingWait();
+						errors.add(null);
+					}
+					catch (IllegalStateException e) {
+						errors.add(e);
+					}
+				}
+			} as Runnable).get(1, TimeUnit.MINUTES);
+			// not on a strand
+			other.checkBlockingWait();
+			
+		then:
+			errors.size() == 3
+			errors[0] instanceof IllegalStateException
+			errors[1] instanceof IllegalStateException
+			errors[2] == null
+			
+		cleanup:
+			otherScheduler.shutdown();
+	}
+	
+	def testSessionsOnSharedScheduler() {
+		setup:
+			config.sessionScheduler = scheduler;
+			init(
+				"input(~/ping/) { tell user, 'pong' }",
+				numUsers: 2
+			)
+			
+		when:
+			input("ping");
+			shutdownExecutors();
+			checkExceptions();
+			
+		then:
+			2 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+}
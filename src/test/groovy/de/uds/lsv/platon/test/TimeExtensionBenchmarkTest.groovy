@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import spock.lang.Requires
+
+/**
+ * Engine creation and Integer-heavy script code with the
+ * time DSL from TimeExtension, and with the way it was
+ * installed before (evaluating platon-dsl/time.groovy for
+ * every engine, which turns Integer into an
+ * ExpandoMetaClass).
+ * Only runs with -Dplaton.benchmark=true.
+ */
+@Requires({ Benchmark.isEnabled() })
+class TimeExtensionBenchmarkTest extends TestImplBase {
+	/** the former platon-dsl/time.groovy */
+	private static final String LEGACY_TIME_DSL = buildLegacyTimeDsl();
+	
+	private static String buildLegacyTimeDsl() {
+		Map<String,String> units = [
+			"millisecond": "0, 0, 0, delegate",
+			"second": "0, 0, delegate, 0",
+			"minute": "0, delegate, 0, 0",
+			"hour": "delegate, 0, 0, 0"
+		];
+		
+		StringBuilder dsl = new StringBuilder();
+		for (String suffix : [ "", "s" ]) {
+			units.each {
+				String unit, String arguments ->
+				String name = unit + suffix;
+				String getter = "get" + name.substring(0, 1).toUpperCase() + name.substring(1);
+				dsl.append("Integer.metaClass.${name} << { closure -> new de.uds.lsv.platon.script.TimeDurationWithClosure(${arguments}, closure) };\n");
+				dsl.append("Integer.metaClass.${getter} << { new groovy.time.TimeDuration(${arguments}) };\n");
+			}
+		}
+		
+		return dsl.toString();
+	}
+	
+	private static void installLegacyTimeDsl() {
+		new GroovyShell().evaluate(LEGACY_TIME_DSL);
+	}
+	
+	def cleanup() {
+		// back to the default meta class for the other specs
+		GroovySystem.getMetaClassRegistry().removeMetaClass(Integer);
+	}
+	
+	def benchmarkEngineCreation(boolean legacy) {
+		setup:
+			int numUsers = 8;
+			String script = "input('ping') { after 100.milliseconds { tell user, 'pong' } }";
+		
+		when:
+			double nanos = Benchmark.nanosPerOperation(
+				"engine creation, ${legacy ? 'time.groovy per engine' : 'TimeExtension'}",
+				numUsers
+			) {
+				init(script, numUsers: numUsers, setActive: false);
+				if (legacy) {
+					for (int i = 0; i < numUsers; i++) {
+						installLegacyTimeDsl();
+					}
+				}
+				shutdownExecutors();
+			};
+			checkExceptions();
+		
+		then:
+			nanos > 0
+			(GroovySystem.getMetaClassRegistry().getMetaClass(Integer) instanceof ExpandoMetaClass) == legacy
+		
+		where:
+			legacy << [ true, false ]
+	}
+	
+	def benchmarkDynamicIntegerLoop(boolean legacy) {
+		setup:
+			int operations = 1000000;
+			if (legacy) {
+				installLegacyTimeDsl();
+			}
+			long sum = 0;
+		
+		when:
+			// dynamic call sites on Integer receivers, as in
+			// untyped dialog script code
+			double nanos = Benchmark.nanosPerOperation(
+				"dynamic Integer loop, ${legacy ? 'ExpandoMetaClass' : 'default meta class'}",
+				operations
+			) {
+				for (int i = 0; i < operations; i++) {
+					Integer n = i;
+					sum += n.intdiv(7).abs().compareTo(3);
+				}
+			};
+		
+		then:
+			nanos > 0
+			sum != 0
+			3.seconds.toMilliseconds() == 3000
+		
+		where:
+			legacy << [ true, false ]
+	}
+}
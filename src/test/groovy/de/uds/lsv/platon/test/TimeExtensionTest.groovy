@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import de.uds.lsv.platon.script.TimeDurationWithClosure
+
+class TimeExtensionTest extends TestImplBase {
+	def testDurations() {
+		expect:
+			1.millisecond.toMilliseconds() == 1
+			250.milliseconds.toMilliseconds() == 250
+			1.second.toMilliseconds() == 1000
+			3.seconds.toMilliseconds() == 3000
+			2.minutes.toMilliseconds() == 120000
+			1.hour.toMilliseconds() == 3600000
+	}
+	
+	def testDurationWithClosure() {
+		setup:
+			def duration = 2.seconds { 'x' }
+		expect:
+			duration instanceof TimeDurationWithClosure
+			duration.toMilliseconds() == 2000
+			duration.closure() == 'x'
+	}
+	
+	def testIntegerMetaClassUntouched() {
+		setup:
+			CountDownLatch done = new CountDownLatch(2);
+			init(
+				"input('ping') { after 100.milliseconds { tell user, 'pong'; done() } }",
+				numUsers: 2,
+				definitions: [ "done": { done.countDown() } ]
+			)
+		when:
+			input("ping");
+			done.await(5, TimeUnit.SECONDS);
+			shutdownExecutors();
+			checkExceptions();
+		then:
+			!(GroovySystem.getMetaClassRegistry().getMetaClass(Integer) instanceof ExpandoMetaClass)
+			2 * dialogClientMonitor.outputStart(_, _, "pong", _)
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import java.lang.management.ManagementFactory
+import java.lang.management.ThreadMXBean
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import spock.lang.IgnoreIf
+import spock.lang.Requires
+import de.uds.lsv.platon.DialogClient
+import de.uds.lsv.platon.DialogWorld
+import de.uds.lsv.platon.action.IOType
+import de.uds.lsv.platon.session.DialogSession
+import de.uds.lsv.platon.session.SessionScheduler
+import de.uds.lsv.platon.world.WorldObject
+import TestEnvironment.TestDoor
+
+class VirtualThreadSessionTest extends TestImplBase {
+	static final int NUM_SESSIONS = 80;
+	static final long LATENCY_MILLIS = 200;
+	/** a bounded pool of platform threads, as in Config.sessionScheduler */
+	static final int PLATFORM_THREADS = 4;
+	
+	/**
+	 * Stand-in for a slow game server: every change request
+	 * blocks the calling (session) thread.
+	 */
+	static class SlowDialogWorld implements DialogWorld {
+		DialogSession session;
+		CountDownLatch modifications;
+		
+		public SlowDialogWorld(CountDownLatch modifications) {
+			this.modifications = modifications;
+		}
+		
+		void init(DialogSession session) {
+			this.session = session;
+		}
+		
+		int beginTransaction() {
+			return -1;
+		}
+		
+		void endTransaction(int transactionId) {
+		}
+		
+		void changeRequestModify(int transactionId, Map<String,String> obj) {
+			Thread.sleep(LATENCY_MILLIS);
+			session.getTransactionManager().addChangeNotificationModify(transactionId, obj);
+			modifications.countDown();
+		}
+		
+		void changeRequestDelete(int transactionId, String objectId) {
+			Thread.sleep(LATENCY_MILLIS);
+			session.getTransactionManager().addChangeNotificationDelete(transactionId, objectId);
+		}
+		
+		void close() {
+		}
+	}
+	
+	List<DialogSession> sessions = [];
+	SessionScheduler platformScheduler = null;
+	
+	def cleanup() {
+		sessions*.shutdownExecutor();
+		platformScheduler?.shutdown();
+	}
+	
+	/**
+	 * Starts NUM_SESSIONS sessions that all wait for the slow
+	 * world at the same time.
+	 * 
+	 * @return
+	 *   milliseconds until all of them got their answer
+	 */
+	long runSlowSessions() {
+		TestEnvironment.registerTypes();
+		config.wrapExceptions = false;
+		config.openDialogScript = (Closure<Reader>){
+			-> new StringReader("input(~/ping/) { object('door1').open() }")
+		};
+		
+		CountDownLatch modifications = new CountDownLatch(NUM_SESSIONS);
+		List<DialogSession> started = [];
+		for (int i = 0; i < NUM_SESSIONS; i++) {
+			DialogSession session = new DialogSession(
+				config,
+				Stub(DialogClient),
+				new SlowDialogWorld(modifications),
+				createUsers(1)
+			);
+			session.getTransactionManager().addChangeNotificationAdd(
+				-1,
+				[
+					(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+					(WorldObject.FIELD_ID): "door1",
+					"isOpen": "false",
+					"isLocked": "false"
+				]
+			);
+			session.setActive(true);
+			started.add(session);
+		}
+		sessions.addAll(started);
+		
+		long start = System.nanoTime();
+		for (DialogSession session : started) {
+			session.inputStarted(null, IOType.SPEECH);
+			session.inputComplete(null, IOType.SPEECH, "ping", null);
+		}
+		assert modifications.await(1, TimeUnit.MINUTES);
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		
+		started*.waitForExecutorTasks();
+		assert started.every { it.getWorldState().getObjects().get('door1').isOpen };
+		return elapsedMillis;
+	}
+	
+	/**
+	 * The baseline: on a bounded pool, sessions waiting for the
+	 * world take turns on the platform threads.
+	 */
+	def testPlatformPoolIsBounded() {
+		setup:
+			platformScheduler = new SessionScheduler(PLATFORM_THREADS);
+			config.sessionScheduler = platformScheduler;
+		
+		when:
+			long elapsedMillis = runSlowSessions();
+		
+		then:
+			elapsedMillis >= (NUM_SESSIONS / PLATFORM_THREADS) * LATENCY_MILLIS
+	}
+	
+	@IgnoreIf({ SessionScheduler.isVirtualThreadSupported() })
+	def testVirtualThreadsUnsupported() {
+		when:
+			SessionScheduler.getVirtualThreadScheduler();
+		
+		then:
+			thrown(UnsupportedOperationException)
+	}
+	
+	/**
+	 * On virtual threads, the same sessions wait for the world
+	 * at the same time, without a platform thread each.
+	 */
+	@Requires({ SessionScheduler.isVirtualThreadSupported() })
+	def testVirtualThreadsOutperformPlatformPool() {
+		setup:
+			platformScheduler = new SessionScheduler(PLATFORM_THREADS);
+			config.sessionScheduler = platformScheduler;
+			long platformMillis = runSlowSessions();
+			sessions*.shutdownExecutor();
+			sessions.clear();
+			
+			config.sessionScheduler = null;
+			config.virtualThreadSessions = true;
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			int threadsBefore = threads.getThreadCount();
+			threads.resetPeakThreadCount();
+		
+		when:
+			long virtualMillis = runSlowSessions();
+			int addedThreads = threads.getPeakThreadCount() - threadsBefore;
+		
+		then:
+			virtualMillis * 4 < platformMillis
+			// one platform thread per session would be NUM_SESSIONS
+			addedThreads < NUM_SESSIONS / 4
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015, Spoken Language Systems Group, Saarland University.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.uds.lsv.platon.test;
+
+import org.codehaus.groovy.control.CompilerConfiguration
+
+import spock.lang.Specification
+import de.uds.lsv.platon.world.WorldClass
+import de.uds.lsv.platon.world.WorldClassCustomizer
+import de.uds.lsv.platon.world.WorldField
+import de.uds.lsv.platon.world.WorldObject
+
+/**
+ * World field access through the per-class accessors
+ * (WorldClassInfo), and through the accessors generated
+ * by WorldClassCustomizer falling back to them.
+ */
+class WorldClassInfoTest extends Specification {
+	@WorldClass("test.Base")
+	public static class Base extends WorldObject {
+		@WorldField
+		public int a = 1;
+		
+		@WorldField(writable=false)
+		public String b = "b";
+		
+		@WorldField
+		private int hidden = 2;
+		
+		public int plain = 3;
+	}
+	
+	@WorldClass("test.Derived")
+	public static class Derived extends Base {
+		@WorldField
+		public boolean c = false;
+		
+		@WorldField
+		public final String f = "f";
+		
+		public static final String TYPE = "test.Derived";
+	}
+	
+	private static <T extends WorldObject> T create(Class<T> cls) {
+		T object = cls.newInstance();
+		object.init(null, [ (WorldObject.FIELD_ID): "object1" ]);
+		return object;
+	}
+	
+	def testEnumerateInherited() {
+		setup:
+			Derived object = create(Derived);
+		
+		expect:
+			object.getType() == Derived.TYPE
+			object.getProperties() == [
+				(WorldObject.FIELD_ID): "object1",
+				(WorldObject.FIELD_TYPE): Derived.TYPE,
+				"a": 1,
+				"b": "b",
+				"c": false,
+				"f": "f"
+			]
+			create(Base).getProperties().keySet() == [ WorldObject.FIELD_ID, WorldObject.FIELD_TYPE, "a", "b" ] as Set
+	}
+	
+	def testGetAndSetInherited() {
+		setup:
+			Derived object = create(Derived);
+		
+		when:
+			object.modified([ (WorldObject.FIELD_ID): "object1", "a": "5", "b": "x", "c": "true" ]);
+		
+		then:
+			object.a == 5
+			object.b == "x"
+			object.c
+			object.getWorldPropertyAsString("a") == "5"
+			object.getWorldPropertyAsString("c") == "true"
+			object.matchesProperties([ "a": "5", "c": "true" ])
+			object.isWorldField("a")
+			object.isWritableField("a")
+			!object.isWritableField("b")
+	}
+	
+	def testPrivateField() {
+		setup:
+			Derived object = create(Derived);
+		
+		when:
+			object.modified([ (WorldObject.FIELD_ID): "object1", "hidden": "7" ]);
+		
+		then:
+			thrown(NoSuchFieldException)
+			!object.isWorldField("hidden")
+			object.getWorldPropertyAsString("hidden") == null
+	}
+	
+	def testFieldWithoutAnnotation() {
+		setup:
+			Derived object = create(Derived);
+		
+		when:
+			object.modified([ (WorldObject.FIELD_ID): "object1", "plain": "7" ]);
+		
+		then:
+			thrown(IllegalAccessException)
+			object.plain == 3
+			!object.isWorldField("plain")
+	}
+	
+	def testFinalField() {
+		setup:
+			Derived object = create(Derived);
+		
+		when:
+			object.modified([ (WorldObject.FIELD_ID): "object1", "f": "g" ]);
+		
+		then:
+			RuntimeException e = thrown()
+			e.message.contains("final")
+			object.f == "f"
+	}
+	
+	def testGeneratedAccessorsFallBack() {
+		setup:
+			CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
+			compilerConfiguration.addCompilationCustomizers(new WorldClassCustomizer());
+			GroovyClassLoader classLoader = new GroovyClassLoader(getClass().getClassLoader(), compilerConfiguration);
+			Class<? extends WorldObject> cls = classLoader.parseClass(
+				"import de.uds.lsv.platon.world.WorldClass\n" +
+				"import de.uds.lsv.platon.world.WorldField\n" +
+				"@WorldClass('test.Generated')\n" +
+				"class Generated extends de.uds.lsv.platon.test.WorldClassInfoTest.Derived {\n" +
+				"	@WorldField public int d = 4\n" +
+				"}"
+			);
+			WorldObject object = create(cls);
+		
+		when:
+			// d is generated, a and c are inherited
+			object.modified([ (WorldObject.FIELD_ID): "object1", "a": "5", "c": "true", "d": "6" ]);
+		
+		then:
+			object.getProperties() == [
+				(WorldObject.FIELD_ID): "object1",
+				(WorldObject.FIELD_TYPE): "test.Generated",
+				"a": 5,
+				"b": "b",
+				"c": true,
+				"d": 6,
+				"f": "f"
+			]
+			object.getWorldPropertyAsString("a") == "5"
+			object.getWorldPropertyAsString("d") == "6"
+			object.getWorldPropertyAsString("hidden") == null
+		
+		when:
+			object.modified([ (WorldObject.FIELD_ID): "object1", "hidden": "7" ]);
+		
+		then:
+			thrown(NoSuchFieldException)
+		
+		cleanup:
+			classLoader?.close();
+	}
+}
@@ -16,12 +16,15 @@
 
 package de.uds.lsv.platon.test;
 
+import org.codehaus.groovy.control.CompilerConfiguration
 import org.codehaus.groovy.jsr223.GroovyScriptEngineFactory
 import org.codehaus.groovy.jsr223.GroovyScriptEngineImpl
 import org.junit.Assert
 import org.junit.Test
 
 import TestEnvironment.TestDoor
+import de.uds.lsv.platon.world.ObjectChange
+import de.uds.lsv.platon.world.WorldClassCustomizer
 import de.uds.lsv.platon.world.WorldObject
 import de.uds.lsv.platon.world.WorldState
 
@@ -95,6 +98,85 @@ class WorldStateTest {
 		}
 	}
 	
+	@Test
+	public void testIndexes() {
+		TestEnvironment.registerTypes();
+		WorldState worldState = createWorldState();
+		worldState.addPropertyIndex("roomId");
+		
+		for (int i = 0; i < 9; i++) {
+			worldState.changeNotificationAdd([
+				(WorldObject.FIELD_ID): "door${i}" as String,
+				(WorldObject.FIELD_TYPE): TestDoor.TYPE,
+				"roomId": "room${i % 3}" as String,
+				"isOpen": (i < 3) ? "true" : "false"
+			]);
+		}
+		
+		Assert.assertEquals(9, worldState.getObjectsOfType(TestDoor.TYPE).size());
+		Assert.assertEquals([ "door1", "door4", "door7" ], worldState.findObjects([ "roomId": "room1" ])*.id.sort());
+		Assert.assertEquals([ "door1" ], worldState.findObjects([ "roomId": "room1", "isOpen": "true" ])*.id);
+		Assert.assertEquals([], worldState.findObjects([ (WorldObject.FIELD_TYPE): "NoSuchType" ]));
+		
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): "door1", "roomId": "room2" ]);
+		Assert.assertEquals([ "door4", "door7" ], worldState.findObjects([ "roomId": "room1" ])*.id.sort());
+		Assert.assertEquals([ "door1", "door2", "door5", "door8" ], worldState.findObjects([ "roomId": "room2" ])*.id.sort());
+		
+		worldState.changeNotificationDelete("door4");
+		Assert.assertEquals([ "door7" ], worldState.findObjects([ "roomId": "room1" ])*.id);
+		Assert.assertEquals(8, worldState.getObjectsOfType(TestDoor.TYPE).size());
+		Assert.assertNull(worldState.getObject("door4"));
+	}
+	
+	@Test
+	public void testGeneratedAccessors() {
+		CompilerConfiguration configuration = new CompilerConfiguration(CompilerConfiguration.DEFAULT);
+		configuration.addCompilationCustomizers(new WorldClassCustomizer());
+		GroovyClassLoader classLoader = new GroovyClassLoader(WorldStateTest.class.getClassLoader(), configuration);
+		classLoader.parseClass(
+			"import de.uds.lsv.platon.world.*\n" +
+			"@WorldClass('GeneratedLamp')\n" +
+			"class GeneratedLamp extends WorldObject {\n" +
+			"  @WorldField public boolean isOn = false\n" +
+			"  @WorldField public int brightness = 1\n" +
+			"  @WorldField public char label = 'a'\n" +
+			"  @WorldField public String roomId = null\n" +
+			"  @WorldField public final String model = 'x'\n" +
+			"}\n"
+		);
+		
+		WorldState worldState = new WorldState(null);
+		worldState.worldMaker.registerTypes(classLoader);
+		worldState.changeNotificationAdd([
+			(WorldObject.FIELD_ID): "lamp1",
+			(WorldObject.FIELD_TYPE): "GeneratedLamp",
+			"isOn": "true",
+			"brightness": "7",
+			"label": "b"
+		]);
+		
+		WorldObject lamp = worldState.getObject("lamp1");
+		Assert.assertNotNull(lamp.getClass().getDeclaredMethod("setWorldField", String, String));
+		Assert.assertEquals(
+			[ id: "lamp1", type: "GeneratedLamp", isOn: true, brightness: 7, label: 'b' as char, roomId: null, model: "x" ],
+			lamp.getPropertiesWithInternalNames()
+		);
+		Assert.assertTrue(lamp.matchesProperties([ "isOn": "true", "brightness": "7", "label": "b" ]));
+		Assert.assertFalse(lamp.matchesProperties([ "roomId": "null" ]));
+		
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): "lamp1", "roomId": "room1", "isOn": "false" ]);
+		Assert.assertEquals("room1", lamp.getWorldPropertyAsString("roomId"));
+		Assert.assertEquals([ lamp ], worldState.findObjects([ "roomId": "room1", "isOn": "false" ]));
+		
+		try {
+			lamp.modified([ (WorldObject.FIELD_ID): "lamp1", "model": "y" ]);
+			Assert.fail("Final field modified!");
+		}
+		catch (RuntimeException e) {
+		}
+		Assert.assertEquals("x", lamp.getWorldPropertyAsString("model"));
+	}
+	
 	@Test
 	public void testAddNotification() {
 		WorldState worldState = createWorldState();
@@ -202,9 +284,9 @@ class WorldStateTest {
 			worldState.addModifyListener(
 				new WorldState.ModifyListener() {
 					@Override
-					public void objectModified(WorldObject obj, Map<String,Object> oldProperties) {
-						notification[0] = obj.getProperties();
-						notification[1] = oldProperties;
+					public void objectModified(ObjectChange change) {
+						notification[0] = change.getObject().getProperties();
+						notification[1] = change.getOldProperties();
 					}
 				}
 			);
@@ -217,6 +299,59 @@ class WorldStateTest {
 		}
 	}
 	
+	@Test
+	public void testAwaitState() {
+		WorldState worldState = createWorldState();
+		
+		for (localObject in objects) {
+			worldState.changeNotificationAdd(localObject);
+		}
+		
+		def id = objects[1][WorldObject.FIELD_ID];
+		def reached = [];
+		def subscription = worldState.getSubscriptionManager().awaitState(
+			id,
+			[ (WorldObject.FIELD_ID): id, "isOpen": "true", "isLocked": "false" ],
+			{ reached.add(it.id) }
+		);
+		
+		// other object
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): objects[0][WorldObject.FIELD_ID], "isOpen": "false" ]);
+		Assert.assertEquals([], reached);
+		
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): id, "isLocked": "true" ]);
+		Assert.assertEquals([], reached);
+		
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): id, "isOpen": "true", "isLocked": "false" ]);
+		Assert.assertEquals([ id ], reached);
+		
+		subscription.cancel();
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): id, "isOpen": "true" ]);
+		Assert.assertEquals([ id ], reached);
+	}
+	
+	@Test
+	public void testSubscribeFilterExternalNames() {
+		WorldState worldState = createWorldState();
+		
+		for (localObject in objects) {
+			worldState.changeNotificationAdd(localObject);
+		}
+		
+		def id = objects[1][WorldObject.FIELD_ID];
+		def matched = [];
+		worldState.getSubscriptionManager().subscribe(
+			{
+				properties ->
+				properties[WorldObject.FIELD_TYPE] == TestDoor.TYPE && properties["isOpen"]
+			},
+			{ matched.add(it.id) }
+		);
+		
+		worldState.changeNotificationModify([ (WorldObject.FIELD_ID): id, "isOpen": "true" ]);
+		Assert.assertEquals([ id ], matched);
+	}
+	
 	@Test
 	public void testDelete() {
 		for (int i = 0; i < 30; i++) {